@@ -0,0 +1,171 @@
+package hsenfow.pongh.Audio;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import hsenfow.pongh.Utils;
+
+/**
+ * Plays sounds without blocking the caller. Each sound is decoded once and cached, and playing it
+ * just adds its ID to a queue that the mixer thread works through.
+ */
+public final class AudioEngine {
+
+	// The format every sound is decoded to and mixed in
+	static final AudioFormat FORMAT = new AudioFormat(44100, 16, 1, true, false);
+	// The number of bytes per frame in that format
+	static final int FRAME_SIZE = 2;
+
+	// The most sounds that can be waiting to be played at once
+	private static final int PLAY_QUEUE_CAPACITY = 64;
+
+	// The ID of each loaded sound, by its file path
+	private static final ConcurrentHashMap<String, Integer> soundIds = new ConcurrentHashMap<>();
+
+	// The decoded samples of each loaded sound, indexed by ID. This array is replaced rather than
+	// modified when a sound is loaded, so the mixer never sees it change underneath it
+	private static volatile short[][] sounds = new short[0][];
+
+	// The sounds waiting to be played
+	private static final PlayQueue playQueue = new PlayQueue(PLAY_QUEUE_CAPACITY);
+
+	// The mixer thread, or null if it hasn't been started (or couldn't be)
+	private static volatile AudioMixer mixer = null;
+	// Whether we've failed to start the mixer, in which case we won't try again
+	private static boolean mixerFailed = false;
+
+	/**
+	 * Loads and decodes the given sound, if it hasn't been loaded already.
+	 * @param filePath The file path of the sound
+	 * @return The ID used to play the sound, or -1 if it couldn't be loaded
+	 */
+	public static int load(String filePath){
+		Integer soundId = soundIds.get(filePath);
+		if(soundId != null) return soundId;
+
+		synchronized(AudioEngine.class){
+			// Check again, in case another thread loaded it while we were waiting
+			soundId = soundIds.get(filePath);
+			if(soundId != null) return soundId;
+
+			// Decode the sound
+			short[] samples = decode(filePath);
+			if(samples == null) return -1;
+
+			// Add it to the cache
+			short[][] newSounds = new short[sounds.length + 1][];
+			System.arraycopy(sounds, 0, newSounds, 0, sounds.length);
+			newSounds[sounds.length] = samples;
+			sounds = newSounds;
+			soundIds.put(filePath, sounds.length - 1);
+
+			// Make sure there's something to play it with
+			startMixer();
+
+			return sounds.length - 1;
+		}
+	}
+
+	/**
+	 * Plays the sound with the given ID. This never blocks; if too many sounds are waiting to be
+	 * played then the sound is dropped.
+	 * @param soundId The ID of the sound, as returned by load()
+	 */
+	public static void play(int soundId){
+		AudioMixer currentMixer = mixer;
+		if(currentMixer == null || soundId < 0) return;
+
+		if(playQueue.offer(soundId)) currentMixer.wake();
+	}
+
+	/**
+	 * Plays the given sound, loading it first if needed.
+	 * @param filePath The file path of the sound
+	 */
+	public static void play(String filePath){
+		play(load(filePath));
+	}
+
+	/**
+	 * Stops the mixer thread.
+	 */
+	public static synchronized void shutdown(){
+		if(mixer != null){
+			mixer.shutdown();
+			mixer = null;
+		}
+	}
+
+	/**
+	 * Used by the mixer to get the samples of a loaded sound.
+	 * @param soundId The ID of the sound
+	 * @return The sound's samples
+	 */
+	static short[] getSamples(int soundId){
+		return sounds[soundId];
+	}
+
+	/**
+	 * Starts the mixer thread if it isn't already running.
+	 */
+	private static void startMixer(){
+		if(mixer != null || mixerFailed) return;
+
+		try{
+			AudioMixer newMixer = new AudioMixer(AudioSystem.getSourceDataLine(FORMAT), playQueue);
+			newMixer.start();
+			mixer = newMixer;
+		} catch(LineUnavailableException | IllegalArgumentException | SecurityException e){
+			// There's probably no audio device, so we'll just be silent
+			Utils.log("Unable to start audio: " + e.toString());
+			mixerFailed = true;
+		}
+	}
+
+	/**
+	 * Decodes the given sound into samples in the mixer's format.
+	 * @param filePath The file path of the sound
+	 * @return The decoded samples, or null if the sound couldn't be decoded
+	 */
+	private static short[] decode(String filePath){
+		InputStream resourceStream = Utils.class.getResourceAsStream(filePath);
+		if(resourceStream == null){
+			Utils.log("Unable to find audio: " + filePath);
+			return null;
+		}
+
+		try(
+				// Open the sound, converting it to the mixer's format if needed
+				AudioInputStream sourceStream = AudioSystem.getAudioInputStream(new BufferedInputStream(resourceStream));
+				AudioInputStream inputStream = sourceStream.getFormat().matches(FORMAT) ? sourceStream
+						: AudioSystem.getAudioInputStream(FORMAT, sourceStream);
+				){
+			// Read the whole sound
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while((read = inputStream.read(buffer)) > 0) bytes.write(buffer, 0, read);
+
+			// Convert the little-endian bytes into samples
+			byte[] data = bytes.toByteArray();
+			short[] samples = new short[data.length / FRAME_SIZE];
+			for(int sample = 0; sample < samples.length; sample++){
+				samples[sample] = (short)((data[sample * 2] & 0xFF) | (data[(sample * 2) + 1] << 8));
+			}
+			return samples;
+		} catch(IOException | UnsupportedAudioFileException | IllegalArgumentException e){
+			Utils.log("Error loading audio: " + filePath + " - " + e.toString());
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,168 @@
+package hsenfow.pongh.Audio;
+
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+import hsenfow.pongh.Utils;
+
+/**
+ * Mixes every sound that's currently playing into a single line. Sounds are played on a fixed
+ * pool of voices. If every voice is busy when a new sound is requested, the voice that has been
+ * playing the longest is stolen for it.
+ */
+class AudioMixer extends Thread{
+
+	// The number of sounds that can play at once
+	private static final int VOICE_COUNT = 8;
+
+	// The number of frames mixed at a time. Smaller chunks mean less latency
+	private static final int CHUNK_FRAMES = 256;
+
+	// The size of the line's buffer, in chunks
+	private static final int LINE_BUFFER_CHUNKS = 4;
+
+	// How long to sleep for when there's nothing to play, in case a wake up is missed
+	private static final long IDLE_PARK_NANOS = 50000000L;
+
+	// The line everything is mixed into
+	private final SourceDataLine line;
+
+	// The sounds waiting to be played
+	private final PlayQueue playQueue;
+
+	// The sound being played by each voice (-1 if the voice is free), how far through it each
+	// voice is and when each voice started playing
+	private final int[] voiceSounds = new int[VOICE_COUNT];
+	private final int[] voicePositions = new int[VOICE_COUNT];
+	private final long[] voiceStarts = new long[VOICE_COUNT];
+	private long voicesStarted = 0;
+
+	// The buffers used for mixing and for writing to the line
+	private final int[] mixBuffer = new int[CHUNK_FRAMES];
+	private final byte[] lineBuffer = new byte[CHUNK_FRAMES * AudioEngine.FRAME_SIZE];
+
+	// Whether the mixer should keep running
+	private volatile boolean running = true;
+
+	/**
+	 * Opens the line used to play everything.
+	 * @param line The line to mix into
+	 * @param playQueue The queue of sounds waiting to be played
+	 * @throws LineUnavailableException Thrown if the line can't be opened
+	 */
+	AudioMixer(SourceDataLine line, PlayQueue playQueue) throws LineUnavailableException{
+		super("Audio mixer");
+		this.line = line;
+		this.playQueue = playQueue;
+
+		line.open(AudioEngine.FORMAT, lineBuffer.length * LINE_BUFFER_CHUNKS);
+
+		for(int voice = 0; voice < VOICE_COUNT; voice++) voiceSounds[voice] = -1;
+
+		setDaemon(true);
+	}
+
+	/**
+	 * Wakes the mixer up, as there are new sounds to play.
+	 */
+	void wake(){
+		LockSupport.unpark(this);
+	}
+
+	/**
+	 * Stops the mixer and closes its line.
+	 */
+	void shutdown(){
+		running = false;
+		wake();
+	}
+
+	/**
+	 * Keeps mixing the sounds being played until the mixer is stopped.
+	 */
+	@Override
+	public void run(){
+		line.start();
+
+		try{
+			while(running){
+				// Start playing any sounds that have been requested
+				int soundId;
+				while((soundId = playQueue.poll()) >= 0) startVoice(soundId);
+
+				// If nothing is playing then wait for something to be requested
+				if(!mixChunk()){
+					LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+					continue;
+				}
+
+				// Write the chunk. This blocks while the line's buffer is full, which is what
+				// paces the mixer
+				line.write(lineBuffer, 0, lineBuffer.length);
+			}
+		} catch(RuntimeException re){
+			Utils.log("Error mixing audio: " + re.toString());
+		} finally{
+			line.stop();
+			line.close();
+		}
+	}
+
+	/**
+	 * Starts playing the given sound on a free voice, stealing the oldest voice if none are free.
+	 * @param soundId The ID of the sound to play
+	 */
+	private void startVoice(int soundId){
+		int chosenVoice = 0;
+		for(int voice = 0; voice < VOICE_COUNT; voice++){
+			// Use the first free voice
+			if(voiceSounds[voice] < 0){
+				chosenVoice = voice;
+				break;
+			}
+
+			// Otherwise keep track of the oldest one
+			if(voiceStarts[voice] < voiceStarts[chosenVoice]) chosenVoice = voice;
+		}
+
+		voiceSounds[chosenVoice] = soundId;
+		voicePositions[chosenVoice] = 0;
+		voiceStarts[chosenVoice] = voicesStarted++;
+	}
+
+	/**
+	 * Mixes the next chunk of every sound that's playing into the line buffer.
+	 * @return False if there was nothing playing
+	 */
+	private boolean mixChunk(){
+		boolean playing = false;
+		for(int frame = 0; frame < CHUNK_FRAMES; frame++) mixBuffer[frame] = 0;
+
+		// Add each voice to the mix
+		for(int voice = 0; voice < VOICE_COUNT; voice++){
+			if(voiceSounds[voice] < 0) continue;
+			playing = true;
+
+			short[] samples = AudioEngine.getSamples(voiceSounds[voice]);
+			int position = voicePositions[voice];
+			int frames = Math.min(CHUNK_FRAMES, samples.length - position);
+			for(int frame = 0; frame < frames; frame++) mixBuffer[frame] += samples[position + frame];
+
+			// Free the voice once its sound has finished
+			voicePositions[voice] += frames;
+			if(voicePositions[voice] >= samples.length) voiceSounds[voice] = -1;
+		}
+		if(!playing) return false;
+
+		// Clip the mix and convert it to little-endian 16-bit samples
+		for(int frame = 0; frame < CHUNK_FRAMES; frame++){
+			int sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mixBuffer[frame]));
+			lineBuffer[frame * 2] = (byte)sample;
+			lineBuffer[(frame * 2) + 1] = (byte)(sample >> 8);
+		}
+		return true;
+	}
+
+}
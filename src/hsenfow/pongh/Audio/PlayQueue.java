@@ -0,0 +1,86 @@
+package hsenfow.pongh.Audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, lock-free queue of sound IDs waiting to be played. Any thread can add to the queue,
+ * but only the mixer thread takes from it. Nothing is allocated once the queue has been created.
+ */
+class PlayQueue {
+
+	// The sound IDs in the queue
+	private final int[] items;
+
+	// The sequence number of each slot, used to tell whether a slot is free or full
+	private final AtomicLongArray sequences;
+
+	// Used to wrap positions round to slots
+	private final int mask;
+
+	// The next position to add to, shared between every producer
+	private final AtomicLong enqueuePosition = new AtomicLong();
+	// The next position to take from. Only the consumer uses this
+	private long dequeuePosition = 0;
+
+	/**
+	 * Creates a queue with room for at least the given number of sound IDs.
+	 * @param capacity The minimum capacity of the queue
+	 */
+	PlayQueue(int capacity){
+		// Round the capacity up to a power of two so positions can be wrapped with a mask
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		items = new int[size];
+		sequences = new AtomicLongArray(size);
+		mask = size - 1;
+
+		// Each slot starts off free for the position matching its index
+		for(int i = 0; i < size; i++) sequences.set(i, i);
+	}
+
+	/**
+	 * Adds a sound ID to the queue without ever blocking.
+	 * @param soundId The ID of the sound to play
+	 * @return False if the queue was full, in which case the sound is dropped
+	 */
+	boolean offer(int soundId){
+		long position = enqueuePosition.get();
+		while(true){
+			int slot = (int)(position & mask);
+			long difference = sequences.get(slot) - position;
+
+			// The slot is free, so try to claim it
+			if(difference == 0){
+				if(enqueuePosition.compareAndSet(position, position + 1)){
+					items[slot] = soundId;
+					sequences.lazySet(slot, position + 1);
+					return true;
+				}
+				position = enqueuePosition.get();
+			}
+			// The slot hasn't been taken from yet, so the queue is full
+			else if(difference < 0){
+				return false;
+			}
+			// Another producer got here first
+			else{
+				position = enqueuePosition.get();
+			}
+		}
+	}
+
+	/**
+	 * Takes the next sound ID from the queue. Must only be called by the mixer thread.
+	 * @return The next sound ID, or -1 if the queue is empty
+	 */
+	int poll(){
+		int slot = (int)(dequeuePosition & mask);
+		if(sequences.get(slot) != dequeuePosition + 1) return -1;
+
+		int soundId = items[slot];
+		sequences.lazySet(slot, dequeuePosition + mask + 1);
+		dequeuePosition++;
+		return soundId;
+	}
+
+}
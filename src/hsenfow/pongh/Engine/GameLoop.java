@@ -0,0 +1,204 @@
+package hsenfow.pongh.Engine;
+
+import java.util.concurrent.locks.LockSupport;
+
+import hsenfow.pongh.Utils;
+
+/**
+ * Drives the game from its own thread, rather than from the Swing event dispatch thread. The
+ * simulation is ticked at a fixed rate, while rendering happens at its own (possibly uncapped)
+ * rate. If rendering falls behind, the missed ticks are caught up on before the next frame.
+ */
+public class GameLoop extends Thread{
+
+	// The number of nanoseconds in a second
+	public static final long NANOS_PER_SECOND = 1000000000L;
+
+	// The number of times per second the game is updated. Movement speeds are per tick, so
+	// changing this also changes the speed of the game
+	public static final int TICK_RATE = 60;
+
+	// The frame rate used to request uncapped rendering
+	public static final int UNCAPPED = 0;
+
+	// The most ticks we'll run in a row before rendering. If we're further behind than this, the
+	// remaining time is dropped rather than trying (and failing) to catch up forever
+	private static final int MAX_CATCH_UP_TICKS = 5;
+
+	// How close to a deadline we stop parking the thread and start spinning instead. Parking is
+	// cheap but imprecise, so the last stretch is spent yielding until the deadline
+	private static final long SPIN_THRESHOLD = 1500000L;
+
+	/**
+	 * The methods called by the game loop. These are always called from the game loop's thread.
+	 */
+	public interface LoopTarget{
+		/**
+		 * Advances the simulation by a single fixed tick.
+		 */
+		void tick();
+
+		/**
+		 * Renders the current state of the game.
+		 * @param alpha How far we are between the last tick and the next one, from 0 to 1. Used
+		 * to blend the previous and current state of the simulation
+		 */
+		void render(float alpha);
+	}
+
+	// The target being driven by this loop
+	private final LoopTarget target;
+
+	// The length of a single tick
+	private final long tickNanos;
+	// The length of a single frame, or 0 if rendering is uncapped
+	private volatile long frameNanos;
+
+	// Whether the loop should keep running
+	private volatile boolean running = true;
+
+	// The number of ticks performed and dropped (because we were too far behind) so far
+	private volatile long tickCount = 0;
+	private volatile long droppedTicks = 0;
+
+	/**
+	 * Creates a game loop for the given target.
+	 * @param target The target to tick and render
+	 * @param tickRate The number of ticks per second
+	 * @param frameRate The number of frames per second to aim for, or UNCAPPED
+	 */
+	public GameLoop(LoopTarget target, int tickRate, int frameRate){
+		super("Game loop");
+
+		if(tickRate <= 0) throw new IllegalArgumentException("Invalid tick rate: " + tickRate);
+
+		this.target = target;
+		this.tickNanos = NANOS_PER_SECOND / tickRate;
+		setFrameRate(frameRate);
+
+		// Don't let the loop keep the program alive by itself
+		setDaemon(true);
+	}
+
+	/**
+	 * Sets the number of frames per second to aim for.
+	 * @param frameRate The frame rate, or UNCAPPED to render as often as possible
+	 */
+	public void setFrameRate(int frameRate){
+		frameNanos = (frameRate <= 0) ? 0 : NANOS_PER_SECOND / frameRate;
+	}
+
+	/**
+	 * Used to get the length of a single tick.
+	 * @return The length of a tick in nanoseconds
+	 */
+	public long getTickNanos(){
+		return tickNanos;
+	}
+
+	/**
+	 * Used to get the number of ticks that have been performed.
+	 * @return The number of ticks performed so far
+	 */
+	public long getTickCount(){
+		return tickCount;
+	}
+
+	/**
+	 * Used to get the number of ticks dropped because the loop fell too far behind.
+	 * @return The number of dropped ticks
+	 */
+	public long getDroppedTicks(){
+		return droppedTicks;
+	}
+
+	/**
+	 * Ticks and renders until the loop is stopped.
+	 */
+	@Override
+	public void run(){
+		long nextTick = System.nanoTime();
+		long nextFrame = nextTick;
+
+		while(running){
+			// Run every tick that is due, catching up if we've fallen behind
+			long now = System.nanoTime();
+			int ticksRun = 0;
+			while(now - nextTick >= 0 && ticksRun < MAX_CATCH_UP_TICKS && running){
+				target.tick();
+				tickCount++;
+				ticksRun++;
+				nextTick += tickNanos;
+				now = System.nanoTime();
+			}
+
+			// If we're still behind then give up on the missed time, otherwise we'd never render
+			if(now - nextTick >= 0){
+				long missed = ((now - nextTick) / tickNanos) + 1;
+				droppedTicks += missed;
+				nextTick += missed * tickNanos;
+			}
+
+			if(!running) break;
+
+			// Render if a frame is due
+			long currentFrameNanos = frameNanos;
+			if(currentFrameNanos == 0){
+				target.render(getAlpha(nextTick));
+
+				// When uncapped, go straight round again
+				continue;
+			}
+			if(now - nextFrame >= 0){
+				target.render(getAlpha(nextTick));
+				nextFrame += currentFrameNanos;
+
+				// Don't try to make up for frames we missed, just aim for the next one
+				if(System.nanoTime() - nextFrame >= 0) nextFrame = System.nanoTime() + currentFrameNanos;
+			}
+
+			// Wait until either the next tick or the next frame is due
+			waitUntil((nextFrame - nextTick < 0) ? nextFrame : nextTick);
+		}
+	}
+
+	/**
+	 * Works out how far we currently are between the last tick and the next one.
+	 * @param nextTick The time the next tick is due
+	 * @return The fraction of the current tick that has elapsed, from 0 to 1
+	 */
+	private float getAlpha(long nextTick){
+		float alpha = (float)(System.nanoTime() - (nextTick - tickNanos)) / tickNanos;
+		return Math.max(0, Math.min(1, alpha));
+	}
+
+	/**
+	 * Waits until the given time, parking the thread for most of the wait and spinning for the
+	 * remainder so that we wake up close to the deadline.
+	 * @param deadline The System.nanoTime() value to wait until
+	 */
+	private void waitUntil(long deadline){
+		long remaining;
+		while(running && (remaining = deadline - System.nanoTime()) > 0){
+			if(remaining > SPIN_THRESHOLD) LockSupport.parkNanos(this, remaining - SPIN_THRESHOLD);
+			else Thread.yield();
+		}
+	}
+
+	/**
+	 * Stops the loop and waits for it to finish, unless called from the loop itself.
+	 */
+	public void stopLoop(){
+		running = false;
+		LockSupport.unpark(this);
+
+		if(Thread.currentThread() != this){
+			try{
+				join();
+			} catch(InterruptedException ie){
+				Utils.log("Interrupted while stopping the game loop");
+			}
+		}
+	}
+
+}
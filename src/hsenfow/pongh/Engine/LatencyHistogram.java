@@ -0,0 +1,178 @@
+package hsenfow.pongh.Engine;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts how often each latency is seen, with buckets that get wider as the latencies get longer
+ * (in the style of an HDR histogram). Every bucket is within about 3% of the latencies it holds,
+ * whether they're microseconds or seconds long, so percentiles stay accurate without storing every
+ * latency. Any thread can record into it, and recording never allocates.
+ */
+public class LatencyHistogram {
+
+	// The number of bits of precision kept for each latency. Latencies below 2^(SUB_BUCKET_BITS+1)
+	// microseconds are counted exactly; above that, each doubling is split into 2^SUB_BUCKET_BITS
+	// buckets
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+	// The longest latency that can be recorded, in microseconds (about 18 hours). Longer latencies
+	// are counted in the last bucket
+	private static final int MAX_MAGNITUDE = 36;
+	private static final int BUCKET_COUNT = (SUB_BUCKET_COUNT * 2) + ((MAX_MAGNITUDE - SUB_BUCKET_BITS - 1) * SUB_BUCKET_COUNT);
+
+	// The histogram's name, e.g. "Key to tick"
+	private final String name;
+
+	// The number of latencies in each bucket
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+	// The number of latencies recorded, their total and the longest one, in microseconds
+	private final AtomicLong totalCount = new AtomicLong();
+	private final AtomicLong totalMicros = new AtomicLong();
+	private final AtomicLong maxMicros = new AtomicLong();
+
+	/**
+	 * Creates an empty histogram.
+	 * @param name The histogram's name
+	 */
+	public LatencyHistogram(String name){
+		this.name = name;
+	}
+
+	/**
+	 * Used to get the histogram's name.
+	 * @return The histogram's name
+	 */
+	public String getName(){
+		return name;
+	}
+
+	/**
+	 * Records a latency.
+	 * @param nanos The latency, in nanoseconds. Negative latencies are counted as zero
+	 */
+	public void record(long nanos){
+		long micros = Math.max(0, nanos / 1000);
+		counts.incrementAndGet(getBucket(micros));
+		totalCount.incrementAndGet();
+		totalMicros.addAndGet(micros);
+
+		long max;
+		while(micros > (max = maxMicros.get()) && !maxMicros.compareAndSet(max, micros)){}
+	}
+
+	/**
+	 * Empties the histogram.
+	 */
+	public void reset(){
+		for(int bucket = 0; bucket < BUCKET_COUNT; bucket++) counts.set(bucket, 0);
+		totalCount.set(0);
+		totalMicros.set(0);
+		maxMicros.set(0);
+	}
+
+	/**
+	 * Used to get the number of latencies recorded.
+	 * @return The number of latencies
+	 */
+	public long getCount(){
+		return totalCount.get();
+	}
+
+	/**
+	 * Used to get the average latency.
+	 * @return The average latency, in microseconds
+	 */
+	public double getMeanMicros(){
+		long count = totalCount.get();
+		return count == 0 ? 0 : (double)totalMicros.get() / count;
+	}
+
+	/**
+	 * Used to get the longest latency recorded.
+	 * @return The longest latency, in microseconds
+	 */
+	public long getMaxMicros(){
+		return maxMicros.get();
+	}
+
+	/**
+	 * Used to get the latency that the given percentage of latencies are at or below.
+	 * @param percentile The percentage, from 0 to 100
+	 * @return The latency, in microseconds, or 0 if nothing has been recorded
+	 */
+	public long getPercentileMicros(double percentile){
+		long count = totalCount.get();
+		if(count == 0) return 0;
+
+		long target = Math.max(1, (long)Math.ceil((percentile / 100) * count));
+		long seen = 0;
+		for(int bucket = 0; bucket < BUCKET_COUNT; bucket++){
+			seen += counts.get(bucket);
+			if(seen >= target) return Math.min(getBucketTop(bucket), maxMicros.get());
+		}
+		return maxMicros.get();
+	}
+
+	/**
+	 * Creates a one line summary of the histogram, for showing in game.
+	 * @return The summary
+	 */
+	public String getSummary(){
+		return String.format("%s: p50 %.1fms  p99 %.1fms  max %.1fms  (%d)", name, getPercentileMicros(50) / 1000.0,
+				getPercentileMicros(99) / 1000.0, getMaxMicros() / 1000.0, getCount());
+	}
+
+	/**
+	 * Creates a table of latencies at increasingly fine percentiles, for saving to a file.
+	 * @return The table
+	 */
+	public String getPercentileTable(){
+		StringBuilder table = new StringBuilder();
+		table.append(String.format("%s (%d samples, mean %.3fms, max %.3fms)%n", name, getCount(), getMeanMicros() / 1000,
+				getMaxMicros() / 1000.0));
+		table.append(String.format("%12s %12s%n", "Latency(ms)", "Percentile"));
+
+		// Halve the distance to 100% each time, so the tail is shown in more detail
+		for(double remaining = 100; remaining >= 0.001; remaining /= 2){
+			for(int step = 0; step < 5; step++){
+				double percentile = 100 - remaining + ((remaining / 2) * step / 5);
+				table.append(String.format("%12.3f %12.5f%n", getPercentileMicros(percentile) / 1000.0, percentile));
+			}
+		}
+		table.append(String.format("%12.3f %12.5f%n", getMaxMicros() / 1000.0, 100.0));
+		return table.toString();
+	}
+
+	/**
+	 * Used to get the bucket a latency is counted in.
+	 * @param micros The latency, in microseconds
+	 * @return The bucket's index
+	 */
+	private static int getBucket(long micros){
+		if(micros < SUB_BUCKET_COUNT * 2) return (int)micros;
+
+		// Work out which doubling the latency is in, then which part of that doubling
+		int magnitude = 63 - Long.numberOfLeadingZeros(micros);
+		if(magnitude >= MAX_MAGNITUDE) return BUCKET_COUNT - 1;
+		int shift = magnitude - SUB_BUCKET_BITS;
+		int subBucket = (int)(micros >>> shift) - SUB_BUCKET_COUNT;
+		return (SUB_BUCKET_COUNT * 2) + ((shift - 1) * SUB_BUCKET_COUNT) + subBucket;
+	}
+
+	/**
+	 * Used to get the longest latency counted in a bucket.
+	 * @param bucket The bucket's index
+	 * @return The longest latency in the bucket, in microseconds
+	 */
+	private static long getBucketTop(int bucket){
+		if(bucket < SUB_BUCKET_COUNT * 2) return bucket;
+
+		int shift = ((bucket - (SUB_BUCKET_COUNT * 2)) / SUB_BUCKET_COUNT) + 1;
+		long subBucket = ((bucket - (SUB_BUCKET_COUNT * 2)) % SUB_BUCKET_COUNT) + SUB_BUCKET_COUNT;
+		return ((subBucket + 1) << shift) - 1;
+	}
+
+}
@@ -0,0 +1,114 @@
+package hsenfow.pongh.Engine;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import hsenfow.pongh.Utils;
+
+/**
+ * Measures how long it takes for a key press to take effect: until the tick that applies it, until
+ * the first frame that shows it, and (in multiplayer) until the other player's game applies it.
+ * Every time is measured from when the key event happened, on the System.nanoTime() clock.
+ */
+public class LatencyMonitor {
+
+	// The number of sent inputs that can be waiting to be acknowledged. Older ones are forgotten
+	private static final int PENDING_INPUTS = 64;
+
+	// The latencies from a key press to each point
+	public final LatencyHistogram tickApply = new LatencyHistogram("Key to tick");
+	public final LatencyHistogram frameShown = new LatencyHistogram("Key to frame");
+	public final LatencyHistogram remoteApply = new LatencyHistogram("Key to remote");
+
+	// The time of the oldest applied key press that hasn't been shown in a frame yet, or 0
+	private final AtomicLong unshownInputTime = new AtomicLong();
+
+	// The ID to give the next input sent to the other player
+	private int nextInputId = 0;
+	// The time of each sent input's key press and when it was sent, indexed by its ID
+	private final AtomicLongArray pendingPressTimes = new AtomicLongArray(PENDING_INPUTS);
+	private final AtomicLongArray pendingSendTimes = new AtomicLongArray(PENDING_INPUTS);
+
+	/**
+	 * Records a key press being applied by a tick.
+	 * @param inputTime When the key was pressed
+	 * @param now The current time
+	 */
+	public void inputApplied(long inputTime, long now){
+		tickApply.record(now - inputTime);
+
+		// Remember the press until a frame shows it. If there's already one waiting, keep that,
+		// as this press will be shown by the same frame
+		unshownInputTime.compareAndSet(0, inputTime);
+	}
+
+	/**
+	 * Records a frame being shown.
+	 * @param now The current time
+	 */
+	public void frameShown(long now){
+		long inputTime = unshownInputTime.getAndSet(0);
+		if(inputTime != 0) frameShown.record(now - inputTime);
+	}
+
+	/**
+	 * Records a key press being sent to the other player. Must only be called by the game loop.
+	 * @param inputTime When the key was pressed
+	 * @param now The current time
+	 * @return The ID to send with the input, which the other player sends back once it's applied
+	 */
+	public int inputSent(long inputTime, long now){
+		int inputId = nextInputId++ & Integer.MAX_VALUE;
+		int slot = inputId % PENDING_INPUTS;
+		pendingSendTimes.set(slot, now);
+		pendingPressTimes.set(slot, inputTime);
+		return inputId;
+	}
+
+	/**
+	 * Records the other player acknowledging that they've applied an input. The clocks on the two
+	 * computers can't be compared, so the time taken for the input to reach the other player is
+	 * taken to be half of the round trip.
+	 * @param inputId The ID that was sent with the input
+	 * @param now The current time
+	 */
+	public void inputAcknowledged(int inputId, long now){
+		if(inputId < 0) return;
+		int slot = inputId % PENDING_INPUTS;
+
+		long inputTime = pendingPressTimes.getAndSet(slot, 0);
+		long sendTime = pendingSendTimes.get(slot);
+		if(inputTime == 0) return;
+
+		remoteApply.record((sendTime - inputTime) + ((now - sendTime) / 2));
+	}
+
+	/**
+	 * Empties every histogram.
+	 */
+	public void reset(){
+		tickApply.reset();
+		frameShown.reset();
+		remoteApply.reset();
+	}
+
+	/**
+	 * Used to get a one line summary of each histogram, for showing in game.
+	 * @return The summaries
+	 */
+	public String[] getSummaries(){
+		return new String[]{tickApply.getSummary(), frameShown.getSummary(), remoteApply.getSummary()};
+	}
+
+	/**
+	 * Saves every histogram to a new file.
+	 * @return The file the histograms were saved to, or null if they couldn't be saved
+	 */
+	public String dump(){
+		String file = "latency-" + System.currentTimeMillis() + ".txt";
+		String content = tickApply.getPercentileTable() + "\n" + frameShown.getPercentileTable() + "\n"
+				+ remoteApply.getPercentileTable();
+		return Utils.writeFile(file, content) ? file : null;
+	}
+
+}
@@ -0,0 +1,102 @@
+package hsenfow.pongh.Engine;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of which slots are in use in a bounded, lock-free ring, where only one thread adds
+ * to the ring and only one thread takes from it. The ring itself keeps whatever is stored in each
+ * slot, in arrays of the size given by getSize, so nothing needs to be allocated once it's been
+ * created.
+ *
+ * The producing thread claims a position, fills its slot, then publishes it. The consuming thread
+ * takes everything between getTakePosition and getAddPosition, then releases it. Each position is
+ * only written by one thread, and is published with lazySet so the other thread sees the slot's
+ * contents before the new position.
+ */
+public class RingIndex {
+
+	// Used to wrap positions round to slots
+	private final int mask;
+
+	// The number of entries ever added and taken
+	private final AtomicLong addPosition = new AtomicLong();
+	private final AtomicLong takePosition = new AtomicLong();
+
+	/**
+	 * Creates an index for a ring with room for at least the given number of entries.
+	 * @param capacity The minimum capacity of the ring
+	 */
+	public RingIndex(int capacity){
+		// Round the capacity up to a power of two so positions can be wrapped with a mask
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		mask = size - 1;
+	}
+
+	/**
+	 * Used to get the number of slots in the ring.
+	 * @return The number of slots
+	 */
+	public int getSize(){
+		return mask + 1;
+	}
+
+	/**
+	 * Used to get the slot a position is stored in.
+	 * @param position The position
+	 * @return The slot
+	 */
+	public int getSlot(long position){
+		return (int)(position & mask);
+	}
+
+	/**
+	 * Claims the next position to add to. Must only be called by the producing thread.
+	 * @return The position, or -1 if the ring is full
+	 */
+	public long claim(){
+		long position = addPosition.get();
+		return (position - takePosition.get() > mask) ? -1 : position;
+	}
+
+	/**
+	 * Makes a claimed position's slot visible to the consuming thread, once it's been filled. Must
+	 * only be called by the producing thread.
+	 * @param position The position returned by claim
+	 */
+	public void publish(long position){
+		addPosition.lazySet(position + 1);
+	}
+
+	/**
+	 * Used to get the position of the oldest entry that hasn't been taken yet.
+	 * @return The position
+	 */
+	public long getTakePosition(){
+		return takePosition.get();
+	}
+
+	/**
+	 * Used to get the position after the newest entry that has been published.
+	 * @return The position
+	 */
+	public long getAddPosition(){
+		return addPosition.get();
+	}
+
+	/**
+	 * Hands every slot before a position back to the producing thread, once they've been taken.
+	 * Must only be called by the consuming thread.
+	 * @param end The position after the last entry taken
+	 */
+	public void release(long end){
+		takePosition.lazySet(end);
+	}
+
+	/**
+	 * Forgets every entry in the ring. Must only be called while neither thread is using it.
+	 */
+	public void clear(){
+		takePosition.set(addPosition.get());
+	}
+
+}
@@ -6,12 +6,10 @@ import java.awt.Graphics;
 import hsenfow.pongh.Settings;
 import hsenfow.pongh.Utils;
 import hsenfow.pongh.Settings.Setting;
+import hsenfow.pongh.Simulation.Court;
 
 public class Ball extends Entity{
 	
-	// The name of the bounce sound file
-	public static final String BOUNCE_SOUND_FILE = "bounce.wav";
-	
 	// The default size of the ball
 	public static final int DEFAULT_WIDTH = 20;
 	public static final int DEFAULT_HEIGHT = 20;
@@ -22,17 +20,37 @@ public class Ball extends Entity{
 	// The ball's current move speed
 	private int moveSpeedX = DEFAULT_MOVE_SPEED;
 	private int moveSpeedY = DEFAULT_MOVE_SPEED;
-
-	// The coins the player gets every time they win
-	private static final int COINS_PER_WIN = 1;
+	
+	// The court the ball is on
+	private final Court court;
+	
+	// The most times the ball can bounce in a single tick. This stops the ball getting stuck
+	// bouncing forever if it's trapped between a paddle and a wall
+	private static final int MAX_BOUNCES_PER_TICK = 4;
+	
+	// The ball's exact position. The entity's position is this rounded to whole pixels
+	private double exactX, exactY;
+	
+	// The results of the latest sweep: when the ball first hits something (as a fraction of the
+	// tick), what it hit and the normal of the point it hit
+	private double hitTime;
+	private Paddle hitPaddle;
+	private boolean hitWall;
+	private double hitNormalX, hitNormalY;
+	// The ball's centre after being pushed out of a paddle
+	private double hitX, hitY;
 	
 	/**
 	 * Creates a ball at the given position using the default size.
+	 * @param court The court the ball is on
 	 * @param x The X position of the ball
 	 * @param y The Y position of the ball
 	 */
-	public Ball(int x, int y){
+	public Ball(Court court, int x, int y){
 		super(x, y, DEFAULT_WIDTH, DEFAULT_HEIGHT);
+		this.court = court;
+		exactX = x;
+		exactY = y;
 		
 		// Try to get the setting for the ball's colour
 		Color ballColour = Utils.getColourFromString(Settings.getSettingValue(Setting.BALL_COLOUR));
@@ -50,113 +68,297 @@ public class Ball extends Entity{
 	}
 	
 	/**
-	 * Updates the position of the ball.
+	 * Used to get the ball's Y move speed.
+	 * @return The ball's Y move speed
+	 */
+	public int getMoveSpeedY(){
+		return moveSpeedY;
+	}
+	
+	/**
+	 * Sets the ball's move speed. A negative speed moves the ball left or up.
+	 * @param speedX The ball's new X move speed
+	 * @param speedY The ball's new Y move speed
+	 */
+	public void setMoveSpeed(int speedX, int speedY){
+		moveSpeedX = speedX;
+		moveSpeedY = speedY;
+	}
+	
+	/**
+	 * Used to get the ball's exact X position, which isn't rounded to whole pixels.
+	 * @return The ball's exact X position
+	 */
+	public double getExactX(){
+		return exactX;
+	}
+
+	/**
+	 * Used to get the ball's exact Y position, which isn't rounded to whole pixels.
+	 * @return The ball's exact Y position
+	 */
+	public double getExactY(){
+		return exactY;
+	}
+
+	/**
+	 * Moves the ball to an exact position, e.g. one saved earlier.
+	 * @param x The ball's new exact X position
+	 * @param y The ball's new exact Y position
+	 */
+	public void setExactPosition(double x, double y){
+		exactX = x;
+		exactY = y;
+		this.x = (int)Math.round(x);
+		this.y = (int)Math.round(y);
+	}
+
+	/**
+	 * Overridden to keep the ball's exact position in step.
+	 */
+	@Override
+	public void setPosition(int x, int y){
+		super.setPosition(x, y);
+		exactX = x;
+		exactY = y;
+	}
+	
+	/**
+	 * Updates the position of the ball, bouncing it off the walls and paddles it hits on the way.
+	 * The ball is swept along its path rather than just moved and checked, so it can't pass
+	 * through a paddle however fast it's moving.
 	 */
 	public void update(){
-		y += moveSpeedY;
-		x += moveSpeedX;
+		double radius = width / 2.0;
+		double centreX = exactX + radius, centreY = exactY + radius;
 		
-		// Make the ball bounce (reverse direction) when it reaches the top or bottom of the window
-		int gamePanelHeight = Utils.mainFrame.gamePanel.getHeight();
-		if(y + height > gamePanelHeight){
-			// Correct its position
-			y -= (y + height) - gamePanelHeight;
-			// Reverse its direction
-			moveSpeedY *= -1;
-			// Play a bounce sound
-			Utils.playAudio(Utils.AUDIO_FOLDER + Ball.BOUNCE_SOUND_FILE);
-		}
-		else if(y < 0){
-			// Correct its position
-			y += (0 - y);
-			// Reverse its direction
-			moveSpeedY *= -1;
-			// Play a bounce sound
-			Utils.playAudio(Utils.AUDIO_FOLDER + Ball.BOUNCE_SOUND_FILE);
+		// Keep moving the ball until it has travelled for the whole tick, bouncing it off
+		// whatever it hits first each time
+		double remaining = 1;
+		for(int iteration = 0; iteration < MAX_BOUNCES_PER_TICK && remaining > 0; iteration++){
+			// Make sure the ball isn't already overlapping a paddle (e.g. a paddle moved into it)
+			if(pushOutOfPaddle(court.paddleOne, centreX, centreY, radius)
+					|| pushOutOfPaddle(court.paddleTwo, centreX, centreY, radius)){
+				centreX = hitX;
+				centreY = hitY;
+			}
+			
+			// Find the first thing the ball hits on its way
+			hitTime = remaining;
+			hitPaddle = null;
+			hitWall = false;
+			sweepWalls(centreX, centreY, radius);
+			sweepPaddle(court.paddleOne, centreX, centreY, radius);
+			sweepPaddle(court.paddleTwo, centreX, centreY, radius);
+			
+			// Move the ball up to that point
+			centreX += moveSpeedX * hitTime;
+			centreY += moveSpeedY * hitTime;
+			remaining -= hitTime;
+			
+			// Bounce off whatever was hit
+			if(hitPaddle != null){
+				bounceOffPaddle(hitPaddle);
+			}
+			else if(hitWall){
+				moveSpeedY *= -1;
+				court.ballBounced();
+			}
+			else{
+				break;
+			}
 		}
-
-		// When the ball leaves the screen, increase the coins count of either the player or their opponent
-		if(x < 0 || x + width > Utils.mainFrame.gamePanel.getWidth()){
+		
+		// Store the ball's new position
+		exactX = centreX - radius;
+		exactY = centreY - radius;
+		x = (int)Math.round(exactX);
+		y = (int)Math.round(exactY);
+		
+		// When the ball leaves the court, give a point to whoever's side it didn't leave by
+		int courtWidth = court.getWidth();
+		if(x < 0 || x + width > courtWidth){
+			// If the ball left the right side of the court, then it's player one's point
+			int scorer = (x + width > courtWidth) ? Court.PLAYER_ONE : Court.PLAYER_TWO;
+			
 			// Centre the ball
-			x = Utils.mainFrame.gamePanel.getWidth() / 2;
-			y = Utils.mainFrame.gamePanel.getHeight() / 2;
+			setPosition(courtWidth / 2, court.getHeight() / 2);
 			moveSpeedX *= -1;
 			moveSpeedY *= -1;
+			
+			// Don't blend the ball's old and new positions, it should jump straight to the centre
+			resetPreviousPosition();
 
-			// If the ball left the right side of the screen, then increase the player's coin count
-			if(x + width > Utils.mainFrame.gamePanel.getWidth()) Utils.player.increaseCoins(COINS_PER_WIN);
+			court.pointScored(scorer);
 		}
 	}
 	
 	/**
-	 * Checks whether the ball is colliding with the given paddle and if so, reverses its X
-	 * direction.
-	 * @param paddle The paddle to check the collision with
-	 * @return Whether or not the ball was colliding with the paddle
+	 * Works out when (if at all) the ball hits the top or bottom of the court this tick.
+	 * @param centreX The X coordinate of the ball's centre
+	 * @param centreY The Y coordinate of the ball's centre
+	 * @param radius The ball's radius
 	 */
-	public boolean checkPaddleCollision(Paddle paddle){
-		// TODO There are some small problems with this
+	private void sweepWalls(double centreX, double centreY, double radius){
+		double time;
+		if(moveSpeedY < 0) time = (radius - centreY) / moveSpeedY;
+		else if(moveSpeedY > 0) time = (court.getHeight() - radius - centreY) / moveSpeedY;
+		else return;
 		
-		// Check whether the ball has collided with the paddle horizontally in some way
-		if((x + width >= paddle.x && x + width <= paddle.x + paddle.width)
-				|| (x >= paddle.x && x <= paddle.x + paddle.width)){
-			
-			// Check how the ball has collided vertically
-			if((moveSpeedX > 0 ? (x + width <= paddle.x + moveSpeedX) : (x >= paddle.x + paddle.width + moveSpeedX))
-					&&(y <= paddle.y + paddle.height && y >= paddle.y)
-					|| (y + height <= paddle.height && y + height >= paddle.y)){ // A normal, side-on collision
-				
-				// Correct the ball's position (so it isn't inside the paddle
-				if(moveSpeedX > 0) x += (x + width) - paddle.x;
-				else x += paddle.x + paddle.width - x;
-				
-				// Reverse the X direction
-				moveSpeedX *= -1;
-				
-				// Set the ball's new Y direction depending on the direction the paddle was
-				// travelling in
-				if(paddle.currentDirection == Paddle.Direction.UP){
-					if(moveSpeedY > 0) moveSpeedY *= -1;
-				}
-				else if(paddle.currentDirection == Paddle.Direction.DOWN){
-					if(moveSpeedY < 0) moveSpeedY *= -1;
-				}
-				
-				Utils.playAudio(Utils.AUDIO_FOLDER + Ball.BOUNCE_SOUND_FILE);
-				return true;
+		// If the ball is already past the wall, then it bounces straight away
+		time = Math.max(0, time);
+		if(time < hitTime){
+			hitTime = time;
+			hitPaddle = null;
+			hitWall = true;
+		}
+	}
+	
+	/**
+	 * Works out when (if at all) the ball hits the given paddle this tick. The ball hits the paddle
+	 * when its centre touches the paddle grown by the ball's radius, which is a rectangle with
+	 * rounded corners.
+	 * @param paddle The paddle to check
+	 * @param centreX The X coordinate of the ball's centre
+	 * @param centreY The Y coordinate of the ball's centre
+	 * @param radius The ball's radius
+	 */
+	private void sweepPaddle(Paddle paddle, double centreX, double centreY, double radius){
+		double left = paddle.x, right = paddle.x + paddle.width;
+		double top = paddle.y, bottom = paddle.y + paddle.height;
+		
+		// First find when the ball's centre enters the paddle grown by the radius on every side
+		double entryTime = 0, exitTime = hitTime;
+		double normalX = 0, normalY = 0;
+		if(moveSpeedX != 0){
+			double nearTime = (((moveSpeedX > 0) ? left - radius : right + radius) - centreX) / moveSpeedX;
+			double farTime = (((moveSpeedX > 0) ? right + radius : left - radius) - centreX) / moveSpeedX;
+			if(nearTime > entryTime){
+				entryTime = nearTime;
+				normalX = (moveSpeedX > 0) ? -1 : 1;
 			}
-			else if(moveSpeedY > 0 && y + height >= paddle.y
-					&& y + height < paddle.y + paddle.height){ // Collided with the top of the paddle
-				// Correct the ball's position
-				y = paddle.y - height;
-				// Reverse the ball's Y position
-				moveSpeedY *= -1;
-				
-				Utils.playAudio(Utils.AUDIO_FOLDER + Ball.BOUNCE_SOUND_FILE);
-				return true;
+			exitTime = Math.min(exitTime, farTime);
+		}
+		else if(centreX < left - radius || centreX > right + radius){
+			return;
+		}
+		if(moveSpeedY != 0){
+			double nearTime = (((moveSpeedY > 0) ? top - radius : bottom + radius) - centreY) / moveSpeedY;
+			double farTime = (((moveSpeedY > 0) ? bottom + radius : top - radius) - centreY) / moveSpeedY;
+			if(nearTime > entryTime){
+				entryTime = nearTime;
+				normalX = 0;
+				normalY = (moveSpeedY > 0) ? -1 : 1;
 			}
-			else if(moveSpeedY < 0 && y <= paddle.y + paddle.height
-					&& y > paddle.y){ // Collided with the bottom of the paddle
-				// Correct the ball's position
-				y = paddle.y + paddle.height;
-				// Reverse the ball's Y position
-				moveSpeedY *= -1;
-				
-				Utils.playAudio(Utils.AUDIO_FOLDER + Ball.BOUNCE_SOUND_FILE);
-				return true;
+			exitTime = Math.min(exitTime, farTime);
+		}
+		else if(centreY < top - radius || centreY > bottom + radius){
+			return;
+		}
+		
+		// The ball doesn't reach the grown paddle this tick
+		if(entryTime > exitTime || entryTime >= hitTime) return;
+		
+		// If the ball enters beside a corner rather than a side, it has to actually hit the
+		// rounded corner
+		double entryX = centreX + (moveSpeedX * entryTime), entryY = centreY + (moveSpeedY * entryTime);
+		boolean besideSide = entryY >= top && entryY <= bottom;
+		boolean besideTopOrBottom = entryX >= left && entryX <= right;
+		if(besideSide || besideTopOrBottom){
+			// If the ball started inside the grown paddle then it's either already overlapping the
+			// paddle (which is dealt with separately) or moving away from it
+			if(normalX == 0 && normalY == 0) return;
+		}
+		else{
+			double cornerX = (entryX < left) ? left : right;
+			double cornerY = (entryY < top) ? top : bottom;
+			
+			// Solve |centre + speed * t - corner| = radius for the earliest t
+			double offsetX = centreX - cornerX, offsetY = centreY - cornerY;
+			double a = (moveSpeedX * moveSpeedX) + (moveSpeedY * moveSpeedY);
+			double b = (offsetX * moveSpeedX) + (offsetY * moveSpeedY);
+			double c = (offsetX * offsetX) + (offsetY * offsetY) - (radius * radius);
+			double discriminant = (b * b) - (a * c);
+			
+			// The ball misses the corner, or is moving away from it
+			if(b >= 0 || discriminant < 0) return;
+			
+			entryTime = Math.max(0, (-b - Math.sqrt(discriminant)) / a);
+			if(entryTime >= hitTime) return;
+			
+			// The ball bounces away from the corner
+			normalX = (centreX + (moveSpeedX * entryTime)) - cornerX;
+			normalY = (centreY + (moveSpeedY * entryTime)) - cornerY;
+		}
+		
+		hitTime = entryTime;
+		hitPaddle = paddle;
+		hitWall = false;
+		hitNormalX = normalX;
+		hitNormalY = normalY;
+	}
+	
+	/**
+	 * Pushes the ball out of the given paddle if the two are overlapping, towards whichever side of
+	 * the paddle the ball's centre is on. The new centre is stored in hitX and hitY.
+	 * @param paddle The paddle to check
+	 * @param centreX The X coordinate of the ball's centre
+	 * @param centreY The Y coordinate of the ball's centre
+	 * @param radius The ball's radius
+	 * @return Whether the ball had to be moved
+	 */
+	private boolean pushOutOfPaddle(Paddle paddle, double centreX, double centreY, double radius){
+		// Find the closest point on the paddle to the ball's centre
+		double closestX = Math.max(paddle.x, Math.min(paddle.x + paddle.width, centreX));
+		double closestY = Math.max(paddle.y, Math.min(paddle.y + paddle.height, centreY));
+		double offsetX = centreX - closestX, offsetY = centreY - closestY;
+		if((offsetX * offsetX) + (offsetY * offsetY) >= radius * radius) return false;
+		
+		// Push the ball out sideways, as that's how paddles normally hit it
+		double paddleCentreX = paddle.x + (paddle.width / 2.0);
+		hitX = (centreX < paddleCentreX) ? paddle.x - radius : paddle.x + paddle.width + radius;
+		hitY = centreY;
+		
+		// Make sure it's moving away from the paddle
+		if((centreX < paddleCentreX) == (moveSpeedX > 0)){
+			moveSpeedX *= -1;
+			court.ballBounced();
+		}
+		return true;
+	}
+	
+	/**
+	 * Bounces the ball off the paddle it just hit, using the normal of the point it hit.
+	 * @param paddle The paddle that was hit
+	 */
+	private void bounceOffPaddle(Paddle paddle){
+		// Reverse whichever directions were heading into the paddle
+		if(moveSpeedX * hitNormalX < 0) moveSpeedX *= -1;
+		if(moveSpeedY * hitNormalY < 0) moveSpeedY *= -1;
+		
+		// If the ball hit the side of the paddle, set the ball's new Y direction depending on the
+		// direction the paddle was travelling in
+		if(hitNormalY == 0){
+			if(paddle.currentDirection == Paddle.Direction.UP){
+				if(moveSpeedY > 0) moveSpeedY *= -1;
+			}
+			else if(paddle.currentDirection == Paddle.Direction.DOWN){
+				if(moveSpeedY < 0) moveSpeedY *= -1;
 			}
 		}
 		
-		return false;
+		court.ballBounced();
 	}
 	
 	/**
 	 * Overridden so that the ball can be a circle.
 	 */
 	@Override
-	public void render(Graphics graphics){
+	public void render(Graphics graphics, float alpha){
+		updateRenderPosition(alpha);
+		
 		graphics.setColor(colour);
-		graphics.fillOval(x, y, width, height);
+		graphics.fillOval(renderX, renderY, width, height);
 	}
 	
 }
@@ -2,6 +2,7 @@ package hsenfow.pongh.Entities;
 
 import java.awt.Color;
 import java.awt.Graphics;
+import java.awt.Rectangle;
 
 public class Entity {
 	
@@ -11,6 +12,13 @@ public class Entity {
 	// The position of the entity
 	protected int x, y;
 	
+	// The position of the entity at the start of the current tick. Rendering blends between this
+	// and the current position, so movement looks smooth even when ticks and frames don't line up
+	protected int previousX, previousY;
+	
+	// The position the entity was last rendered at
+	protected int renderX, renderY;
+	
 	// The colour of the entity
 	protected Color colour = null;
 	
@@ -26,6 +34,8 @@ public class Entity {
 		this.y = y;
 		this.width = width;
 		this.height = height;
+		
+		resetPreviousPosition();
 	}
 	
 	/**
@@ -38,6 +48,26 @@ public class Entity {
 		this.y = y;
 	}
 	
+	/**
+	 * Moves the entity straight to the given position, without it being blended with its previous
+	 * position when rendered.
+	 * @param x The entity's new X coordinate
+	 * @param y The entity's new Y coordinate
+	 */
+	public void resetPosition(int x, int y){
+		setPosition(x, y);
+		resetPreviousPosition();
+	}
+	
+	/**
+	 * Stores the entity's current position as its previous one. This should be called at the
+	 * start of every tick.
+	 */
+	public void resetPreviousPosition(){
+		previousX = x;
+		previousY = y;
+	}
+	
 	/**
 	 * Used to get the X coordinate of the entity.
 	 * @return The entity's X coordinate
@@ -78,13 +108,43 @@ public class Entity {
 		if(newColour == null) newColour = Color.WHITE;
 		this.colour = newColour;
 	}
+
+	/**
+	 * Used to get the colour of the entity.
+	 * @return The entity's colour
+	 */
+	public Color getColour(){
+		return colour;
+	}
+
+	/**
+	 * Gets the area covered by the entity when it was last rendered.
+	 * @param bounds The rectangle to store the area in
+	 */
+	public void getRenderBounds(Rectangle bounds){
+		bounds.setBounds(renderX, renderY, width, height);
+	}
+	
+	/**
+	 * Works out where the entity should be rendered, blending its previous and current positions.
+	 * @param alpha How far through the current tick we are, from 0 (the previous position) to 1
+	 * (the current position)
+	 */
+	protected void updateRenderPosition(float alpha){
+		renderX = previousX + Math.round((x - previousX) * alpha);
+		renderY = previousY + Math.round((y - previousY) * alpha);
+	}
 	
 	/**
 	 * Renders the entity.
 	 * @param graphics The graphics object to use to render the paddle
+	 * @param alpha How far through the current tick we are, used to blend the entity's previous
+	 * and current positions
 	 */
-	public void render(Graphics graphics){
+	public void render(Graphics graphics, float alpha){
+		updateRenderPosition(alpha);
+		
 		if(colour != null) graphics.setColor(colour);
-		graphics.fillRect(x, y, width, height);
+		graphics.fillRect(renderX, renderY, width, height);
 	}
 }
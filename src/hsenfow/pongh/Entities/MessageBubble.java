@@ -0,0 +1,203 @@
+package hsenfow.pongh.Entities;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import hsenfow.pongh.Settings;
+import hsenfow.pongh.Rendering.BackBuffer;
+import hsenfow.pongh.Settings.Setting;
+
+/**
+ * A chat message that has been wrapped into lines, measured and drawn into an image once, so that
+ * showing it each frame is just a single image draw. Recently used bubbles are cached, so sending
+ * the same message again doesn't lay it out again.
+ */
+public class MessageBubble {
+
+	// The number of characters in each line
+	private static final int LINE_CHARS = 16;
+
+	// The font used for messages
+	private static final Font FONT = new Font("Monospaced", Font.PLAIN, 12);
+
+	// The number of bubbles kept in the cache
+	private static final int CACHE_SIZE = 32;
+
+	// The most recently used bubbles, by anti-aliasing setting, colour and message
+	private static final LinkedHashMap<String, MessageBubble> cache =
+			new LinkedHashMap<String, MessageBubble>(CACHE_SIZE, 0.75f, true){
+				private static final long serialVersionUID = 2870345143870581325L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, MessageBubble> eldest){
+					return size() > CACHE_SIZE;
+				}
+			};
+
+	// The font metrics used to measure messages
+	private static FontMetrics fontMetrics = null;
+
+	// The message's lines and the width of each one
+	private final String[] lines;
+	private final int[] lineWidths;
+
+	// The size of the whole bubble
+	private final int width, height;
+
+	// The distance from the top of the bubble to the baseline of its first line, and between
+	// the baselines of each line
+	private final int ascent, lineHeight;
+
+	// The colour of the text
+	private final Color colour;
+
+	// Whether the text is drawn with anti-aliasing
+	private final boolean antialiasing;
+
+	// The pre-rendered bubble. Created the first time the bubble is drawn
+	private BufferedImage image = null;
+
+	/**
+	 * Gets the bubble for the given message, laying it out if it isn't already cached.
+	 * @param message The message
+	 * @param colour The colour of the message's text
+	 * @return The message's bubble
+	 */
+	public static MessageBubble get(String message, Color colour){
+		boolean antialiasing = Boolean.parseBoolean(Settings.getSettingValue(Setting.ANTI_ALIASING));
+		String key = antialiasing + ":" + colour.getRGB() + ":" + message;
+		synchronized(cache){
+			MessageBubble bubble = cache.get(key);
+			if(bubble == null){
+				bubble = new MessageBubble(message, colour, antialiasing);
+				cache.put(key, bubble);
+			}
+			return bubble;
+		}
+	}
+
+	/**
+	 * Lays out the given message.
+	 * @param message The message
+	 * @param colour The colour of the message's text
+	 * @param antialiasing Whether to draw the text with anti-aliasing
+	 */
+	private MessageBubble(String message, Color colour, boolean antialiasing){
+		this.colour = colour;
+		this.antialiasing = antialiasing;
+
+		// Put the message into lines to prevent it being too long and going off the screen
+		lines = wrap(message);
+
+		// Measure each line
+		FontMetrics metrics = getFontMetrics();
+		lineWidths = new int[lines.length];
+		int widestLine = 0;
+		for(int line = 0; line < lines.length; line++){
+			lineWidths[line] = metrics.stringWidth(lines[line]);
+			widestLine = Math.max(widestLine, lineWidths[line]);
+		}
+
+		ascent = metrics.getAscent();
+		lineHeight = metrics.getHeight();
+		width = Math.max(1, widestLine);
+		height = ascent + (lineHeight * (lines.length - 1)) + metrics.getDescent();
+	}
+
+	/**
+	 * Splits the given message into lines of roughly LINE_CHARS characters, breaking at spaces.
+	 * @param message The message to split
+	 * @return The message's lines
+	 */
+	private static String[] wrap(String message){
+		if(message.length() <= LINE_CHARS) return new String[]{message};
+
+		ArrayList<String> lines = new ArrayList<>();
+		StringBuilder currentLine = new StringBuilder(LINE_CHARS);
+		for(String word : message.split(" ")){
+			// If this word will make us reach the character limit for a line, start a new one.
+			// (Add 1 to the word length because we'll be adding a space too)
+			if(currentLine.length() > 0 && currentLine.length() + word.length() + 1 >= LINE_CHARS){
+				lines.add(currentLine.toString());
+				currentLine.setLength(0);
+			}
+
+			// Separate the word from the one before it
+			if(currentLine.length() > 0) currentLine.append(' ');
+			currentLine.append(word);
+		}
+		lines.add(currentLine.toString());
+
+		return lines.toArray(new String[lines.size()]);
+	}
+
+	/**
+	 * Used to get the font metrics used to measure messages, without needing a component.
+	 * @return The message font's metrics
+	 */
+	private static synchronized FontMetrics getFontMetrics(){
+		if(fontMetrics == null){
+			Graphics2D graphics = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+			fontMetrics = graphics.getFontMetrics(FONT);
+			graphics.dispose();
+		}
+		return fontMetrics;
+	}
+
+	/**
+	 * Used to get the width of the bubble.
+	 * @return The bubble's width
+	 */
+	public int getWidth(){
+		return width;
+	}
+
+	/**
+	 * Used to get the height of the bubble.
+	 * @return The bubble's height
+	 */
+	public int getHeight(){
+		return height;
+	}
+
+	/**
+	 * Draws the bubble.
+	 * @param graphics The graphics object to draw the bubble with
+	 * @param x The X coordinate of the bubble's left edge
+	 * @param y The Y coordinate of the bubble's top edge
+	 */
+	public void render(Graphics graphics, int x, int y){
+		if(image == null) image = createImage();
+		graphics.drawImage(image, x, y, null);
+	}
+
+	/**
+	 * Draws the bubble's text into an image.
+	 * @return The created image
+	 */
+	private BufferedImage createImage(){
+		BufferedImage bubbleImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D graphics = bubbleImage.createGraphics();
+		try{
+			BackBuffer.applyRenderingHints(graphics, antialiasing);
+			graphics.setFont(FONT);
+			graphics.setColor(colour);
+
+			// Draw each line centred in the bubble
+			for(int line = 0; line < lines.length; line++){
+				graphics.drawString(lines[line], (width - lineWidths[line]) / 2, ascent + (lineHeight * line));
+			}
+		} finally{
+			graphics.dispose();
+		}
+		return bubbleImage;
+	}
+
+}
@@ -1,37 +1,171 @@
 package hsenfow.pongh;
 
 import java.awt.Color;
+import java.awt.FontMetrics;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.event.KeyEvent;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 
-import hsenfow.pongh.Entities.Ball;
+import hsenfow.pongh.Audio.AudioEngine;
+import hsenfow.pongh.Engine.GameLoop;
+import hsenfow.pongh.Engine.LatencyMonitor;
+import hsenfow.pongh.Entities.Entity;
 import hsenfow.pongh.Entities.Paddle;
 import hsenfow.pongh.Entities.Paddle.Direction;
 import hsenfow.pongh.Input.GameKeyListener;
+import hsenfow.pongh.Input.InputEventRing;
 import hsenfow.pongh.Network.NetworkCommunications;
 import hsenfow.pongh.Network.NetworkUtils;
+import hsenfow.pongh.Network.Protocol.PredictedInputs;
+import hsenfow.pongh.Network.Protocol.RollbackSession;
+import hsenfow.pongh.Network.Protocol.Snapshot;
+import hsenfow.pongh.Rendering.BackBuffer;
+import hsenfow.pongh.Rendering.Compositor;
+import hsenfow.pongh.Rendering.CourtLayer;
 import hsenfow.pongh.Settings.Setting;
+import hsenfow.pongh.Simulation.BallSwarm;
+import hsenfow.pongh.Simulation.Court;
+import hsenfow.pongh.Simulation.PaddleAI;
+import hsenfow.pongh.Simulation.ReplayRecorder;
 
 public class GamePanel extends JPanel{
 	private static final long serialVersionUID = -5321059453993299436L;
 	
-	// The amount of time to sleep per frame (minus the amount of time the frame took to update and
-	// render). We'll be targeting roughly 60fps
-	private final long FRAME_SLEEP_TIME = 17;
+	// The name of the bounce sound file
+	public static final String BOUNCE_SOUND_FILE = "bounce.wav";
+	
+	// The coins the player gets every time they win a point
+	private static final int COINS_PER_WIN = 1;
+	
+	// The loop that updates and renders the game
+	private GameLoop gameLoop = null;
+	// Set while the game loop is being stopped, so that a tick waiting for the event dispatch
+	// thread gives up, rather than waiting on the thread that's waiting for the loop to stop
+	private volatile boolean stoppingLoop = false;
+	
+	// How long a tick waits for the event dispatch thread before checking if the loop is stopping
+	private static final long EVENT_TICK_WAIT_MILLIS = 50;
+	
+	// The number of times we'll try to redraw a frame if the back buffer's contents are lost
+	private static final int MAX_FRAME_ATTEMPTS = 3;
+	
+	// The buffer the game is actively rendered into, or null if we're using passive rendering
+	private BackBuffer backBuffer = null;
+	
+	// Whether anti-aliasing is enabled
+	private boolean antialiasing;
+	
+	// The pre-rendered static parts of the court
+	private CourtLayer courtLayer = null;
+	// Composites each actively rendered frame, only redrawing what has changed
+	private Compositor compositor = null;
+	// Used to get the area covered by each thing that's rendered
+	private final Rectangle renderBounds = new Rectangle();
+	
+	// How far through the current tick the latest frame is, used to blend the previous and
+	// current positions of everything
+	private volatile float renderAlpha = 1;
 	
 	// The game key listener
 	private GameKeyListener gameKeyListener;
 	
+	// The state of the paddle keys as seen by the game loop, built from the key listener's events
+	private boolean upHeld = false, downHeld = false;
+	// The paddle key that was pressed most recently, which wins if both are held
+	private Direction latestPressed = Direction.NONE;
+	// A paddle key that was pressed and released again since the last tick, so the paddle still
+	// moves for a quick tap
+	private Direction tapped = Direction.NONE;
+	// The paddle key pressed since the last tick, so a release only counts as a tap if the press
+	// hasn't already moved the paddle
+	private Direction pressedThisTick = Direction.NONE;
+	
+	// Measures how long key presses take to take effect
+	private final LatencyMonitor latencyMonitor = new LatencyMonitor();
+	// The number of ticks between each update of the latency overlay
+	private static final int LATENCY_OVERLAY_TICKS = GameLoop.TICK_RATE / 2;
+	// The lines of the latency overlay, or null if it isn't being shown
+	private volatile String[] latencyOverlay = null;
+	
+	// When the current tick started
+	private long tickTime;
+	// When the latest paddle key press applied by the current tick happened, or 0 if there wasn't one
+	private long appliedPressTime = 0;
+	
+	// Updates the paddle key state from each key event
+	private final InputEventRing.InputEventHandler inputHandler = new InputEventRing.InputEventHandler(){
+		@Override
+		public void inputEvent(int keyCode, boolean pressed, long time){
+			// F3 shows or hides the latency overlay, and F4 saves the latencies to a file
+			if(pressed && keyCode == KeyEvent.VK_F3){
+				latencyOverlay = (latencyOverlay == null) ? getOverlayLines() : null;
+				return;
+			}
+			if(pressed && keyCode == KeyEvent.VK_F4){
+				String file = latencyMonitor.dump();
+				if(file != null) Utils.log("Saved latencies to " + file);
+				return;
+			}
+			
+			Direction direction;
+			if(keyCode == KeyEvent.VK_UP){
+				upHeld = pressed;
+				direction = Direction.UP;
+			}
+			else if(keyCode == KeyEvent.VK_DOWN){
+				downHeld = pressed;
+				direction = Direction.DOWN;
+			}
+			else return;
+			
+			if(pressed){
+				latestPressed = direction;
+				pressedThisTick = direction;
+				
+				// The press is applied by this tick
+				latencyMonitor.inputApplied(time, tickTime);
+				appliedPressTime = time;
+			}
+			else if(pressedThisTick == direction) tapped = direction;
+		}
+	};
+	
 	// Whether the game setup has been performed
-	private boolean gameSetup = false;
+	private volatile boolean gameSetup = false;
 	
-	// The two paddles
-	public Paddle paddleOne, paddleTwo;
+	// The court being played on, which holds the paddles and the ball
+	private Court court;
 	
-	// The ball
-	private Ball ball;
+	// The ID of the bounce sound
+	private int bounceSoundId = -1;
+	
+	// Records the match if replays are being recorded, otherwise null
+	private volatile ReplayRecorder replayRecorder = null;
+	
+	// The most ticks that can pass without the player's inputs being sent, so the server keeps
+	// acknowledging them even while paddle one isn't moving
+	private static final int INPUT_REFRESH_TICKS = 10;
+	// The number of ticks since the player's inputs were last sent
+	private int ticksSinceInputsSent = 0;
+	// Where the ball and paddle two should be shown this tick (client-side only)
+	private final Snapshot playout = new Snapshot();
+	
+	// Plays the court on both sides with rollback netcode, or null if it isn't being used
+	private RollbackSession rollbackSession = null;
+	// The player we are, and the paddles we and the other player control. With rollback netcode
+	// the court isn't mirrored, so the client is player two on the right
+	private int localPlayer = Court.PLAYER_ONE;
+	private volatile Paddle ownPaddle = null, opponentPaddle = null;
+	// Our score that coins have been given for, with rollback netcode
+	private int rewardedScore = 0;
 	
 	/**
 	 * Initialises everything to do with the game.
@@ -57,173 +191,508 @@ public class GamePanel extends JPanel{
 	 * size.
 	 */
 	private void setupGame(){
-		// Create the two paddles
-		paddleOne = new Paddle(50, (getHeight() / 2) - (Paddle.DEFAULT_HEIGHT / 2));
-		paddleOne.setColour(Utils.getColourFromString(Settings.getSettingValue(Setting.PADDLE_1_COLOUR)));
-		paddleTwo = new Paddle(getWidth() - Paddle.DEFAULT_WIDTH - 50,
-				(getHeight() / 2) - (Paddle.DEFAULT_HEIGHT / 2));
+		// Create the court. With rollback netcode both players simulate the same court, so it's
+		// seeded with the session ID
+		if(NetworkUtils.connected && NetworkUtils.rollback){
+			court = new Court(getWidth(), getHeight(), NetworkUtils.sessionId);
+			localPlayer = NetworkUtils.isServer ? Court.PLAYER_ONE : Court.PLAYER_TWO;
+			rollbackSession = NetworkCommunications.startRollback(court, localPlayer);
+		}
+		else{
+			court = new Court(getWidth(), getHeight());
+		}
+		ownPaddle = (localPlayer == Court.PLAYER_ONE) ? court.paddleOne : court.paddleTwo;
+		opponentPaddle = (localPlayer == Court.PLAYER_ONE) ? court.paddleTwo : court.paddleOne;
+		ownPaddle.setColour(Utils.getColourFromString(Settings.getSettingValue(Setting.PADDLE_1_COLOUR)));
 		
-		// Create the ball
-		ball = new Ball((getWidth() / 2) - (Ball.DEFAULT_WIDTH / 2),
-				(getHeight() / 2) - (Ball.DEFAULT_HEIGHT / 2));
+		// Set how well paddle two's AI plays
+		String difficulty = Settings.getSettingValue(Setting.AI_DIFFICULTY);
+		try{
+			court.paddleTwoAI.setDifficulty(PaddleAI.Difficulty.valueOf(difficulty.toUpperCase()));
+		} catch(IllegalArgumentException | NullPointerException e){
+			Utils.log("Invalid AI difficulty: " + difficulty);
+		}
+		
+		// Add the extra balls if we're playing chaos mode. This is only available in single
+		// player, as the other player wouldn't know about them
+		if(Settings.GAME_MODE_CHAOS.equals(Settings.getSettingValue(Setting.GAME_MODE)) && !NetworkUtils.connected){
+			court.addSwarm(Settings.getSettingIntValue(Setting.CHAOS_BALLS, 500), court.getSeed());
+		}
+		
+		// Record the match if requested. Only single player matches can be replayed, as the
+		// other player's input isn't part of the simulation
+		if(Boolean.parseBoolean(Settings.getSettingValue(Setting.RECORD_REPLAYS)) && !NetworkUtils.connected){
+			replayRecorder = ReplayRecorder.start(court);
+		}
+		
+		// Play a sound when the ball bounces, and give the player coins when they win a point
+		bounceSoundId = AudioEngine.load(Utils.AUDIO_FOLDER + BOUNCE_SOUND_FILE);
+		court.setListener(new Court.CourtListener(){
+			@Override
+			public void ballBounced(){
+				AudioEngine.play(bounceSoundId);
+			}
+			
+			@Override
+			public void pointScored(int player){
+				// With rollback netcode, a point might be taken back again, so coins are only given
+				// once both players' inputs are known
+				if(player == Court.PLAYER_ONE && rollbackSession == null) Utils.player.increaseCoins(COINS_PER_WIN);
+			}
+		});
 		
 		// The game has been set up
 		gameSetup = true;
 	}
 	
 	/**
-	 * Updates and renders the game.
+	 * Starts the game loop once the panel has been added to the window.
 	 */
 	@Override
-	public void paintComponent(Graphics graphics){
-		super.paintComponent(graphics);
-		// TODO Should probably change this to use a BufferedImage, then AA can be enabled
+	public void addNotify(){
+		super.addNotify();
 		
-		// If this is the first call then set up the game first
-		if(!gameSetup){
-			setupGame();
+		// Get the frame rate to aim for
+		String frameRateSetting = Settings.getSettingValue(Setting.FRAME_RATE);
+		int frameRate = Settings.FRAME_RATE_UNCAPPED.equals(frameRateSetting) ? GameLoop.UNCAPPED
+				: Settings.getSettingIntValue(Setting.FRAME_RATE, GameLoop.TICK_RATE);
+		
+		// Use active rendering unless passive rendering has been requested
+		antialiasing = Boolean.parseBoolean(Settings.getSettingValue(Setting.ANTI_ALIASING));
+		courtLayer = new CourtLayer(getBackground());
+		if(!Settings.RENDERER_PASSIVE.equals(Settings.getSettingValue(Setting.RENDERER))){
+			backBuffer = new BackBuffer(this, antialiasing);
+			compositor = new Compositor(courtLayer);
 		}
 		
-		// Get the current time
-		long startTime = System.currentTimeMillis();
+		// Create and start the loop
+		stoppingLoop = false;
+		gameLoop = new GameLoop(new GameLoop.LoopTarget(){
+			@Override
+			public void tick(){
+				// When rendering passively, Swing paints the game on the event dispatch thread, so
+				// update it there too rather than changing the court while it's being painted
+				if(backBuffer == null) tickOnEventThread();
+				else tickGame();
+			}
+			
+			@Override
+			public void render(float alpha){
+				renderAlpha = alpha;
+				
+				// If we're rendering passively then just ask Swing to redraw the game
+				if(backBuffer == null){
+					repaint();
+				}
+				else if(gameSetup){
+					renderActively();
+				}
+			}
+		}, GameLoop.TICK_RATE, frameRate);
+		gameLoop.start();
+	}
+	
+	/**
+	 * Stops the game loop when the panel is removed from the window.
+	 */
+	@Override
+	public void removeNotify(){
+		if(gameLoop != null){
+			stoppingLoop = true;
+			gameLoop.stopLoop();
+			gameLoop = null;
+		}
 		
-		// Update everything
-		update();
+		// Finish the replay now that the game has stopped
+		if(replayRecorder != null){
+			replayRecorder.close();
+			replayRecorder = null;
+		}
 		
-		// Render everything
-		render(graphics);
+		// Release the back buffer and court layer
+		if(backBuffer != null){
+			backBuffer.dispose();
+			backBuffer = null;
+			compositor = null;
+		}
+		if(courtLayer != null){
+			courtLayer.dispose();
+			courtLayer = null;
+		}
 		
-		// See how long the updating and rendering took
-		long timeTaken = System.currentTimeMillis() - startTime;
+		super.removeNotify();
+	}
+	
+	/**
+	 * Renders the game when using passive rendering. When rendering actively, this just shows the
+	 * last frame, as Swing may still ask for the panel to be repainted (e.g. after a dialog has
+	 * been closed). When rendering passively, the game loop updates the game on the event dispatch
+	 * thread, so it never changes while it's being painted.
+	 */
+	@Override
+	public void paintComponent(Graphics graphics){
+		super.paintComponent(graphics);
+		
+		// Nothing to draw until the game loop has set up the game
+		if(!gameSetup) return;
 		
-		// Work out the sleep time
-		long sleepTime = FRAME_SLEEP_TIME - timeTaken;
+		// Show the last actively rendered frame if there is one
+		BackBuffer currentBackBuffer = backBuffer;
+		if(currentBackBuffer != null){
+			currentBackBuffer.draw(graphics);
+			return;
+		}
 		
-		// Sleep if the sleep time is greater than 0
-		if(sleepTime > 0){
+		// Draw the court, then render everything on top of it
+		courtLayer.validate(getGraphicsConfiguration(), getWidth(), getHeight());
+		graphics.drawImage(courtLayer.getImage(), 0, 0, null);
+		if(graphics instanceof Graphics2D) BackBuffer.applyRenderingHints((Graphics2D)graphics, antialiasing);
+		render(graphics);
+		latencyMonitor.frameShown(System.nanoTime());
+	}
+	
+	/**
+	 * Renders the game into the back buffer, then shows it. This is called from the game loop.
+	 */
+	private void renderActively(){
+		for(int attempt = 0; attempt < MAX_FRAME_ATTEMPTS; attempt++){
+			// Get the graphics object for the back buffer
+			Graphics2D graphics = backBuffer.begin();
+			if(graphics == null) return;
+			
+			// Restore the court where things were drawn last frame, then render everything
 			try{
-				Thread.sleep(sleepTime);
-			}catch(InterruptedException ie){ /* Nothing */ }
+				compositor.beginFrame(graphics, getGraphicsConfiguration(), getWidth(), getHeight(),
+						backBuffer.isContentsReset());
+				render(graphics);
+			} finally{
+				graphics.dispose();
+			}
+			
+			// Show the parts of the frame that changed. If the buffer's contents were lost while
+			// we were drawing, then draw it again
+			if(compositor.endFrame(backBuffer)){
+				latencyMonitor.frameShown(System.nanoTime());
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Performs a single tick of the game, setting it up first if this is the first tick.
+	 */
+	private void tickGame(){
+		// Set up the game first, as long as we've been given a size
+		if(!gameSetup){
+			if(getWidth() <= 0 || getHeight() <= 0) return;
+			setupGame();
 		}
 		
-		// Redraw the game again
-		repaint();
+		update();
+	}
+	
+	/**
+	 * Performs a single tick of the game on the event dispatch thread, waiting for it to finish.
+	 * Gives up waiting if the loop is being stopped, as that's done from the event dispatch thread.
+	 */
+	private void tickOnEventThread(){
+		FutureTask<Void> task = new FutureTask<Void>(new Runnable(){
+			@Override
+			public void run(){
+				if(!stoppingLoop) tickGame();
+			}
+		}, null);
+		SwingUtilities.invokeLater(task);
+		
+		while(!stoppingLoop){
+			try{
+				task.get(EVENT_TICK_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+				return;
+			} catch(TimeoutException te){
+				// Check whether we're stopping, then carry on waiting
+			} catch(InterruptedException | ExecutionException e){
+				Utils.log("Error ticking the game: " + e);
+				return;
+			}
+		}
 	}
 	
 	/**
 	 * Updates the game.
 	 */
 	private void update(){
-		// If the game is paused then don't do anything
-		if(Utils.gamePaused) return;
+		// Work out which way the player wants to go from the keys pressed since the last tick
+		Direction direction = getPlayerDirection();
+		
+		// Act on everything received since the last tick. The network threads just queue what
+		// they receive, so the court is only ever changed here
+		if(NetworkUtils.connected){
+			NetworkCommunications.processReceivedMessages();
+			NetworkCommunications.heartbeat();
+		}
+		
+		// If the game is paused then don't do anything, other than sending anything the network
+		// thread has written (e.g. acknowledgements)
+		if(Utils.gamePaused){
+			court.resetPreviousPositions();
+			if(NetworkUtils.connected) NetworkCommunications.flush();
+			return;
+		}
 		
 		// If we're playing multiplayer, then do the multiplayer update instead
 		if(NetworkUtils.connected){
-			multiplayerUpdate();
+			multiplayerUpdate(direction);
 			return;
 		}
 		else{
-			// Update paddle one
-			paddleOne.currentDirection = Paddle.Direction.NONE;
-			if(gameKeyListener.isKeyPressed(KeyEvent.VK_UP) && !gameKeyListener.isKeyPressed(KeyEvent.VK_DOWN)){
-				paddleOne.move(Paddle.Direction.UP);
-			}
-			else if(gameKeyListener.isKeyPressed(KeyEvent.VK_DOWN) && !gameKeyListener.isKeyPressed(KeyEvent.VK_UP)){
-				paddleOne.move(Paddle.Direction.DOWN);
-			}
-			
-			// Automatically update paddle two
-			paddleTwo.autoUpdate(ball);
-			
-			// Update the ball
-			ball.update();
-			
-			// Check whether the ball is colliding with either of the paddles
-			if(!ball.checkPaddleCollision(paddleOne)){
-				ball.checkPaddleCollision(paddleTwo);
-			}
+			// Update paddle one from the keys being pressed, with everything else being updated
+			// automatically
+			court.tick(direction);
+			if(replayRecorder != null) replayRecorder.recordTick(direction);
 		}
 	}
 	
 	/**
 	 * Does the updating required for multiplayer.
+	 * @param direction The direction the player wants to move paddle one in
 	 */
-	private void multiplayerUpdate(){
-		// Update paddle one
-		paddleOne.currentDirection = Paddle.Direction.NONE;
-		if(gameKeyListener.isKeyPressed(KeyEvent.VK_UP) && !gameKeyListener.isKeyPressed(KeyEvent.VK_DOWN)){
-			paddleOne.move(Paddle.Direction.UP);
+	private void multiplayerUpdate(Direction direction){
+		// Everything starts the tick where it ended the last one
+		court.resetPreviousPositions();
+		
+		// If a key was just pressed, then include an ID so the other player lets us know when
+		// it's applied
+		int inputId = (appliedPressTime != 0) ? latencyMonitor.inputSent(appliedPressTime, System.nanoTime()) : -1;
+		
+		if(rollbackSession != null){
+			// Both of us play the whole court, guessing what the other player is doing until
+			// their inputs arrive, and send them our inputs
+			NetworkCommunications.advanceRollback(direction, inputId);
 			
-			// Send a message with the player's current paddle direction
-			NetworkCommunications.sendMessage(NetworkCommunications.MESSAGE_MOVE + paddleOne.currentDirection.name());
+			// Give coins for points that can't be taken back any more
+			int score = rollbackSession.getConfirmedScore(localPlayer);
+			if(score > rewardedScore){
+				Utils.player.increaseCoins(COINS_PER_WIN * (score - rewardedScore));
+				rewardedScore = score;
+			}
 		}
-		else if(gameKeyListener.isKeyPressed(KeyEvent.VK_DOWN) && !gameKeyListener.isKeyPressed(KeyEvent.VK_UP)){
-			paddleOne.move(Paddle.Direction.DOWN);
-			
-			// Send a message with the player's current paddle direction
-			NetworkCommunications.sendMessage(NetworkCommunications.MESSAGE_MOVE + paddleOne.currentDirection.name());
+		else if(NetworkUtils.isServer){
+			// We decide where everything is, so move both paddles for the inputs we have, then
+			// update the ball and send the client a snapshot of everything
+			court.updatePaddle(court.paddleOne, direction);
+			NetworkCommunications.applyReceivedInputs(court);
+			court.updateBall();
+			NetworkCommunications.sendSnapshot(court, inputId);
 		}
-		
-		// Update the ball if we're the server
-		if(NetworkUtils.isServer){
-			ball.update();
+		else{
+			// Move paddle one straight away rather than waiting for the server. If the server
+			// ends up disagreeing, it's corrected when the next snapshot arrives
+			NetworkCommunications.predictInput(court, direction);
 			
-			// Now send the ball's new position to the client, but invert its X first, so that it
-			// appears in the correct place when positioned on the client's screen
-			NetworkCommunications.sendMessage(NetworkCommunications.MESSAGE_BALL_POS
-					+ ((getWidth() - ball.getX()) - ball.getWidth()) + ";" + ball.getY());
+			// Send the inputs the server hasn't applied yet while any of them move the paddle,
+			// and every so often anyway
+			ticksSinceInputsSent++;
+			if(inputId >= 0 || NetworkCommunications.hasUnackedMovement() || ticksSinceInputsSent >= INPUT_REFRESH_TICKS){
+				NetworkCommunications.sendInputs(inputId);
+				ticksSinceInputsSent = 0;
+			}
+			
+			// Show the ball and paddle two where they were a moment ago on the server, smoothed
+			// over however unevenly the snapshots arrived
+			if(NetworkCommunications.samplePlayout(playout)) applySnapshot(playout);
+			
+			// Let the server know which snapshots have arrived, so it can send changes from them
+			NetworkCommunications.sendSnapshotAck();
 		}
 		
-		// Check whether the ball is colliding with either of the paddles
-		if(!ball.checkPaddleCollision(paddleOne)){
-			ball.checkPaddleCollision(paddleTwo);
+		// Send everything from this tick together
+		NetworkCommunications.flush();
+	}
+	
+	/**
+	 * Works out which direction the player wants to move their paddle in from the keys pressed and
+	 * released since the last tick. This should only be called once per tick.
+	 * @return The direction to move paddle one in
+	 */
+	private Direction getPlayerDirection(){
+		tickTime = System.nanoTime();
+		tapped = Direction.NONE;
+		pressedThisTick = Direction.NONE;
+		appliedPressTime = 0;
+		gameKeyListener.drainEvents(inputHandler);
+		
+		// Keep the latency overlay up to date
+		if(latencyOverlay != null && gameLoop != null && gameLoop.getTickCount() % LATENCY_OVERLAY_TICKS == 0){
+			latencyOverlay = getOverlayLines();
 		}
+		
+		// The most recently pressed key wins if both are held
+		if(upHeld && (!downHeld || latestPressed == Direction.UP)) return Direction.UP;
+		else if(downHeld) return Direction.DOWN;
+		else return tapped;
+	}
+	
+	/**
+	 * Used to get the lines of the latency overlay. In multiplayer, this also shows the network
+	 * statistics, and how much has been rolled back with rollback netcode.
+	 * @return The lines of the overlay
+	 */
+	private String[] getOverlayLines(){
+		String[] summaries = latencyMonitor.getSummaries();
+		if(!NetworkUtils.connected) return summaries;
+		
+		String[] networkSummaries = NetworkCommunications.getStats().getSummaries();
+		RollbackSession session = rollbackSession;
+		String[] lines = new String[summaries.length + networkSummaries.length + ((session != null) ? 1 : 0)];
+		System.arraycopy(summaries, 0, lines, 0, summaries.length);
+		System.arraycopy(networkSummaries, 0, lines, summaries.length, networkSummaries.length);
+		if(session != null) lines[lines.length - 1] = session.getSummary();
+		return lines;
 	}
 	
 	/**
 	 * Moves paddle one in the specified direction.
 	 */
 	public void movePaddleOne(Direction direction){
-		if(paddleOne != null) paddleOne.move(direction);
+		if(court != null) court.paddleOne.move(direction);
+	}
+	
+	/**
+	 * Moves paddle one to where the server has it in a snapshot that has just arrived, then replays
+	 * the inputs the server hasn't applied yet.
+	 * @param snapshot The snapshot
+	 * @param predictedInputs The player's inputs
+	 */
+	public void snapshotReceived(Snapshot snapshot, PredictedInputs predictedInputs){
+		if(court == null) return;
+		predictedInputs.reconcile(court, court.paddleOne, snapshot.get(Snapshot.PADDLE_ONE_Y),
+				snapshot.get(Snapshot.INPUT_SEQUENCE));
+	}
+	
+	/**
+	 * Moves the ball and paddle two, and updates the scores, to match a snapshot.
+	 * @param snapshot The snapshot
+	 */
+	private void applySnapshot(Snapshot snapshot){
+		court.moveBall(snapshot.get(Snapshot.BALL_X), snapshot.get(Snapshot.BALL_Y));
+		court.paddleTwo.setPosition(snapshot.get(Snapshot.PADDLE_TWO_Y), snapshot.getPaddleTwoDirection());
+		court.setScores(snapshot.get(Snapshot.SCORE_ONE), snapshot.get(Snapshot.SCORE_TWO));
+	}
+	
+	/**
+	 * Records the other player having applied one of our key presses.
+	 * @param inputId The ID sent with the key press
+	 */
+	public void inputAcknowledged(int inputId){
+		latencyMonitor.inputAcknowledged(inputId, System.nanoTime());
 	}
 	
 	/**
-	 * Moves paddle two in the specified direction.
+	 * Sets the latest message of the player's paddle, which is paddle one unless it's the client
+	 * with rollback netcode.
+	 * @param message The message sent by the player
 	 */
-	public void movePaddleTwo(Direction direction){
-		if(paddleTwo != null) paddleTwo.move(direction);
+	public void setPaddleOneMessage(String message){
+		if(ownPaddle != null) ownPaddle.setLatestMessage(message);
+		
+		ReplayRecorder recorder = replayRecorder;
+		if(recorder != null) recorder.recordChat(message);
 	}
 	
 	/**
-	 * Sets the ball to the given position.
-	 * @param x The ball's new X coordinate
-	 * @param y The ball's new Y coordinate
+	 * Sets the latest message of the other player's paddle, which is paddle two unless it's the
+	 * client with rollback netcode.
+	 * @param message The message sent by the other player
 	 */
-	public void setBallPosition(int x, int y){
-		if(ball != null) ball.setPosition(x, y);
+	public void setPaddleTwoMessage(String message){
+		if(opponentPaddle != null) opponentPaddle.setLatestMessage(message);
 	}
 	
 	/**
-	 * Renders the game.
+	 * Renders the things that move on top of the court.
 	 * @param graphics The graphics object to use to render everything
 	 */
 	private void render(Graphics graphics){
 		// Render the two paddles
-		paddleOne.render(graphics);
-		paddleTwo.render(graphics);
+		float alpha = renderAlpha;
+		court.paddleOne.render(graphics, alpha);
+		markRendered(court.paddleOne);
+		court.paddleTwo.render(graphics, alpha);
+		markRendered(court.paddleTwo);
 		
 		// Render the ball
-		ball.render(graphics);
+		court.ball.render(graphics, alpha);
+		markRendered(court.ball);
 		
-		// Render the middle line
-		int middleX = getWidth() / 2;
-		graphics.setColor(Color.DARK_GRAY);
-		graphics.drawLine(middleX, 0, middleX, getHeight());
+		// Render any extra balls
+		BallSwarm swarm = court.getSwarm();
+		if(swarm != null) renderSwarm(graphics, swarm, alpha);
 		
 		// If we're creating a message, then display it
 		if(gameKeyListener.creatingMessage){
+			String message = "Message: " + gameKeyListener.currentMessage;
 			graphics.setColor(Color.GREEN);
-			graphics.drawString("Message: " + gameKeyListener.currentMessage, 10, 32);
+			graphics.drawString(message, 10, 32);
+			
+			// Mark where the message was drawn
+			if(compositor != null){
+				FontMetrics fontMetrics = graphics.getFontMetrics();
+				compositor.markDirty(10, 32 - fontMetrics.getAscent(), fontMetrics.stringWidth(message),
+						fontMetrics.getHeight());
+			}
 		}
+		
+		// Show the latencies if requested
+		String[] overlay = latencyOverlay;
+		if(overlay != null) renderLatencyOverlay(graphics, overlay);
+	}
+	
+	/**
+	 * Renders the latency overlay in the bottom left corner.
+	 * @param graphics The graphics object to use to render the overlay
+	 * @param lines The lines of the overlay
+	 */
+	private void renderLatencyOverlay(Graphics graphics, String[] lines){
+		FontMetrics fontMetrics = graphics.getFontMetrics();
+		int lineHeight = fontMetrics.getHeight();
+		int top = getHeight() - 10 - (lineHeight * lines.length);
+		
+		graphics.setColor(Color.YELLOW);
+		int widestLine = 0;
+		for(int line = 0; line < lines.length; line++){
+			graphics.drawString(lines[line], 10, top + fontMetrics.getAscent() + (lineHeight * line));
+			widestLine = Math.max(widestLine, fontMetrics.stringWidth(lines[line]));
+		}
+		
+		if(compositor != null) compositor.markDirty(10, top, widestLine, lineHeight * lines.length);
+	}
+	
+	/**
+	 * Renders the extra balls in chaos mode.
+	 * @param graphics The graphics object to use to render the balls
+	 * @param swarm The balls to render
+	 * @param alpha How far through the current tick we are, from 0 to 1
+	 */
+	private void renderSwarm(Graphics graphics, BallSwarm swarm, float alpha){
+		graphics.setColor(court.ball.getColour());
+		int diameter = (int)(BallSwarm.RADIUS * 2);
+		for(int ball = 0; ball < swarm.getCount(); ball++){
+			graphics.fillOval(Math.round(swarm.getRenderX(ball, alpha) - BallSwarm.RADIUS),
+					Math.round(swarm.getRenderY(ball, alpha) - BallSwarm.RADIUS), diameter, diameter);
+		}
+		
+		// The balls are everywhere, so it's simpler to redraw the whole court
+		if(compositor != null) compositor.markDirty(0, 0, getWidth(), getHeight());
+	}
+	
+	/**
+	 * Marks the area covered by the given entity as needing to be redrawn next frame.
+	 * @param entity The entity that was just rendered
+	 */
+	private void markRendered(Entity entity){
+		if(compositor == null) return;
+		
+		entity.getRenderBounds(renderBounds);
+		compositor.markDirty(renderBounds);
 	}
 }
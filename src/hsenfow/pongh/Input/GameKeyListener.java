@@ -2,7 +2,7 @@ package hsenfow.pongh.Input;
 
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
-import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import javax.swing.JOptionPane;
 
@@ -15,33 +15,73 @@ import hsenfow.pongh.Network.NetworkUtils;
  */
 public class GameKeyListener implements KeyListener{
 	
-	// The current key states
-	private HashMap<Integer, Boolean> keyStates;
+	// The number of key codes whose state is tracked. Keys with higher codes are ignored
+	private static final int KEY_CODE_LIMIT = 1024;
+	
+	// The most key events that can be waiting for the game loop at once
+	private static final int EVENT_CAPACITY = 256;
+	
+	// The current key states, one bit per key code. Only the event dispatch thread changes these
+	private final AtomicLongArray keyStates = new AtomicLongArray(KEY_CODE_LIMIT / 64);
+	
+	// The key presses and releases waiting to be handled by the game loop
+	private final InputEventRing events = new InputEventRing(EVENT_CAPACITY);
 	
 	// The max message length
 	public static final int MAX_MESSAGE_LENGTH = 128;
 	// Whether a message is currently being created
-	public boolean creatingMessage = false;
+	public volatile boolean creatingMessage = false;
 	// The current message being created
-	public String currentMessage;
+	public volatile String currentMessage;
 	
 	/**
-	 * Initialises all things required by the game key listener.
+	 * Used to check whether or not a key is currently pressed.
+	 * @param keyCode The key code for the key
+	 * @return True or false depending on whether the key is pressed
 	 */
-	public GameKeyListener(){
-		// Create the hash map used to store the key states
-		keyStates = new HashMap<>();
+	public boolean isKeyPressed(int keyCode){
+		if(keyCode < 0 || keyCode >= KEY_CODE_LIMIT) return false;
+		return (keyStates.get(keyCode >>> 6) & (1L << keyCode)) != 0;
 	}
 	
 	/**
-	 * Used to check whether or not a key is currently pressed.
+	 * Passes every key press and release since the last call to the given handler, in the order
+	 * they happened. This should be called once per tick by the game loop.
+	 * @param handler The handler to pass the events to
+	 * @return The number of events handled
+	 */
+	public int drainEvents(InputEventRing.InputEventHandler handler){
+		return events.drain(handler);
+	}
+	
+	/**
+	 * Works out when a key event happened on the System.nanoTime() clock. The event's own time is
+	 * only to the millisecond and on a different clock, so it's used to work out how long ago the
+	 * event happened (e.g. while it was waiting to be dispatched).
+	 * @param event The key event
+	 * @return When the event happened
+	 */
+	private static long getEventTime(KeyEvent event){
+		long now = System.nanoTime();
+		long age = System.currentTimeMillis() - event.getWhen();
+		return (age > 0 && age < 1000) ? now - (age * 1000000) : now;
+	}
+	
+	/**
+	 * Records a key as pressed or released, adding an event if its state has changed.
 	 * @param keyCode The key code for the key
-	 * @return True or false depending on whether the key is pressed
+	 * @param pressed Whether the key is now pressed
+	 * @param time When the key was pressed or released
 	 */
-	public boolean isKeyPressed(int keyCode){
-		Boolean keyState = keyStates.get(keyCode);
-		if(keyState != null) return keyState;
-		else return false;
+	private void setKeyState(int keyCode, boolean pressed, long time){
+		if(keyCode < 0 || keyCode >= KEY_CODE_LIMIT || isKeyPressed(keyCode) == pressed) return;
+		
+		// Only this thread changes the key states, so there's no need to compare and set
+		int index = keyCode >>> 6;
+		long bits = keyStates.get(index);
+		keyStates.set(index, pressed ? bits | (1L << keyCode) : bits & ~(1L << keyCode));
+		
+		events.add(keyCode, pressed, time);
 	}
 	
 	/**
@@ -49,6 +89,7 @@ public class GameKeyListener implements KeyListener{
 	 */
 	@Override
 	public void keyPressed(KeyEvent event){
+		long time = getEventTime(event);
 		int keyCode = event.getKeyCode();
 		char keyChar = event.getKeyChar();
 		
@@ -65,7 +106,7 @@ public class GameKeyListener implements KeyListener{
 				
 				// Disconnect from multiplayer
 				if(NetworkUtils.connected){
-					NetworkCommunications.sendMessage(NetworkCommunications.MESSAGE_DC);
+					NetworkCommunications.sendDisconnect();
 					NetworkUtils.closeAllConnections();
 				}
 			}
@@ -81,10 +122,10 @@ public class GameKeyListener implements KeyListener{
 				// Send the message if it's not empty
 				if(currentMessage.length() > 0){
 					// Send the message
-					NetworkCommunications.sendMessage(NetworkCommunications.MESSAGE_PLAYER_MESSAGE + currentMessage);
+					NetworkCommunications.sendPlayerMessage(currentMessage);
 					
 					// Set the message as the latest one by paddle one
-					Utils.mainFrame.gamePanel.paddleOne.setLatestMessage(currentMessage);
+					Utils.mainFrame.gamePanel.setPaddleOneMessage(currentMessage);
 				}
 			}
 			// Begin creating a message
@@ -106,8 +147,8 @@ public class GameKeyListener implements KeyListener{
 			}
 		}
 		
-		// Set the key as pressed
-		keyStates.put(keyCode, true);
+		// Set the key as pressed. Held keys repeat key presses, but only the first one is recorded
+		setKeyState(keyCode, true, time);
 	}
 
 	/**
@@ -118,7 +159,7 @@ public class GameKeyListener implements KeyListener{
 		int keyCode = event.getKeyCode();
 		
 		// Set the key as not pressed
-		keyStates.put(keyCode, false);
+		setKeyState(keyCode, false, getEventTime(event));
 	}
 
 	/**
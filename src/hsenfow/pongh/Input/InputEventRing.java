@@ -0,0 +1,95 @@
+package hsenfow.pongh.Input;
+
+import hsenfow.pongh.Engine.RingIndex;
+
+/**
+ * A bounded, lock-free queue of timestamped key presses and releases. Only one thread (the event
+ * dispatch thread) adds to it, and only one thread (the game loop) takes from it. Nothing is
+ * allocated once the ring has been created. The slots in use are tracked by a RingIndex.
+ */
+public class InputEventRing {
+
+	/**
+	 * Receives the events taken from the ring.
+	 */
+	public interface InputEventHandler{
+		/**
+		 * Called for each event, in the order they happened.
+		 * @param keyCode The key code of the key
+		 * @param pressed True if the key was pressed, false if it was released
+		 * @param time When the event happened, from System.nanoTime()
+		 */
+		void inputEvent(int keyCode, boolean pressed, long time);
+	}
+
+	// Each event's key code, whether it was a press and when it happened
+	private final int[] keyCodes;
+	private final boolean[] presses;
+	private final long[] times;
+
+	// Keeps track of which slots are in use
+	private final RingIndex index;
+
+	// The number of events dropped because the ring was full
+	private volatile long droppedEvents = 0;
+
+	/**
+	 * Creates a ring with room for at least the given number of events.
+	 * @param capacity The minimum capacity of the ring
+	 */
+	public InputEventRing(int capacity){
+		index = new RingIndex(capacity);
+		int size = index.getSize();
+		keyCodes = new int[size];
+		presses = new boolean[size];
+		times = new long[size];
+	}
+
+	/**
+	 * Adds an event to the ring. Must only be called by the producing thread.
+	 * @param keyCode The key code of the key
+	 * @param pressed True if the key was pressed, false if it was released
+	 * @param time When the event happened, from System.nanoTime()
+	 * @return False if the ring was full, in which case the event is dropped
+	 */
+	public boolean add(int keyCode, boolean pressed, long time){
+		long position = index.claim();
+		if(position < 0){
+			droppedEvents++;
+			return false;
+		}
+
+		int slot = index.getSlot(position);
+		keyCodes[slot] = keyCode;
+		presses[slot] = pressed;
+		times[slot] = time;
+		index.publish(position);
+		return true;
+	}
+
+	/**
+	 * Takes every event currently in the ring, passing each one to the given handler. Must only be
+	 * called by the consuming thread.
+	 * @param handler The handler to pass the events to
+	 * @return The number of events taken
+	 */
+	public int drain(InputEventHandler handler){
+		long position = index.getTakePosition();
+		long end = index.getAddPosition();
+		for(long current = position; current < end; current++){
+			int slot = index.getSlot(current);
+			handler.inputEvent(keyCodes[slot], presses[slot], times[slot]);
+		}
+		index.release(end);
+		return (int)(end - position);
+	}
+
+	/**
+	 * Used to get the number of events dropped because the ring was full.
+	 * @return The number of dropped events
+	 */
+	public long getDroppedEvents(){
+		return droppedEvents;
+	}
+
+}
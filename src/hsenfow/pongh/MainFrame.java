@@ -6,6 +6,7 @@ import java.awt.Font;
 import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 
 import javax.swing.Box;
@@ -15,6 +16,8 @@ import javax.swing.JPanel;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 
+import hsenfow.pongh.Audio.AudioEngine;
+
 public class MainFrame extends JFrame{
 	private static final long serialVersionUID = -3449865393849618303L;
 	
@@ -63,6 +66,9 @@ public class MainFrame extends JFrame{
 		// Create the player
 		Utils.player = Player.load();
 		
+		// Decode the game's sounds now, so they're ready as soon as they're needed
+		AudioEngine.load(Utils.AUDIO_FOLDER + GamePanel.BOUNCE_SOUND_FILE);
+		
 		// Set up the window
 		setupWindow();
 	}
@@ -76,6 +82,13 @@ public class MainFrame extends JFrame{
 		
 		/* Set up the main frame */
 		setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+		// Stop the audio before exiting
+		addWindowListener(new WindowAdapter(){
+			@Override
+			public void windowClosing(WindowEvent event){
+				AudioEngine.shutdown();
+			}
+		});
 		setSize(WINDOW_WIDTH, WINDOW_HEIGHT);
 		setResizable(false);
 		setLocation(((Utils.screenSize.width / 2) - (WINDOW_WIDTH / 2)),
@@ -1,10 +1,25 @@
 package hsenfow.pongh.Network;
 
+import java.io.IOException;
+
 import hsenfow.pongh.Utils;
 import hsenfow.pongh.Entities.Paddle;
+import hsenfow.pongh.Network.Protocol.FrameReader;
+import hsenfow.pongh.Network.Protocol.FrameRing;
+import hsenfow.pongh.Network.Protocol.FrameWriter;
+import hsenfow.pongh.Network.Protocol.Frames;
+import hsenfow.pongh.Network.Protocol.JitterBuffer;
+import hsenfow.pongh.Network.Protocol.NetworkStats;
+import hsenfow.pongh.Network.Protocol.PredictedInputs;
+import hsenfow.pongh.Network.Protocol.ReceivedInputs;
+import hsenfow.pongh.Network.Protocol.RollbackSession;
+import hsenfow.pongh.Network.Protocol.Snapshot;
+import hsenfow.pongh.Network.Protocol.SnapshotReceiver;
+import hsenfow.pongh.Network.Protocol.SnapshotSender;
+import hsenfow.pongh.Simulation.Court;
 
 public class NetworkCommunications {
-	
+
 	// The different message results.
 	public enum MessageResult{
 		// Just continue as we are
@@ -13,107 +28,565 @@ public class NetworkCommunications {
 		NO_DATA,
 		// The client/server has requested a disconnect
 		REQUESTED_DC,
-		// The message received is missing the client-server key
+		// The message is from a different session
 		NO_KEY,
 		// The message contains unknown content
 		UNKNOWN_MESSAGE,
 		// The message was invalid in one way or another
-		INVALID_MESSAGE
+		INVALID_MESSAGE,
+		// Nothing has been received from the client/server for too long
+		TIMED_OUT
 	};
-	
-	// The different types of message and their formats.
-	// The player has moved their paddle
-	// Format: {MOVE}PADDLE_DIRECTION_ENUM
-	public static final String MESSAGE_MOVE = "{MOVE}";
-	// The ball's position has changed (server-side only)
-	// Format: {BALLPOS}posX;posY
-	public static final String MESSAGE_BALL_POS = "{BALLPOS}";
-	// The player has quit the game (via the menu)
-	// Format: {DISCONNECT}
-	public static final String MESSAGE_DC = "{DISCONNECT}";
-	// A player message has been sent
-	// Format: {PLAYERMSG}The message
-	public static final String MESSAGE_PLAYER_MESSAGE = "{PLAYERMSG}";
-	
-	/**
-	 * Processes the given message received from a client or server and either performs an action
-	 * or returns a 'message result'.
+
+	// The different types of message and their formats are listed in MessageType
+
+	// The most ticks between each snapshot acknowledgement the client sends
+	public static final int ACK_INTERVAL_TICKS = 6;
+
+	// The most messages that can be waiting for the game loop from each thread
+	private static final int FRAME_RING_CAPACITY = 256;
+
+	// The messages received over TCP by the network thread and over UDP by the datagram thread,
+	// waiting for the game loop to act on them. Each thread only ever adds to its own ring, so the
+	// receiving threads never touch the court and the game loop never waits for them
+	private static final FrameRing streamFrames = new FrameRing(FRAME_RING_CAPACITY);
+	private static final FrameRing datagramFrames = new FrameRing(FRAME_RING_CAPACITY);
+
+	// Acts on each message taken from the rings
+	private static final FrameRing.FrameHandler frameHandler = new FrameRing.FrameHandler(){
+		@Override
+		public void frameReceived(FrameReader frame, long arrivalTime){
+			processMessage(frame, arrivalTime);
+		}
+	};
+
+	// Measures the connection, and notices when the other side has gone quiet
+	private static final NetworkStats stats = new NetworkStats();
+	// Whether we disconnected because nothing was received for too long
+	private static volatile boolean peerTimedOut = false;
+
+	// The number of snapshots ignored for arriving after newer ones
+	private static volatile long stalePositions = 0;
+
+	// The player's inputs, which move paddle one before the server has applied them (client-side only)
+	private static final PredictedInputs predictedInputs = new PredictedInputs();
+	// The inputs received from the client, waiting to be applied to paddle two (server-side only)
+	private static final ReceivedInputs receivedInputs = new ReceivedInputs();
+
+	// Sends snapshots to the client (server-side only)
+	private static final SnapshotSender snapshotSender = new SnapshotSender();
+	// The ticks since the last snapshot was sent, and the ID of the key press to send with the
+	// next one, or -1 (server-side only)
+	private static int ticksSinceSnapshot = 0;
+	private static int snapshotInputId = -1;
+	// Unpacks the snapshots received from the server (client-side only)
+	private static final SnapshotReceiver snapshotReceiver = new SnapshotReceiver();
+	// Holds the snapshots received until it's time to show them (client-side only)
+	private static final JitterBuffer jitterBuffer = new JitterBuffer();
+	// The number of ticks since the client last acknowledged a snapshot
+	private static int ticksSinceSnapshotAck = 0;
+
+	// Plays the court on both sides with rollback netcode, or null if it isn't being used
+	private static volatile RollbackSession rollbackSession = null;
+
+	/**
+	 * Forgets the inputs and snapshots sent and received. Should be called whenever a new session
+	 * starts.
+	 */
+	public static synchronized void resetSequences(){
+		streamFrames.clear();
+		datagramFrames.clear();
+		stats.reset(System.nanoTime());
+		peerTimedOut = false;
+		stalePositions = 0;
+		predictedInputs.reset();
+		receivedInputs.reset();
+		snapshotSender.reset();
+		snapshotReceiver.reset();
+		jitterBuffer.reset();
+		ticksSinceSnapshot = 0;
+		snapshotInputId = -1;
+		ticksSinceSnapshotAck = 0;
+		rollbackSession = null;
+	}
+
+	/**
+	 * Used to get the number of snapshots ignored for arriving after newer ones.
+	 * @return The number of stale positions
+	 */
+	public static long getStalePositions(){
+		return stalePositions;
+	}
+
+	/**
+	 * Used to get the number of messages dropped because the game loop fell too far behind.
+	 * @return The number of dropped messages
+	 */
+	public static long getDroppedMessages(){
+		return streamFrames.getDroppedFrames() + datagramFrames.getDroppedFrames();
+	}
+
+	/**
+	 * Checks the latest message received from a client or server, and either queues it for the
+	 * game loop to act on or returns a 'message result'. Nothing on the court is touched, so this
+	 * is called by whichever thread received the message.
+	 * @param frame The reader holding the latest message, or null if nothing was received
+	 * @param datagram Whether the message was received over UDP, by the datagram thread
 	 * @return A message result representing the given message
 	 */
-	public static MessageResult processMessage(String message){
+	public static MessageResult receiveMessage(FrameReader frame, boolean datagram){
 		// If no message was given then return the 'no data' result
-		if(message == null || message.length() == 0){
+		if(frame == null){
 			Utils.log("No data received");
 			return MessageResult.NO_DATA;
 		}
-		
-		//Utils.log("Processing message: " + message);
-		
-		// Ensure the message begins with the client-server key
-		if(message.indexOf(NetworkUtils.clientServerKey) != 0){
-			Utils.log("Missing key: " + message);
+
+		// Ensure the message belongs to this session
+		if(frame.getSessionId() != NetworkUtils.sessionId){
+			Utils.log("Wrong session: " + frame.getSessionId());
 			return MessageResult.NO_KEY;
 		}
-		
-		// Remove the key from the message
-		message = message.replace(NetworkUtils.clientServerKey, "");
-		
-		// Process the message
-		if(message.indexOf(MESSAGE_MOVE) == 0){
-			message = message.replace(MESSAGE_MOVE, "");
-			
-			// Move the other player's paddle in the specified direction
-			Utils.mainFrame.gamePanel.movePaddleTwo(Paddle.Direction.valueOf(message));
-		}
-		else if(message.indexOf(MESSAGE_DC) == 0){
+		long now = System.nanoTime();
+		stats.messageReceived(frame.getFrameLength(), now, datagram);
+
+		switch(frame.getType()){
+		case DISCONNECT:{
 			// A disconnect has been requested
 			return MessageResult.REQUESTED_DC;
 		}
-		else if(message.indexOf(MESSAGE_BALL_POS) == 0){
-			message = message.replace(MESSAGE_BALL_POS, "");
-			
-			// Split what remains of the message, which will give us the ball's new position
-			String[] ballPosition = message.split(";");
-			
-			// Ensure the ball position we've got is valid
-			if(ballPosition == null || ballPosition.length != 2){
-				Utils.log("Invalid ball position: " + message);
-				return MessageResult.INVALID_MESSAGE;
+		case PLAYER_INPUT:
+		case INPUT_ACK:
+		case SNAPSHOT:
+		case SNAPSHOT_ACK:
+		case ROLLBACK_INPUT:
+		case PING:
+		case PONG:
+		case PLAYER_MESSAGE:{
+			// Leave the message for the game loop. If it has fallen too far behind, then the
+			// message is dropped like the network might
+			FrameRing ring = datagram ? datagramFrames : streamFrames;
+			ring.add(frame, now);
+			break;
+		}
+		default:{
+			Utils.log("Unknown message: " + frame.getType());
+			return MessageResult.UNKNOWN_MESSAGE;
+		}
+		}
+
+		return MessageResult.CONTINUE;
+	}
+
+	/**
+	 * Acts on every message received since the last tick. Should be called by the game loop at
+	 * the start of every tick.
+	 */
+	public static void processReceivedMessages(){
+		streamFrames.drain(frameHandler);
+		datagramFrames.drain(frameHandler);
+	}
+
+	/**
+	 * Acts on a message taken from one of the rings, on the game loop.
+	 * @param frame The reader holding the message
+	 * @param arrivalTime When the message arrived, from System.nanoTime()
+	 */
+	private static void processMessage(FrameReader frame, long arrivalTime){
+		switch(frame.getType()){
+		case PLAYER_INPUT:{
+			// Keep the client's inputs until the next tick, ignoring any we already have
+			receivedInputs.received(frame);
+			break;
+		}
+		case INPUT_ACK:{
+			// One of our key presses has been applied by the other player
+			Utils.mainFrame.gamePanel.inputAcknowledged(frame.getInputId());
+			break;
+		}
+		case SNAPSHOT:{
+			// Snapshots can arrive out of order or twice over UDP, so ignore any that are older
+			// than the newest one we've already applied
+			Snapshot snapshot;
+			try{
+				snapshot = snapshotReceiver.receive(frame);
+			} catch(IOException ioe){
+				Utils.log("Invalid snapshot: " + ioe.getMessage());
+				break;
 			}
-			
-			// Update the position of the ball
-			Utils.mainFrame.gamePanel.setBallPosition(Integer.parseInt(ballPosition[0]), Integer.parseInt(ballPosition[1]));
+			if(snapshot == null){
+				stalePositions++;
+				break;
+			}
+			// Correct paddle one straight away, but keep everything else until it's time to show it
+			Utils.mainFrame.gamePanel.snapshotReceived(snapshot, predictedInputs);
+			jitterBuffer.add(snapshot, arrivalTime);
+
+			// Let the server know we've applied their key press
+			if(snapshot.inputId >= 0) sendInputAck(snapshot.inputId);
+			break;
+		}
+		case SNAPSHOT_ACK:{
+			// The client has received a snapshot, so later ones can be sent as changes from it
+			snapshotSender.acknowledged(frame.getSequence());
+			break;
 		}
-		else if(message.indexOf(MESSAGE_PLAYER_MESSAGE) == 0){
-			message = message.replace(MESSAGE_PLAYER_MESSAGE, "");
-			
+		case ROLLBACK_INPUT:{
+			// Keep the other player's inputs, rolling back before the next tick if we guessed
+			// any of them wrong, and let them know if one of their key presses is new
+			RollbackSession session = rollbackSession;
+			if(session == null) break;
+			int inputId = session.received(frame);
+			if(inputId >= 0) sendInputAck(inputId);
+			break;
+		}
+		case PING:{
+			// Reply straight away over TCP, saying how long the ping waited for the game loop so
+			// that isn't counted as part of the round trip
+			FrameWriter writer = getWriter();
+			if(writer == null) break;
+			try{
+				writer.writePong(frame.getSequence(), frame.getTimestamp(), (System.nanoTime() - arrivalTime) / 1000);
+			} catch(IOException ioe){
+				Utils.log("Error sending pong: " + ioe.getMessage());
+			}
+			break;
+		}
+		case PONG:{
+			stats.pongReceived(frame, arrivalTime);
+			break;
+		}
+		case PLAYER_MESSAGE:{
 			// Set paddle two's latest message to the one received
-			Utils.mainFrame.gamePanel.paddleTwo.setLatestMessage(message);
+			Utils.mainFrame.gamePanel.setPaddleTwoMessage(frame.getText());
+			break;
+		}
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Sends a ping over TCP every PING_INTERVAL and updates the connection's message and byte
+	 * rates. If nothing has been received over TCP for PEER_TIMEOUT, then the other side has gone,
+	 * so we disconnect rather than waiting for the connection to fail. UDP isn't used for this, as
+	 * it can stop getting through while TCP is fine. Should be called every tick, even while the
+	 * game is paused.
+	 */
+	public static void heartbeat(){
+		long now = System.nanoTime();
+		if(stats.isPeerSilent(now)){
+			Utils.log("Nothing received for " + (NetworkStats.PEER_TIMEOUT / 1000000) + "ms, disconnecting");
+			peerTimedOut = true;
+			NetworkUtils.closeSockets();
+			return;
+		}
+
+		// If nothing has come over UDP for a while but TCP is still getting through, then UDP has
+		// been blocked since it was set up, so go back to sending positions over TCP
+		if(NetworkUtils.udpReady && stats.isDatagramSilent(now)){
+			Utils.log("Nothing received over UDP for " + (NetworkStats.DATAGRAM_TIMEOUT / 1000000) + "ms, falling back to TCP");
+			NetworkUtils.udpReady = false;
+		}
+
+		long messagesSent = 0, bytesSent = 0;
+		FrameWriter streamWriter = NetworkUtils.frameWriter, datagramWriter = NetworkUtils.datagramWriter;
+		if(streamWriter != null){
+			messagesSent += streamWriter.getFramesWritten();
+			bytesSent += streamWriter.getBytesWritten();
+		}
+		if(datagramWriter != null){
+			messagesSent += datagramWriter.getFramesWritten();
+			bytesSent += datagramWriter.getBytesWritten();
+		}
+		stats.updateRates(messagesSent, bytesSent, now);
+
+		if(streamWriter == null) return;
+		try{
+			stats.sendPing(streamWriter, now);
+		} catch(IOException ioe){
+			Utils.log("Error sending ping: " + ioe.getMessage());
+		}
+	}
+
+	/**
+	 * Used to get the measurements of the current connection.
+	 * @return The network statistics
+	 */
+	public static NetworkStats getStats(){
+		return stats;
+	}
+
+	/**
+	 * Used to check whether we disconnected because nothing was received for too long.
+	 * @return Returns true if the other side stopped responding
+	 */
+	public static boolean hasPeerTimedOut(){
+		return peerTimedOut;
+	}
+
+	/**
+	 * Moves paddle one for the player's input straight away, and remembers the input so it can be
+	 * sent to the server (client-side only). Should be called once per tick.
+	 * @param court The court
+	 * @param direction The direction the player wants to move paddle one in
+	 */
+	public static void predictInput(Court court, Paddle.Direction direction){
+		predictedInputs.apply(court, court.paddleOne, direction);
+	}
+
+	/**
+	 * Used to check whether any of the player's inputs that move paddle one are yet to be applied
+	 * by the server (client-side only).
+	 * @return Returns true if the server is yet to apply a movement
+	 */
+	public static boolean hasUnackedMovement(){
+		return predictedInputs.hasUnackedMovement();
+	}
+
+	/**
+	 * Sends every input the server hasn't applied yet (client-side only).
+	 * @param inputId The ID of the key press that caused the newest input, or -1 if a key wasn't
+	 * just pressed
+	 */
+	public static void sendInputs(int inputId){
+		FrameWriter writer = getStateWriter();
+		if(writer == null) return;
+
+		try{
+			predictedInputs.send(writer, inputId);
+		} catch(IOException ioe){
+			stateSendFailed(writer, ioe);
+		}
+	}
+
+	/**
+	 * Moves paddle two for every input received from the client since the last tick, and lets the
+	 * client know if one of their key presses has been applied (server-side only).
+	 * @param court The court
+	 */
+	public static void applyReceivedInputs(Court court){
+		int inputId = receivedInputs.apply(court, court.paddleTwo);
+		if(inputId >= 0) sendInputAck(inputId);
+	}
+
+	/**
+	 * Sends a message saying that one of the other player's key presses has been applied.
+	 * @param inputId The ID that was sent with the key press
+	 */
+	public static void sendInputAck(int inputId){
+		FrameWriter writer = getWriter();
+		if(writer == null) return;
+
+		try{
+			writer.writeInputAck(inputId);
+		} catch(IOException ioe){
+			Utils.log("Error sending input acknowledgement: " + ioe.getMessage());
+		}
+	}
+
+	/**
+	 * Sends a snapshot of the court to the client, as it should appear to them, every
+	 * SNAPSHOT_INTERVAL_TICKS (server-side only). Should be called every tick.
+	 * @param court The court
+	 * @param inputId The ID of our key press applied this tick, or -1
+	 */
+	public static void sendSnapshot(Court court, int inputId){
+		if(inputId >= 0) snapshotInputId = inputId;
+		if(++ticksSinceSnapshot < Frames.SNAPSHOT_INTERVAL_TICKS) return;
+		ticksSinceSnapshot = 0;
+
+		FrameWriter writer = getStateWriter();
+		if(writer == null) return;
+
+		try{
+			snapshotSender.next().capture(court, Court.PLAYER_TWO, snapshotInputId, receivedInputs.getAppliedSequence());
+			snapshotInputId = -1;
+			snapshotSender.send(writer);
+		} catch(IOException ioe){
+			stateSendFailed(writer, ioe);
+		}
+	}
+
+	/**
+	 * Acknowledges the newest snapshot received, if there's been a new one since the last
+	 * acknowledgement and ACK_INTERVAL_TICKS have passed (client-side only). Should be called
+	 * every tick.
+	 */
+	public static void sendSnapshotAck(){
+		if(++ticksSinceSnapshotAck < ACK_INTERVAL_TICKS) return;
+		int sequence = snapshotReceiver.takeAck();
+		if(sequence < 0) return;
+		ticksSinceSnapshotAck = 0;
+
+		FrameWriter writer = getStateWriter();
+		if(writer == null) return;
+
+		try{
+			writer.writeSnapshotAck(sequence);
+		} catch(IOException ioe){
+			stateSendFailed(writer, ioe);
+		}
+	}
+
+	/**
+	 * Works out where the ball and paddle two should be shown now, from the snapshots received
+	 * (client-side only).
+	 * @param out The snapshot to fill in with the positions and scores
+	 * @return Returns false if no snapshots have been received yet
+	 */
+	public static boolean samplePlayout(Snapshot out){
+		return jitterBuffer.sample(System.nanoTime(), out);
+	}
+
+	/**
+	 * Used to get the buffer holding the snapshots received until it's time to show them.
+	 * @return The jitter buffer
+	 */
+	public static JitterBuffer getJitterBuffer(){
+		return jitterBuffer;
+	}
+
+	/**
+	 * Starts playing a court with rollback netcode. Both players must create their courts the
+	 * same way.
+	 * @param court The court, which hasn't been played on yet
+	 * @param localPlayer The player we are (PLAYER_ONE or PLAYER_TWO)
+	 * @return The rollback session
+	 */
+	public static RollbackSession startRollback(Court court, int localPlayer){
+		RollbackSession session = new RollbackSession(court, localPlayer);
+		rollbackSession = session;
+		return session;
+	}
+
+	/**
+	 * Plays the next frame of the rollback session with the player's input, then sends the
+	 * inputs the other player hasn't received yet. Should be called once per tick.
+	 * @param direction The direction the player wants to move their paddle in
+	 * @param inputId The ID of the key press that caused the input, or -1 if a key wasn't just
+	 * pressed
+	 */
+	public static void advanceRollback(Paddle.Direction direction, int inputId){
+		RollbackSession session = rollbackSession;
+		if(session == null) return;
+
+		// If the frame has to wait for the other player, then the input isn't used
+		if(!session.advance(direction)) inputId = -1;
+
+		FrameWriter writer = getStateWriter();
+		if(writer == null) return;
+
+		try{
+			session.send(writer, inputId);
+		} catch(IOException ioe){
+			stateSendFailed(writer, ioe);
+		}
+	}
+
+	/**
+	 * Used to get the session playing the court with rollback netcode.
+	 * @return The rollback session, or null if rollback netcode isn't being used
+	 */
+	public static RollbackSession getRollbackSession(){
+		return rollbackSession;
+	}
+
+	/**
+	 * Sends a message saying that the player has quit the game.
+	 */
+	public static void sendDisconnect(){
+		FrameWriter writer = getWriter();
+		if(writer == null) return;
+
+		try{
+			// Nothing else will be sent, so send it straight away
+			writer.writeDisconnect();
+			writer.flush();
+		} catch(IOException ioe){
+			Utils.log("Error sending disconnect: " + ioe.getMessage());
+		}
+	}
+
+	/**
+	 * Sends a message written by the player.
+	 * @param message The message
+	 */
+	public static void sendPlayerMessage(String message){
+		FrameWriter writer = getWriter();
+		if(writer == null) return;
+
+		try{
+			// Messages aren't sent during a tick, so there's nothing to wait for
+			writer.writePlayerMessage(message);
+			writer.flush();
+		} catch(IOException ioe){
+			Utils.log("Error sending player message: " + ioe.getMessage());
+		}
+	}
+
+	/**
+	 * Sends everything written since the last flush. Should be called once at the end of every
+	 * tick, so that everything sent during the tick goes together.
+	 */
+	public static void flush(){
+		FrameWriter writer = NetworkUtils.frameWriter;
+		if(writer != null){
+			try{
+				writer.flush();
+			} catch(IOException ioe){
+				Utils.log("Error sending messages: " + ioe.getMessage());
+			}
+		}
+
+		FrameWriter datagramWriter = NetworkUtils.datagramWriter;
+		if(datagramWriter != null){
+			try{
+				datagramWriter.flush();
+			} catch(IOException ioe){
+				stateSendFailed(datagramWriter, ioe);
+			}
+		}
+	}
+
+	/**
+	 * Used to get the writer to send positions with. Positions are sent over UDP while it's known
+	 * to work, as a late position is no use and TCP would hold back every one after a lost packet.
+	 * @return The writer, or null if we're not connected
+	 */
+	private static FrameWriter getStateWriter(){
+		FrameWriter writer = NetworkUtils.datagramWriter;
+		if(NetworkUtils.udpReady && writer != null) return NetworkUtils.connected ? writer : null;
+		return getWriter();
+	}
+
+	/**
+	 * Handles a position failing to send. If it was sent over UDP, then positions are sent over
+	 * TCP from now on.
+	 * @param writer The writer the position was sent with
+	 * @param ioe The reason it failed
+	 */
+	private static void stateSendFailed(FrameWriter writer, IOException ioe){
+		if(writer == NetworkUtils.datagramWriter && NetworkUtils.udpReady){
+			Utils.log("Error sending position over UDP, falling back to TCP: " + ioe.getMessage());
+			NetworkUtils.udpReady = false;
 		}
 		else{
-			Utils.log("Unknown message: " + message);
-			return MessageResult.UNKNOWN_MESSAGE;
+			Utils.log("Error sending position: " + ioe.getMessage());
 		}
-		
-		return MessageResult.CONTINUE;
 	}
-	
+
 	/**
-	 * Sends the given message to the client/server.
-	 * @param message The message to send (should not include the client-server key)
+	 * Used to get the writer to send messages with.
+	 * @return The writer, or null if we're not connected
 	 */
-	public static void sendMessage(String message){
+	private static FrameWriter getWriter(){
 		// Ensure we're actually connected to a server/client
-		if(!NetworkUtils.connected){
+		FrameWriter writer = NetworkUtils.frameWriter;
+		if(!NetworkUtils.connected || writer == null){
 			Utils.log("Unable to send message - Not connected");
-			return;
+			return null;
 		}
-		
-		// Put the client-server key in front of the message
-		message = NetworkUtils.clientServerKey + message;
-		
-		// Send the message
-		NetworkUtils.socketWriter.println(message);
+		return writer;
 	}
-	
+
 }
@@ -6,6 +6,8 @@ import javax.swing.JOptionPane;
 
 import hsenfow.pongh.Utils;
 import hsenfow.pongh.Network.NetworkCommunications.MessageResult;
+import hsenfow.pongh.Network.Protocol.MessageType;
+import hsenfow.pongh.Network.Threads.DatagramThread;
 
 /**
  * This class exists as a base for the client and network threads. Its methods should be overridden as needed.
@@ -32,6 +34,12 @@ public abstract class NetworkThread extends Thread{
 			return;
 		}
 		
+		// Start sending and receiving positions over UDP if we can
+		NetworkCommunications.resetSequences();
+		if(NetworkUtils.datagramChannel != null){
+			new DatagramThread(NetworkUtils.datagramChannel, NetworkUtils.isServer).start();
+		}
+		
 		// Close the network dialog if it's visible
 		NetworkUtils.closeNetworkDialog();
 		
@@ -44,11 +52,15 @@ public abstract class NetworkThread extends Thread{
 				getAndProcessMessage();
 			}
 		} catch(IOException ioe){
-			Utils.log("Error while processing messages: " + ioe.getMessage());
-			JOptionPane.showMessageDialog(Utils.mainFrame, "Unexpected disconnect");
+			// If the other side stopped responding, then the connection was closed on purpose
+			if(!NetworkCommunications.hasPeerTimedOut()){
+				Utils.log("Error while processing messages: " + ioe.getMessage());
+				JOptionPane.showMessageDialog(Utils.mainFrame, "Unexpected disconnect");
+			}
+		}
+		if(NetworkCommunications.hasPeerTimedOut()){
+			JOptionPane.showMessageDialog(Utils.mainFrame, "Disconnected. Reason: " + MessageResult.TIMED_OUT.toString());
 		}
-		
-		// TODO There are sometimes some problems when disconnecting. NPE when updating / whole window freezing.
 		
 		Utils.log("Disconnected");
 		
@@ -60,13 +72,14 @@ public abstract class NetworkThread extends Thread{
 	}
 	
 	/**
-	 * Gets and processes the latest message received from the client/server.
+	 * Gets the latest message received from the client/server, and queues it for the game loop.
 	 * Note: This method is static as it is also accessed from the server thread, because once the
 	 * server has been started up, the server thread becomes much the same as the client one.
 	 */
 	public void getAndProcessMessage() throws IOException{
 		// Get and process the latest message received from the server
-		MessageResult result = NetworkCommunications.processMessage(NetworkUtils.socketReader.readLine());
+		MessageType type = NetworkUtils.frameReader.readFrame();
+		MessageResult result = NetworkCommunications.receiveMessage(type != null ? NetworkUtils.frameReader : null, false);
 		
 		// Handle the result
 		switch(result){
@@ -3,13 +3,12 @@ package hsenfow.pongh.Network;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.channels.DatagramChannel;
 
 import javax.swing.JButton;
 import javax.swing.JDialog;
@@ -18,6 +17,9 @@ import javax.swing.JLabel;
 import javax.swing.JPanel;
 
 import hsenfow.pongh.Utils;
+import hsenfow.pongh.Network.Protocol.FrameReader;
+import hsenfow.pongh.Network.Protocol.FrameWriter;
+import hsenfow.pongh.Network.Protocol.Frames;
 import hsenfow.pongh.Network.Threads.ClientThread;
 import hsenfow.pongh.Network.Threads.ServerThread;
 
@@ -32,10 +34,18 @@ public final class NetworkUtils {
 	// The client socket
 	public static Socket clientSocket = null;
 	
-	// The PrintWriter used to send data through a socket
-	public static PrintWriter socketWriter = null;
-	// The BufferedReader used to read data from a socket
-	public static BufferedReader socketReader = null;
+	// The FrameWriter used to send messages through the client socket's channel
+	public static FrameWriter frameWriter = null;
+	// The FrameReader used to read messages from the client socket's channel
+	public static FrameReader frameReader = null;
+	
+	// The channel used to send and receive positions over UDP, or null if it couldn't be opened
+	public static DatagramChannel datagramChannel = null;
+	// The FrameWriter used to send positions through the datagram channel once it's connected
+	public static volatile FrameWriter datagramWriter = null;
+	// Whether UDP is known to work in both directions. Until it is, or if it stops getting through,
+	// positions are sent over TCP
+	public static volatile boolean udpReady = false;
 	
 	// The dialog that shows information about what network-related thing is currently happening.
 	// Only displays if we're either connecting to a server or awaiting a connection from a client
@@ -47,13 +57,12 @@ public final class NetworkUtils {
 	// Whether we're the server or not
 	public static boolean isServer = false;
 	
-	// The length of the client-server key (including the prefix)
-	public static final int CLIENT_SERVER_KEY_LENGTH = 32;
-	// The client-server key prefix
-	public static final String CLIENT_SERVER_KEY_PREFIX = "{Ponghline}";
+	// The ID of the current session, agreed when connecting and sent with every message
+	public static volatile int sessionId = Frames.NO_SESSION;
 	
-	// The private client-server key
-	public static String clientServerKey = null;
+	// Whether both players simulate the court and exchange inputs (rollback netcode), rather than
+	// the server deciding where everything is. The server chooses when connecting
+	public static volatile boolean rollback = false;
 	
 	/**
 	 * Closes all active network connections.
@@ -81,8 +90,19 @@ public final class NetworkUtils {
 		// We may have been a server once, but we certainly aren't now
 		NetworkUtils.isServer = false;
 		
-		// Delete the client-server key
-		NetworkUtils.clientServerKey = null;
+		// Forget the session
+		NetworkUtils.sessionId = Frames.NO_SESSION;
+		NetworkUtils.rollback = false;
+		
+		// Close the datagram channel
+		NetworkUtils.udpReady = false;
+		NetworkUtils.datagramWriter = null;
+		if(NetworkUtils.datagramChannel != null){
+			try{
+				NetworkUtils.datagramChannel.close();
+			} catch(IOException ioe){ Utils.log("Error closing datagram channel: " + ioe.toString()); }
+			NetworkUtils.datagramChannel = null;
+		}
 		
 		// Close the server socket
 		if(NetworkUtils.serverSocket != null){
@@ -216,13 +236,11 @@ public final class NetworkUtils {
 	}
 	
 	/**
-	 * Generates a key used for communication between a client and server.
-	 * @return The generated key
+	 * Generates a session ID used for communication between a client and server.
+	 * @return The generated session ID
 	 */
-	public static String generateKey(){
-		String key = CLIENT_SERVER_KEY_PREFIX;
-		while(key.length() < CLIENT_SERVER_KEY_LENGTH) key += (char)((Math.random() * 94) + 32);
-		return key;
+	public static int generateSessionId(){
+		return 1 + (int)(Math.random() * 0xFFFF);
 	}
 	
 	/**
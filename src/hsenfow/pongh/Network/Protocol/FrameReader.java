@@ -0,0 +1,375 @@
+package hsenfow.pongh.Network.Protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+import hsenfow.pongh.Entities.Paddle.Direction;
+
+/**
+ * Reads frames from a channel and decodes them. The fields of the latest frame are kept until the
+ * next one is read, and nothing is allocated while reading except for the text of player messages. A snapshot's fields
+ * are kept packed until they're unpacked with decodeSnapshot.
+ * Only one thread should read from a reader. Frames that have already been received some other way
+ * (e.g. as datagrams) can be decoded with decodeFrame. The latest frame can be copied exactly as it
+ * was received with copyFrame, e.g. to hand it to another thread.
+ */
+public class FrameReader {
+
+	// The channel the frames are read from
+	private final ReadableByteChannel channel;
+
+	// The bytes read from the channel but not yet decoded, from its position. Only compacted when
+	// more bytes are needed, so the latest frame is still there until the next read
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(Frames.MAX_FRAME_SIZE * 4);
+
+	// The buffer holding the latest frame decoded, and where the frame starts and ends in it
+	private ByteBuffer frameSource = null;
+	private int frameStart, frameEnd;
+
+	// Every paddle direction, indexed by the byte used to send it
+	private static final Direction[] DIRECTIONS = Direction.values();
+
+	// The latest frame's session ID and type
+	private int sessionId;
+	private MessageType type;
+
+	// The latest frame's fields. Only the ones used by its type are set
+	private int protocolVersion;
+	private int netcode;
+	private int sequence;
+	private int ackSequence;
+	private int frameAdvantage;
+	private long timestamp;
+	private long holdMicros;
+	private final Direction[] inputs = new Direction[Frames.MAX_INPUTS];
+	private int inputCount;
+	private int inputId;
+	private int snapshotBaseAge;
+	private final byte[] snapshotFields = new byte[Frames.MAX_FRAME_SIZE];
+	private int snapshotFieldsLength;
+	private final byte[] text = new byte[Frames.MAX_TEXT_LENGTH];
+	private int textLength;
+
+	/**
+	 * Creates a reader for the given channel.
+	 * @param channel The channel to read frames from. This should be in blocking mode, or null if
+	 * frames will only be given to decodeFrame
+	 */
+	public FrameReader(ReadableByteChannel channel){
+		this.channel = channel;
+		buffer.flip();
+	}
+
+	/**
+	 * Reads the next frame, waiting for it if it hasn't all arrived yet.
+	 * @return The frame's type, or null if the channel has been closed by the other end
+	 * @throws IOException If the channel couldn't be read from, or the frame is invalid
+	 */
+	public MessageType readFrame() throws IOException{
+		// Wait until there's a whole frame
+		while(!hasWholeFrame(buffer)){
+			buffer.compact();
+			int read = channel.read(buffer);
+			buffer.flip();
+			if(read < 0) return null;
+		}
+
+		decodeFrame(buffer);
+		return type;
+	}
+
+	/**
+	 * Checks whether a whole frame has been received, e.g. by a non-blocking channel.
+	 * @param source The buffer holding the bytes received, from its position
+	 * @return Returns true if the buffer holds at least one whole frame
+	 * @throws IOException If the frame's length is too big for it to ever be received
+	 */
+	public static boolean hasWholeFrame(ByteBuffer source) throws IOException{
+		if(source.remaining() < Frames.LENGTH_SIZE) return false;
+		int length = source.getShort(source.position()) & 0xFFFF;
+		if(length > Frames.MAX_FRAME_SIZE - Frames.LENGTH_SIZE) throw new IOException("Invalid frame length: " + length);
+		return source.remaining() >= Frames.LENGTH_SIZE + length;
+	}
+
+	/**
+	 * Decodes a whole frame, e.g. one received as a datagram.
+	 * @param source The buffer holding the frame, from its position. Its position is left at the
+	 * end of the frame
+	 * @return The frame's type
+	 * @throws IOException If the frame is invalid or incomplete
+	 */
+	public MessageType decodeFrame(ByteBuffer source) throws IOException{
+		if(source.remaining() < Frames.LENGTH_SIZE) throw new IOException("Frame too short: " + source.remaining());
+		int length = source.getShort() & 0xFFFF;
+		if(length < Frames.HEADER_SIZE || length > Frames.MAX_FRAME_SIZE - Frames.LENGTH_SIZE
+				|| length > source.remaining()){
+			throw new IOException("Invalid frame length: " + length);
+		}
+		int end = source.position() + length;
+		frameSource = source;
+		frameStart = source.position() - Frames.LENGTH_SIZE;
+		frameEnd = end;
+		decode(source, end);
+
+		// Skip anything we don't understand (e.g. fields added by a later version)
+		source.position(end);
+		return type;
+	}
+
+	/**
+	 * Decodes the frame at the given buffer's position.
+	 * @param source The buffer holding the frame
+	 * @param end The position of the end of the frame
+	 */
+	private void decode(ByteBuffer source, int end) throws IOException{
+		sessionId = source.getShort() & 0xFFFF;
+		type = MessageType.fromId(source.get() & 0xFF);
+
+		int payloadLength = end - source.position();
+		switch(type){
+		case HELLO:{
+			checkPayload(payloadLength, 2);
+			protocolVersion = source.getShort() & 0xFFFF;
+
+			// Versions before the netcode mode was added only had server netcode
+			netcode = (payloadLength >= 3) ? source.get() & 0xFF : Frames.NETCODE_SERVER;
+			break;
+		}
+		case PLAYER_INPUT:{
+			checkPayload(payloadLength, 2);
+			sequence = source.getShort() & 0xFFFF;
+			getInputs(source, payloadLength - 2);
+			break;
+		}
+		case ROLLBACK_INPUT:{
+			checkPayload(payloadLength, 5);
+			sequence = source.getShort() & 0xFFFF;
+			ackSequence = source.getShort() & 0xFFFF;
+			frameAdvantage = source.get();
+			getInputs(source, payloadLength - 5);
+			break;
+		}
+		case INPUT_ACK:{
+			checkPayload(payloadLength, 4);
+			inputId = source.getInt();
+			break;
+		}
+		case SNAPSHOT:{
+			checkPayload(payloadLength, 3);
+			sequence = source.getShort() & 0xFFFF;
+			snapshotBaseAge = source.get() & 0xFF;
+			snapshotFieldsLength = payloadLength - 3;
+			source.get(snapshotFields, 0, snapshotFieldsLength);
+			break;
+		}
+		case SNAPSHOT_ACK:{
+			checkPayload(payloadLength, 2);
+			sequence = source.getShort() & 0xFFFF;
+			break;
+		}
+		case PING:{
+			checkPayload(payloadLength, 10);
+			sequence = source.getShort() & 0xFFFF;
+			timestamp = source.getLong();
+			break;
+		}
+		case PONG:{
+			checkPayload(payloadLength, 14);
+			sequence = source.getShort() & 0xFFFF;
+			timestamp = source.getLong();
+			holdMicros = source.getInt() & 0xFFFFFFFFL;
+			break;
+		}
+		case PLAYER_MESSAGE:{
+			checkPayload(payloadLength, 1);
+			textLength = source.get() & 0xFF;
+			checkPayload(payloadLength, 1 + textLength);
+			source.get(text, 0, textLength);
+			break;
+		}
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Decodes the inputs at the end of a player input or rollback input frame.
+	 * @param source The buffer holding the frame, at the start of the inputs
+	 * @param length The number of bytes left in the payload
+	 */
+	private void getInputs(ByteBuffer source, int length) throws IOException{
+		checkPayload(length, 5);
+		inputCount = source.get() & 0xFF;
+		inputId = source.getInt();
+		if(inputCount > Frames.MAX_INPUTS) throw new IOException("Too many inputs: " + inputCount);
+		checkPayload(length, 5 + (inputCount + 3) / 4);
+
+		// Unpack the directions, which are 2 bits each
+		int packed = 0;
+		for(int index = 0; index < inputCount; index++){
+			if(index % 4 == 0) packed = source.get() & 0xFF;
+			int directionId = (packed >> (6 - (index % 4) * 2)) & 0x3;
+			if(directionId >= DIRECTIONS.length) throw new IOException("Invalid direction: " + directionId);
+			inputs[index] = DIRECTIONS[directionId];
+		}
+	}
+
+	/**
+	 * Makes sure a frame's payload is big enough for its fields.
+	 * @param payloadLength The size of the payload
+	 * @param required The size needed
+	 */
+	private void checkPayload(int payloadLength, int required) throws IOException{
+		if(payloadLength < required) throw new IOException("Frame too short for " + type + ": " + payloadLength);
+	}
+
+	/**
+	 * Copies the latest frame, including its length, exactly as it was received. The frame can
+	 * only be copied until the next one is read, or the buffer it was decoded from is changed.
+	 * @param out The buffer to copy the frame into, from its position
+	 */
+	public void copyFrame(ByteBuffer out){
+		for(int index = frameStart; index < frameEnd; index++) out.put(frameSource.get(index));
+	}
+
+	/**
+	 * Used to get the size of the latest frame, including its length.
+	 * @return The frame's size in bytes
+	 */
+	public int getFrameLength(){
+		return frameEnd - frameStart;
+	}
+
+	/**
+	 * Used to get the latest frame's session ID.
+	 * @return The session ID
+	 */
+	public int getSessionId(){
+		return sessionId;
+	}
+
+	/**
+	 * Used to get the latest frame's type.
+	 * @return The frame's type
+	 */
+	public MessageType getType(){
+		return type;
+	}
+
+	/**
+	 * Used to get the protocol version from the latest hello frame.
+	 * @return The protocol version
+	 */
+	public int getProtocolVersion(){
+		return protocolVersion;
+	}
+
+	/**
+	 * Used to get the netcode mode from the latest hello frame.
+	 * @return The netcode mode (NETCODE_SERVER or NETCODE_ROLLBACK)
+	 */
+	public int getNetcode(){
+		return netcode;
+	}
+
+	/**
+	 * Used to get the sequence number from the latest player input, snapshot, snapshot
+	 * acknowledgement, rollback input, ping or pong frame. For player input, this is the sequence number of
+	 * the newest input, and for rollback input it's the frame of the newest input.
+	 * @return The sequence number
+	 */
+	public int getSequence(){
+		return sequence;
+	}
+
+	/**
+	 * Used to get the send time from the latest ping or pong frame.
+	 * @return The send time, in the clock of whoever sent the ping
+	 */
+	public long getTimestamp(){
+		return timestamp;
+	}
+
+	/**
+	 * Used to get how long the latest pong frame's ping was held before the reply was sent.
+	 * @return The hold time in microseconds
+	 */
+	public long getHoldMicros(){
+		return holdMicros;
+	}
+
+	/**
+	 * Used to get the newest frame the other player has received from the latest rollback input
+	 * frame.
+	 * @return The frame, which wraps around at 16 bits
+	 */
+	public int getAckSequence(){
+		return ackSequence;
+	}
+
+	/**
+	 * Used to get how many frames the other player is ahead of our inputs, from the latest
+	 * rollback input frame.
+	 * @return The frame advantage, which is negative if they're behind
+	 */
+	public int getFrameAdvantage(){
+		return frameAdvantage;
+	}
+
+	/**
+	 * Used to get the number of inputs in the latest player input or rollback input frame.
+	 * @return The number of inputs
+	 */
+	public int getInputCount(){
+		return inputCount;
+	}
+
+	/**
+	 * Used to get one of the inputs in the latest player input or rollback input frame.
+	 * @param index The input's index, from 0 for the oldest
+	 * @return The direction the player wanted to move in
+	 */
+	public Direction getInput(int index){
+		return inputs[index];
+	}
+
+	/**
+	 * Used to get the input ID from the latest player input, rollback input or input
+	 * acknowledgement frame.
+	 * @return The input ID, or -1 if the player input didn't have one
+	 */
+	public int getInputId(){
+		return inputId;
+	}
+
+	/**
+	 * Unpacks the fields of the latest snapshot frame.
+	 * @param snapshot The snapshot to unpack into
+	 * @param history The snapshots already received, one of which may be the snapshot's base
+	 * @return Returns false if the snapshot's base isn't in the history, so it can't be unpacked
+	 * @throws IOException If the snapshot is invalid
+	 */
+	public boolean decodeSnapshot(Snapshot snapshot, SnapshotHistory history) throws IOException{
+		Snapshot base = null;
+		if(snapshotBaseAge != 0){
+			base = history.get((sequence - snapshotBaseAge) & 0xFFFF);
+			if(base == null) return false;
+		}
+
+		snapshot.decode(snapshotFields, snapshotFieldsLength, base);
+		snapshot.sequence = sequence;
+		return true;
+	}
+
+	/**
+	 * Used to get the text from the latest player message frame.
+	 * @return The text
+	 */
+	public String getText(){
+		char[] characters = new char[textLength];
+		for(int index = 0; index < textLength; index++) characters[index] = (char)(text[index] & 0x7F);
+		return new String(characters);
+	}
+
+}
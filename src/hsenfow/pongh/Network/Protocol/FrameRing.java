@@ -0,0 +1,119 @@
+package hsenfow.pongh.Network.Protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import hsenfow.pongh.Utils;
+import hsenfow.pongh.Engine.RingIndex;
+
+/**
+ * A bounded, lock-free queue of whole frames. Only one thread (e.g. the network thread) adds to
+ * it, and only one thread (the game loop) takes from it, so frames can be received on one thread
+ * and acted on by another without either one ever waiting. Frames are copied in as they were
+ * received and decoded again when they're taken. Nothing is allocated once the ring has been
+ * created. The slots in use are tracked the same way as in InputEventRing, by a RingIndex.
+ */
+public class FrameRing {
+
+	/**
+	 * Receives the frames taken from the ring.
+	 */
+	public interface FrameHandler{
+		/**
+		 * Called for each frame, in the order they were added.
+		 * @param frame The reader holding the decoded frame
+		 * @param arrivalTime When the frame arrived, from System.nanoTime()
+		 */
+		void frameReceived(FrameReader frame, long arrivalTime);
+	}
+
+	// Each frame and when it arrived
+	private final ByteBuffer[] frames;
+	private final long[] arrivalTimes;
+
+	// Keeps track of which slots are in use
+	private final RingIndex index;
+
+	// Decodes the frames as they're taken
+	private final FrameReader reader = new FrameReader(null);
+
+	// The number of frames dropped because the ring was full
+	private volatile long droppedFrames = 0;
+
+	/**
+	 * Creates a ring with room for at least the given number of frames.
+	 * @param capacity The minimum capacity of the ring
+	 */
+	public FrameRing(int capacity){
+		index = new RingIndex(capacity);
+		int size = index.getSize();
+		frames = new ByteBuffer[size];
+		for(int slot = 0; slot < size; slot++) frames[slot] = ByteBuffer.allocate(Frames.MAX_FRAME_SIZE);
+		arrivalTimes = new long[size];
+	}
+
+	/**
+	 * Adds a copy of the latest frame decoded by a reader to the ring. Must only be called by the
+	 * producing thread.
+	 * @param frame The reader holding the frame
+	 * @param arrivalTime When the frame arrived, from System.nanoTime()
+	 * @return False if the ring was full, in which case the frame is dropped
+	 */
+	public boolean add(FrameReader frame, long arrivalTime){
+		long position = index.claim();
+		if(position < 0){
+			droppedFrames++;
+			return false;
+		}
+
+		int slot = index.getSlot(position);
+		ByteBuffer buffer = frames[slot];
+		buffer.clear();
+		frame.copyFrame(buffer);
+		buffer.flip();
+		arrivalTimes[slot] = arrivalTime;
+		index.publish(position);
+		return true;
+	}
+
+	/**
+	 * Takes every frame currently in the ring, passing each one to the given handler. Must only be
+	 * called by the consuming thread.
+	 * @param handler The handler to pass the frames to
+	 * @return The number of frames taken
+	 */
+	public int drain(FrameHandler handler){
+		long position = index.getTakePosition();
+		long end = index.getAddPosition();
+		for(long current = position; current < end; current++){
+			int slot = index.getSlot(current);
+			try{
+				reader.decodeFrame(frames[slot]);
+			} catch(IOException ioe){
+				// The frame was decoded once already, so this should never happen
+				Utils.log("Invalid queued frame: " + ioe.getMessage());
+				continue;
+			}
+			handler.frameReceived(reader, arrivalTimes[slot]);
+		}
+		index.release(end);
+		return (int)(end - position);
+	}
+
+	/**
+	 * Forgets every frame in the ring. Must only be called while neither thread is using it.
+	 */
+	public void clear(){
+		index.clear();
+		droppedFrames = 0;
+	}
+
+	/**
+	 * Used to get the number of frames dropped because the ring was full.
+	 * @return The number of dropped frames
+	 */
+	public long getDroppedFrames(){
+		return droppedFrames;
+	}
+
+}
@@ -0,0 +1,312 @@
+package hsenfow.pongh.Network.Protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import hsenfow.pongh.Entities.Paddle.Direction;
+
+/**
+ * Encodes messages into frames and writes them to a channel (a socket's stream, or a connected
+ * datagram channel). The same buffers are used for every frame, so writing never allocates. Any
+ * thread can write, as each frame is encoded as a whole before the next one is started. Each write
+ * method throws an IOException if the frame couldn't be written.
+ *
+ * A batching writer keeps the frames until it's flushed, then sends them all with one gathering
+ * write, so everything sent during a tick goes in as few packets (and system calls) as possible.
+ * Over UDP, each flush sends one datagram holding every frame in the batch.
+ */
+public class FrameWriter {
+
+	// The channel the frames are written to
+	private final WritableByteChannel channel;
+	// Whether the channel sends datagrams, which are either sent whole or not at all
+	private final boolean datagram;
+
+	// The most frames a batching writer keeps before flushing them anyway
+	private static final int MAX_BATCH_FRAMES = 16;
+
+	// The buffers the frames in the current batch are encoded into, one per frame
+	private final ByteBuffer[] buffers;
+	// The number of frames in the current batch
+	private int batchSize = 0;
+	// The buffer the current frame is being encoded into
+	private ByteBuffer buffer;
+	// Whether frames are kept until the writer is flushed
+	private final boolean batching;
+
+	// The session ID put in each frame
+	private volatile int sessionId = Frames.NO_SESSION;
+
+	// The number of frames and bytes written, including any still waiting in the batch
+	private volatile long framesWritten = 0, bytesWritten = 0;
+
+	/**
+	 * Creates a writer for the given channel, which writes each frame straight away.
+	 * @param channel The channel to write frames to. This should be in blocking mode, unless it's
+	 * a datagram channel
+	 */
+	public FrameWriter(WritableByteChannel channel){
+		this(channel, false);
+	}
+
+	/**
+	 * Creates a writer for the given channel.
+	 * @param channel The channel to write frames to. This should be in blocking mode, unless it's
+	 * a datagram channel
+	 * @param batching Whether to keep frames until the writer is flushed
+	 */
+	public FrameWriter(WritableByteChannel channel, boolean batching){
+		this.channel = channel;
+		this.datagram = channel instanceof DatagramChannel;
+		this.batching = batching;
+
+		buffers = new ByteBuffer[batching ? MAX_BATCH_FRAMES : 1];
+		for(int index = 0; index < buffers.length; index++) buffers[index] = ByteBuffer.allocateDirect(Frames.MAX_FRAME_SIZE);
+	}
+
+	/**
+	 * Sets the session ID put in each frame.
+	 * @param sessionId The session ID
+	 */
+	public void setSessionId(int sessionId){
+		this.sessionId = sessionId;
+	}
+
+	/**
+	 * Writes a hello frame for server netcode, which also sets the session ID used from now on.
+	 * @param sessionId The session ID
+	 */
+	public void writeHello(int sessionId) throws IOException{
+		writeHello(sessionId, Frames.NETCODE_SERVER);
+	}
+
+	/**
+	 * Writes a hello frame, which also sets the session ID used from now on.
+	 * @param sessionId The session ID
+	 * @param netcode The netcode mode (NETCODE_SERVER or NETCODE_ROLLBACK)
+	 */
+	public synchronized void writeHello(int sessionId, int netcode) throws IOException{
+		setSessionId(sessionId);
+		begin(MessageType.HELLO);
+		buffer.putShort((short)Frames.PROTOCOL_VERSION);
+		buffer.put((byte)netcode);
+		finish();
+	}
+
+	/**
+	 * Writes a player input frame.
+	 * @param sequence The sequence number of the newest input
+	 * @param inputs The inputs, oldest first, ending with the newest
+	 * @param count The number of inputs, up to MAX_INPUTS
+	 * @param inputId The ID of the key press that caused the newest input, or -1
+	 */
+	public synchronized void writeInputs(int sequence, Direction[] inputs, int count, int inputId) throws IOException{
+		if(count > Frames.MAX_INPUTS) throw new IOException("Too many inputs: " + count);
+
+		begin(MessageType.PLAYER_INPUT);
+		buffer.putShort((short)sequence);
+		putInputs(inputs, count, inputId);
+		finish();
+	}
+
+	/**
+	 * Writes a rollback input frame.
+	 * @param frame The frame of the newest input
+	 * @param ackFrame The newest frame received from the other player
+	 * @param frameAdvantage How many frames ahead of the other player's inputs we are, which is
+	 * clamped to fit in a byte
+	 * @param inputs The inputs, one per frame, oldest first, ending with the newest
+	 * @param count The number of inputs, up to MAX_INPUTS
+	 * @param inputId The ID of the key press that caused the newest input, or -1
+	 */
+	public synchronized void writeRollbackInputs(int frame, int ackFrame, int frameAdvantage, Direction[] inputs, int count,
+			int inputId) throws IOException{
+		if(count > Frames.MAX_INPUTS) throw new IOException("Too many inputs: " + count);
+
+		begin(MessageType.ROLLBACK_INPUT);
+		buffer.putShort((short)frame);
+		buffer.putShort((short)ackFrame);
+		buffer.put((byte)Math.max(Byte.MIN_VALUE, Math.min(frameAdvantage, Byte.MAX_VALUE)));
+		putInputs(inputs, count, inputId);
+		finish();
+	}
+
+	/**
+	 * Writes an input acknowledgement frame.
+	 * @param inputId The ID of the key press that has been applied
+	 */
+	public synchronized void writeInputAck(int inputId) throws IOException{
+		begin(MessageType.INPUT_ACK);
+		buffer.putInt(inputId);
+		finish();
+	}
+
+	/**
+	 * Writes a snapshot frame.
+	 * @param snapshot The snapshot
+	 * @param base The snapshot to send the changes from, which must be one of the last
+	 * MAX_SNAPSHOT_BASE_AGE sent, or null to send everything in full
+	 */
+	public synchronized void writeSnapshot(Snapshot snapshot, Snapshot base) throws IOException{
+		int baseAge = (base == null) ? 0 : Snapshot.getSequenceDifference(snapshot.sequence, base.sequence);
+		if(baseAge < 0 || baseAge > Frames.MAX_SNAPSHOT_BASE_AGE) throw new IOException("Snapshot base too old: " + baseAge);
+
+		begin(MessageType.SNAPSHOT);
+		buffer.putShort((short)snapshot.sequence);
+		buffer.put((byte)baseAge);
+		snapshot.encode(buffer, (baseAge == 0) ? null : base);
+		finish();
+	}
+
+	/**
+	 * Writes a snapshot acknowledgement frame.
+	 * @param sequence The sequence number of the newest snapshot received
+	 */
+	public synchronized void writeSnapshotAck(int sequence) throws IOException{
+		begin(MessageType.SNAPSHOT_ACK);
+		buffer.putShort((short)sequence);
+		finish();
+	}
+
+	/**
+	 * Writes a ping frame.
+	 * @param sequence The ping's sequence number
+	 * @param time When the ping was sent, from System.nanoTime()
+	 */
+	public synchronized void writePing(int sequence, long time) throws IOException{
+		begin(MessageType.PING);
+		buffer.putShort((short)sequence);
+		buffer.putLong(time);
+		finish();
+	}
+
+	/**
+	 * Writes a pong frame, replying to a ping.
+	 * @param sequence The ping's sequence number
+	 * @param time The send time from the ping
+	 * @param holdMicros How long the ping was held before replying, in microseconds
+	 */
+	public synchronized void writePong(int sequence, long time, long holdMicros) throws IOException{
+		begin(MessageType.PONG);
+		buffer.putShort((short)sequence);
+		buffer.putLong(time);
+		buffer.putInt((int)Math.max(0, Math.min(holdMicros, 0xFFFFFFFFL)));
+		finish();
+	}
+
+	/**
+	 * Writes a disconnect frame.
+	 */
+	public synchronized void writeDisconnect() throws IOException{
+		begin(MessageType.DISCONNECT);
+		finish();
+	}
+
+	/**
+	 * Writes a player message frame. Only the first MAX_TEXT_LENGTH characters are sent, and any
+	 * characters that aren't ASCII are sent as '?'.
+	 * @param text The message
+	 */
+	public synchronized void writePlayerMessage(CharSequence text) throws IOException{
+		int length = Math.min(text.length(), Frames.MAX_TEXT_LENGTH);
+		begin(MessageType.PLAYER_MESSAGE);
+		buffer.put((byte)length);
+		for(int index = 0; index < length; index++){
+			char character = text.charAt(index);
+			buffer.put((byte)(character < 128 ? character : '?'));
+		}
+		finish();
+	}
+
+	/**
+	 * Used to get the number of frames written, including any still waiting to be flushed.
+	 * @return The number of frames
+	 */
+	public long getFramesWritten(){
+		return framesWritten;
+	}
+
+	/**
+	 * Used to get the number of bytes written, including any still waiting to be flushed.
+	 * @return The number of bytes
+	 */
+	public long getBytesWritten(){
+		return bytesWritten;
+	}
+
+	/**
+	 * Writes every frame in the current batch to the channel. Does nothing if the writer isn't
+	 * batching, as its frames have already been written.
+	 */
+	public synchronized void flush() throws IOException{
+		if(batchSize == 0) return;
+
+		try{
+			if(channel instanceof GatheringByteChannel){
+				GatheringByteChannel gatheringChannel = (GatheringByteChannel)channel;
+
+				// If there's no room to send a datagram right now, then just drop it like the
+				// network might
+				if(datagram) gatheringChannel.write(buffers, 0, batchSize);
+				else while(buffers[batchSize - 1].hasRemaining()) gatheringChannel.write(buffers, 0, batchSize);
+			}
+			else{
+				for(int index = 0; index < batchSize; index++){
+					while(buffers[index].hasRemaining()) channel.write(buffers[index]);
+				}
+			}
+		} finally{
+			batchSize = 0;
+		}
+	}
+
+	/**
+	 * Starts encoding a frame, leaving room for the length.
+	 * @param type The type of the frame
+	 */
+	private void begin(MessageType type){
+		buffer = buffers[batchSize];
+		buffer.clear();
+		buffer.position(Frames.LENGTH_SIZE);
+		buffer.putShort((short)sessionId);
+		buffer.put((byte)type.id);
+	}
+
+	/**
+	 * Adds the inputs to the current frame, as a count, an input ID and the directions packed into
+	 * 2 bits each.
+	 * @param inputs The inputs, oldest first
+	 * @param count The number of inputs
+	 * @param inputId The ID of the key press that caused the newest input, or -1
+	 */
+	private void putInputs(Direction[] inputs, int count, int inputId){
+		buffer.put((byte)count);
+		buffer.putInt(inputId);
+		for(int index = 0; index < count; index += 4){
+			int packed = 0;
+			for(int offset = 0; offset < 4; offset++){
+				int direction = (index + offset < count) ? inputs[index + offset].ordinal() : 0;
+				packed |= direction << (6 - offset * 2);
+			}
+			buffer.put((byte)packed);
+		}
+	}
+
+	/**
+	 * Fills in the frame's length and adds it to the batch, writing the batch if the writer isn't
+	 * batching or the batch is full.
+	 */
+	private void finish() throws IOException{
+		buffer.putShort(0, (short)(buffer.position() - Frames.LENGTH_SIZE));
+		buffer.flip();
+		framesWritten++;
+		bytesWritten += buffer.remaining();
+
+		batchSize++;
+		if(!batching || batchSize == buffers.length) flush();
+	}
+
+}
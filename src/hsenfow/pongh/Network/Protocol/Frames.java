@@ -0,0 +1,43 @@
+package hsenfow.pongh.Network.Protocol;
+
+/**
+ * The layout of the frames sent between the client and server. Every frame is:
+ *
+ * length (u16, the number of bytes after it), session ID (u16), message type (u8), payload
+ *
+ * All numbers are big-endian and every payload field has a fixed width, except for the text of a
+ * player message and the packed fields of a snapshot (see Snapshot). Over UDP, each datagram holds one or more whole frames.
+ */
+public final class Frames {
+
+	// The version of the protocol. Both sides must be using the same one
+	public static final int PROTOCOL_VERSION = 6;
+
+	// The size of the length at the start of each frame
+	public static final int LENGTH_SIZE = 2;
+	// The size of everything after the length and before the payload
+	public static final int HEADER_SIZE = 3;
+	// The largest a frame can be, including its length
+	public static final int MAX_FRAME_SIZE = 512;
+
+	// The longest player message that can be sent
+	public static final int MAX_TEXT_LENGTH = 255;
+
+	// The most inputs that can be sent in one frame. Must be a power of two
+	public static final int MAX_INPUTS = 64;
+
+	// The number of ticks between each snapshot the server sends
+	public static final int SNAPSHOT_INTERVAL_TICKS = 3;
+
+	// The furthest back a snapshot's base can be
+	public static final int MAX_SNAPSHOT_BASE_AGE = 255;
+
+	// The netcode modes. With server netcode the server decides where everything is and sends
+	// snapshots, and with rollback netcode both players simulate the court and exchange inputs
+	public static final int NETCODE_SERVER = 0;
+	public static final int NETCODE_ROLLBACK = 1;
+
+	// The session ID used before one has been agreed
+	public static final int NO_SESSION = 0;
+
+}
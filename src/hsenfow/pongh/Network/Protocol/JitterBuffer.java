@@ -0,0 +1,255 @@
+package hsenfow.pongh.Network.Protocol;
+
+import java.util.concurrent.TimeUnit;
+
+import hsenfow.pongh.Engine.GameLoop;
+
+/**
+ * Holds the snapshots received from the server until it's time to show them, so that the ball and
+ * the opponent's paddle move smoothly however unevenly the snapshots arrive. Everything is shown
+ * a short playout delay behind the server, moving between the two snapshots either side of that
+ * time. If the next snapshot is late, then things carry on moving the way they were for a short
+ * while before stopping to wait for it.
+ *
+ * The playout delay is a snapshot interval plus a few times the measured jitter, so a steady
+ * connection gets a short delay and an uneven one gets as long a delay as it needs. It changes
+ * gradually, so that playback never jumps.
+ */
+public class JitterBuffer {
+
+	// The number of snapshots kept. Must be a power of two
+	private static final int SIZE = 32;
+
+	// The time between snapshots sent by the server
+	private static final long SNAPSHOT_NANOS = Frames.SNAPSHOT_INTERVAL_TICKS * GameLoop.NANOS_PER_SECOND / GameLoop.TICK_RATE;
+	// The number of times the jitter to add to the playout delay
+	private static final int JITTER_MULTIPLIER = 3;
+	// The longest the playout delay can be
+	private static final long MAX_PLAYOUT_DELAY = TimeUnit.MILLISECONDS.toNanos(250);
+	// The longest to keep things moving after the newest snapshot before stopping to wait
+	private static final long MAX_EXTRAPOLATION = TimeUnit.MILLISECONDS.toNanos(100);
+
+	// The snapshots, indexed by the low bits of their sequence numbers once they've been unwrapped
+	private final Snapshot[] snapshots = new Snapshot[SIZE];
+	// The unwrapped sequence number of each snapshot, or -1 if there isn't one
+	private final long[] sequences = new long[SIZE];
+
+	// The sequence number of the newest snapshot, both as received and unwrapped, or -1
+	private int newestSequence = -1;
+	private long newestUnwrapped = -1;
+
+	// The smallest time a snapshot has taken to arrive, which includes the difference between our
+	// clock and the server's, and the time the last one took
+	private long baseTransit, lastTransit;
+	// The measured jitter, in nanoseconds
+	private double jitter = 0;
+	// How far behind the server things are shown, on top of the smallest transit time
+	private long playoutDelay = SNAPSHOT_NANOS;
+
+	// The number of samples taken while carrying on without a snapshot, and while stopped waiting
+	// for one
+	private volatile long extrapolations = 0, stalls = 0;
+
+	/**
+	 * Creates an empty buffer.
+	 */
+	public JitterBuffer(){
+		for(int index = 0; index < SIZE; index++) snapshots[index] = new Snapshot();
+		reset();
+	}
+
+	/**
+	 * Adds a copy of a snapshot that has just arrived. Snapshots must be added in order.
+	 * @param snapshot The snapshot
+	 * @param arrivalTime When the snapshot arrived, from System.nanoTime
+	 */
+	public synchronized void add(Snapshot snapshot, long arrivalTime){
+		// Work out how many snapshots the server has sent, as if the sequence numbers didn't wrap
+		long unwrapped = (newestUnwrapped < 0) ? snapshot.sequence
+				: newestUnwrapped + Snapshot.getSequenceDifference(snapshot.sequence, newestSequence);
+		if(newestUnwrapped >= 0 && unwrapped <= newestUnwrapped) return;
+
+		int index = (int)(unwrapped & (SIZE - 1));
+		snapshots[index].copyFrom(snapshot);
+		sequences[index] = unwrapped;
+
+		// The time taken to arrive, in terms of the server's clock. Only the changes in this matter
+		long transit = arrivalTime - (unwrapped * SNAPSHOT_NANOS);
+		if(newestUnwrapped < 0){
+			baseTransit = transit;
+		}
+		else{
+			// Measure the jitter the same way RTP does, from the change in each snapshot's transit time
+			jitter += (Math.abs(transit - lastTransit) - jitter) / 16;
+
+			// Follow the quickest snapshots, but drift towards slower ones in case the clocks drift
+			if(transit < baseTransit) baseTransit = transit;
+			else baseTransit += (transit - baseTransit) / 256;
+		}
+		lastTransit = transit;
+		newestSequence = snapshot.sequence;
+		newestUnwrapped = unwrapped;
+
+		// Move the playout delay gradually towards what the jitter calls for
+		long targetDelay = Math.min(SNAPSHOT_NANOS + (long)(JITTER_MULTIPLIER * jitter), MAX_PLAYOUT_DELAY);
+		playoutDelay += (targetDelay - playoutDelay) / 8;
+	}
+
+	/**
+	 * Works out what should be shown now, moving between the snapshots either side of the playout
+	 * time. Only the positions and scores are set.
+	 * @param now The current time, from System.nanoTime
+	 * @param out The snapshot to fill in
+	 * @return Returns false if there's nothing to show yet
+	 */
+	public synchronized boolean sample(long now, Snapshot out){
+		if(newestUnwrapped < 0) return false;
+		long playoutTime = now - baseTransit - playoutDelay;
+
+		// Find the newest snapshot at or before the playout time, and the one after it
+		int before = -1, after = -1;
+		for(long unwrapped = newestUnwrapped; unwrapped > newestUnwrapped - SIZE && unwrapped >= 0; unwrapped--){
+			int index = (int)(unwrapped & (SIZE - 1));
+			if(sequences[index] != unwrapped) continue;
+			if(unwrapped * SNAPSHOT_NANOS <= playoutTime){
+				before = index;
+				break;
+			}
+			after = index;
+		}
+
+		// If every snapshot is after the playout time, then show the oldest
+		if(before < 0){
+			copyState(snapshots[after], out);
+			return true;
+		}
+
+		// Move between the snapshots either side of the playout time
+		if(after >= 0){
+			interpolate(before, after, playoutTime, out);
+			return true;
+		}
+
+		// Otherwise the next snapshot is late, so carry on from the two newest for a short while
+		int previous = -1;
+		for(long unwrapped = sequences[before] - 1; unwrapped > sequences[before] - SIZE && unwrapped >= 0; unwrapped--){
+			int index = (int)(unwrapped & (SIZE - 1));
+			if(sequences[index] == unwrapped){
+				previous = index;
+				break;
+			}
+		}
+		long lateness = playoutTime - sequences[before] * SNAPSHOT_NANOS;
+		if(previous < 0 || lateness > MAX_EXTRAPOLATION){
+			if(lateness > MAX_EXTRAPOLATION) stalls++;
+			copyState(snapshots[before], out);
+			return true;
+		}
+		extrapolations++;
+		interpolate(previous, before, playoutTime, out);
+		return true;
+	}
+
+	/**
+	 * Works out the state at a given time from two snapshots, which is past the second if the time
+	 * is after it.
+	 * @param from The index of the earlier snapshot
+	 * @param to The index of the later snapshot
+	 * @param time The time to work out the state for
+	 * @param out The snapshot to fill in
+	 */
+	private void interpolate(int from, int to, long time, Snapshot out){
+		Snapshot fromSnapshot = snapshots[from], toSnapshot = snapshots[to];
+		copyState(fromSnapshot, out);
+
+		// If a point was scored, then the ball jumped back to the middle, so don't move it across
+		// the court in between
+		if(fromSnapshot.get(Snapshot.SCORE_ONE) != toSnapshot.get(Snapshot.SCORE_ONE)
+				|| fromSnapshot.get(Snapshot.SCORE_TWO) != toSnapshot.get(Snapshot.SCORE_TWO)){
+			return;
+		}
+
+		long fromTime = sequences[from] * SNAPSHOT_NANOS;
+		double fraction = (double)(time - fromTime) / ((sequences[to] - sequences[from]) * SNAPSHOT_NANOS);
+		interpolateField(fromSnapshot, toSnapshot, Snapshot.BALL_X, fraction, out);
+		interpolateField(fromSnapshot, toSnapshot, Snapshot.BALL_Y, fraction, out);
+		interpolateField(fromSnapshot, toSnapshot, Snapshot.PADDLE_TWO_Y, fraction, out);
+		if(fraction >= 0.5) out.set(Snapshot.PADDLE_TWO_DIRECTION, toSnapshot.get(Snapshot.PADDLE_TWO_DIRECTION));
+	}
+
+	/**
+	 * Sets a field part of the way between its values in two snapshots.
+	 * @param from The earlier snapshot
+	 * @param to The later snapshot
+	 * @param field The field's index
+	 * @param fraction How far between the snapshots to go, past 1 if after the later one
+	 * @param out The snapshot to fill in
+	 */
+	private static void interpolateField(Snapshot from, Snapshot to, int field, double fraction, Snapshot out){
+		int fromValue = from.get(field);
+		out.set(field, (int)Math.round(fromValue + (to.get(field) - fromValue) * fraction));
+	}
+
+	/**
+	 * Copies the positions and scores from one snapshot to another.
+	 * @param from The snapshot to copy from
+	 * @param out The snapshot to copy to
+	 */
+	private static void copyState(Snapshot from, Snapshot out){
+		out.set(Snapshot.BALL_X, from.get(Snapshot.BALL_X));
+		out.set(Snapshot.BALL_Y, from.get(Snapshot.BALL_Y));
+		out.set(Snapshot.PADDLE_TWO_Y, from.get(Snapshot.PADDLE_TWO_Y));
+		out.set(Snapshot.PADDLE_TWO_DIRECTION, from.get(Snapshot.PADDLE_TWO_DIRECTION));
+		out.set(Snapshot.SCORE_ONE, from.get(Snapshot.SCORE_ONE));
+		out.set(Snapshot.SCORE_TWO, from.get(Snapshot.SCORE_TWO));
+	}
+
+	/**
+	 * Used to get how far behind the server things are being shown, not counting the time taken
+	 * for the quickest snapshots to arrive.
+	 * @return The playout delay in microseconds
+	 */
+	public synchronized long getPlayoutDelayMicros(){
+		return TimeUnit.NANOSECONDS.toMicros(playoutDelay);
+	}
+
+	/**
+	 * Used to get the measured jitter.
+	 * @return The jitter in microseconds
+	 */
+	public synchronized long getJitterMicros(){
+		return TimeUnit.NANOSECONDS.toMicros((long)jitter);
+	}
+
+	/**
+	 * Used to get the number of samples taken while things carried on moving because a snapshot
+	 * was late.
+	 * @return The number of extrapolated samples
+	 */
+	public long getExtrapolations(){
+		return extrapolations;
+	}
+
+	/**
+	 * Used to get the number of samples taken while things were stopped, waiting for a snapshot
+	 * that was too late.
+	 * @return The number of stalled samples
+	 */
+	public long getStalls(){
+		return stalls;
+	}
+
+	/**
+	 * Forgets every snapshot, ready for a new connection.
+	 */
+	public synchronized void reset(){
+		for(int index = 0; index < SIZE; index++) sequences[index] = -1;
+		newestSequence = -1;
+		newestUnwrapped = -1;
+		jitter = 0;
+		playoutDelay = SNAPSHOT_NANOS;
+		extrapolations = 0;
+		stalls = 0;
+	}
+
+}
@@ -0,0 +1,73 @@
+package hsenfow.pongh.Network.Protocol;
+
+/**
+ * The different types of message, and the byte used to identify each one in a frame.
+ */
+public enum MessageType{
+	// A type this version doesn't know about
+	UNKNOWN(0),
+	// Sent by each side when connecting, to agree on the session ID
+	// Payload: protocol version (u16), netcode mode chosen by the server (u8)
+	HELLO(1),
+	// The inputs the server hasn't applied yet, oldest first. The input ID is -1 unless a key was just pressed (client-side only)
+	// Payload: sequence of the newest input (u16), count (u8), input ID (i32), directions (2 bits each, packed)
+	PLAYER_INPUT(2),
+	// An input or snapshot with an input ID has been applied
+	// Payload: input ID (i32)
+	INPUT_ACK(3),
+	// Everything the client needs to show, as changes from a snapshot it has acknowledged (server-side only)
+	// Payload: sequence (u16), how many snapshots back the base is or 0 for none (u8), packed fields
+	SNAPSHOT(4),
+	// The player has quit the game (via the menu)
+	// Payload: none
+	DISCONNECT(5),
+	// A player message has been sent
+	// Payload: length (u8), ASCII characters
+	PLAYER_MESSAGE(6),
+	// The newest snapshot the client has received (client-side only)
+	// Payload: sequence (u16)
+	SNAPSHOT_ACK(7),
+	// The player's inputs the other player hasn't received yet, oldest first, in rollback mode. Each input is for one frame
+	// Payload: frame of the newest input (u16), newest frame received from the other player (u16), frame advantage (i8),
+	// count (u8), input ID (i32), directions (2 bits each, packed)
+	ROLLBACK_INPUT(8),
+	// Sent regularly over TCP to measure the round trip time and check the other side is still there
+	// Payload: sequence (u16), send time in the sender's clock (i64)
+	PING(9),
+	// The reply to a ping, sent as soon as it's been handled
+	// Payload: sequence of the ping (u16), send time from the ping (i64), time the ping was held before replying in microseconds (u32)
+	PONG(10);
+	
+	// The byte identifying this type in a frame
+	public final int id;
+	
+	/**
+	 * Used to check whether messages of this type carry game state, which is sent as often as
+	 * possible and may arrive late, twice or not at all (e.g. over UDP).
+	 * @return Returns true if this type carries game state
+	 */
+	public boolean isState(){
+		return this == PLAYER_INPUT || this == SNAPSHOT || this == SNAPSHOT_ACK || this == ROLLBACK_INPUT;
+	}
+	
+	// Every type, indexed by its ID
+	private static final MessageType[] TYPES_BY_ID;
+	static{
+		MessageType[] types = values();
+		TYPES_BY_ID = new MessageType[types.length];
+		for(MessageType type : types) TYPES_BY_ID[type.id] = type;
+	}
+	
+	MessageType(int id){
+		this.id = id;
+	}
+	
+	/**
+	 * Used to get the type with the given ID.
+	 * @param id The type's ID
+	 * @return The type, or UNKNOWN if there isn't one with the ID
+	 */
+	public static MessageType fromId(int id){
+		return (id > 0 && id < TYPES_BY_ID.length) ? TYPES_BY_ID[id] : UNKNOWN;
+	}
+}
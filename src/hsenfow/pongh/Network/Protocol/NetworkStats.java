@@ -0,0 +1,294 @@
+package hsenfow.pongh.Network.Protocol;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures a connection: the round trip time and its jitter from pings, how many messages and
+ * bytes are sent and received each second, and how many pongs are lost or arrive out of order.
+ * Pings are sent over TCP every PING_INTERVAL, so if nothing arrives over TCP for PEER_TIMEOUT
+ * then the other side has gone, even if the connection hasn't been closed. Only TCP counts for
+ * this, as UDP can stop getting through while TCP still works. Instead, if nothing arrives over
+ * UDP for DATAGRAM_TIMEOUT while TCP is still getting through, then UDP has stopped working.
+ *
+ * Received messages are counted by whichever thread receives them. Everything else should be
+ * done by one thread (the game loop), and everything can be read by any thread.
+ */
+public class NetworkStats {
+
+	// The time between each ping
+	public static final long PING_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+	// The longest to go without receiving anything before the other side is counted as gone
+	public static final long PEER_TIMEOUT = TimeUnit.MILLISECONDS.toNanos(750);
+	// The longest to go without receiving anything over UDP, while TCP still works, before UDP is
+	// counted as blocked. Positions are sent over UDP far more often than this
+	public static final long DATAGRAM_TIMEOUT = PING_INTERVAL * 5;
+	// The shortest time the message and byte rates are measured over
+	private static final long RATE_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+	// The number of messages and bytes received
+	private final AtomicLong messagesReceived = new AtomicLong(), bytesReceived = new AtomicLong();
+	// When the latest message was received over TCP, or when the connection was set up if nothing
+	// has been received since, or 0 if there isn't a connection
+	private volatile long lastReceiveTime = 0;
+	// When the latest message was received over UDP, or 0 if nothing has been
+	private volatile long lastDatagramTime = 0;
+
+	// The sequence number of the next ping, and when the latest one was sent
+	private int nextPingSequence = 0;
+	private long lastPingTime = 0;
+	// The sequence number of the newest pong received, or -1
+	private int newestPongSequence = -1;
+
+	// The smoothed round trip time, or -1 if there hasn't been a pong yet, and the latest one
+	// measured, both in nanoseconds
+	private volatile double roundTripTime = -1;
+	private long lastRoundTripTime;
+	// The measured jitter of the round trip time, in nanoseconds
+	private volatile double jitter = 0;
+	// The number of pings that never got a pong, and the number of pongs that arrived after newer ones
+	private volatile long lostPongs = 0, outOfOrderPongs = 0;
+
+	// When the rates were last measured, and the counts at that time
+	private long rateTime = 0;
+	private long rateMessagesSent, rateBytesSent, rateMessagesReceived, rateBytesReceived;
+	// The latest messages and bytes sent and received per second
+	private volatile double messagesSentRate = 0, bytesSentRate = 0, messagesReceivedRate = 0, bytesReceivedRate = 0;
+
+	/**
+	 * Counts a message that has just been received. Can be called by any thread.
+	 * @param length The size of the message in bytes
+	 * @param now The current time, from System.nanoTime()
+	 * @param datagram Whether the message was received over UDP
+	 */
+	public void messageReceived(int length, long now, boolean datagram){
+		messagesReceived.incrementAndGet();
+		bytesReceived.addAndGet(length);
+		if(datagram) lastDatagramTime = now;
+		else lastReceiveTime = now;
+	}
+
+	/**
+	 * Used to check whether the other side has gone quiet over TCP for longer than PEER_TIMEOUT,
+	 * counting from when the connection was set up if nothing has been received since.
+	 * @param now The current time, from System.nanoTime()
+	 * @return Returns true if the other side seems to have gone
+	 */
+	public boolean isPeerSilent(long now){
+		long lastReceive = lastReceiveTime;
+		return lastReceive != 0 && now - lastReceive > PEER_TIMEOUT;
+	}
+
+	/**
+	 * Used to check whether UDP has stopped getting through: nothing has been received over it
+	 * for DATAGRAM_TIMEOUT, while something has been received over TCP in that time. Should only
+	 * be used while UDP is expected to be working.
+	 * @param now The current time, from System.nanoTime()
+	 * @return Returns true if UDP seems to have stopped working
+	 */
+	public boolean isDatagramSilent(long now){
+		long lastDatagram = lastDatagramTime;
+		return lastDatagram != 0 && now - lastDatagram > DATAGRAM_TIMEOUT && now - lastReceiveTime <= DATAGRAM_TIMEOUT;
+	}
+
+	/**
+	 * Sends a ping if it's been PING_INTERVAL since the last one.
+	 * @param writer The writer to send the ping with
+	 * @param now The current time, from System.nanoTime()
+	 * @return Returns true if a ping was sent
+	 */
+	public boolean sendPing(FrameWriter writer, long now) throws IOException{
+		if(lastPingTime != 0 && now - lastPingTime < PING_INTERVAL) return false;
+		lastPingTime = now;
+		writer.writePing(nextPingSequence, now);
+		nextPingSequence = (nextPingSequence + 1) & 0xFFFF;
+		return true;
+	}
+
+	/**
+	 * Measures the round trip time from the reader's latest pong frame.
+	 * @param frame The reader holding the pong frame
+	 * @param arrivalTime When the pong arrived, from System.nanoTime()
+	 */
+	public void pongReceived(FrameReader frame, long arrivalTime){
+		int sequence = frame.getSequence();
+		if(newestPongSequence >= 0){
+			int gap = Snapshot.getSequenceDifference(sequence, newestPongSequence);
+			if(gap == 0) return;
+			if(gap < 0){
+				// A pong that was counted as lost has turned up late
+				outOfOrderPongs++;
+				if(lostPongs > 0) lostPongs--;
+			}
+			else{
+				lostPongs += gap - 1;
+				newestPongSequence = sequence;
+			}
+		}
+		else{
+			newestPongSequence = sequence;
+		}
+
+		// The time the other side held the ping isn't part of the trip
+		long sample = arrivalTime - frame.getTimestamp() - TimeUnit.MICROSECONDS.toNanos(frame.getHoldMicros());
+		if(sample < 0) return;
+		if(roundTripTime < 0){
+			roundTripTime = sample;
+		}
+		else{
+			// Smooth the round trip time the same way TCP does, and measure the jitter the same
+			// way RTP does, from the change in each sample
+			roundTripTime += (sample - roundTripTime) / 8;
+			jitter += (Math.abs(sample - lastRoundTripTime) - jitter) / 16;
+		}
+		lastRoundTripTime = sample;
+	}
+
+	/**
+	 * Works out the message and byte rates, if it's been RATE_INTERVAL since they were last worked
+	 * out. Should be called regularly, e.g. every tick.
+	 * @param messagesSent The total number of messages sent
+	 * @param bytesSent The total number of bytes sent
+	 * @param now The current time, from System.nanoTime()
+	 */
+	public void updateRates(long messagesSent, long bytesSent, long now){
+		long received = messagesReceived.get(), receivedBytes = bytesReceived.get();
+		if(rateTime != 0){
+			long elapsed = now - rateTime;
+			if(elapsed < RATE_INTERVAL) return;
+
+			double seconds = (double)elapsed / TimeUnit.SECONDS.toNanos(1);
+			messagesSentRate = (messagesSent - rateMessagesSent) / seconds;
+			bytesSentRate = (bytesSent - rateBytesSent) / seconds;
+			messagesReceivedRate = (received - rateMessagesReceived) / seconds;
+			bytesReceivedRate = (receivedBytes - rateBytesReceived) / seconds;
+		}
+		rateTime = now;
+		rateMessagesSent = messagesSent;
+		rateBytesSent = bytesSent;
+		rateMessagesReceived = received;
+		rateBytesReceived = receivedBytes;
+	}
+
+	/**
+	 * Used to get the smoothed round trip time.
+	 * @return The round trip time in microseconds, or -1 if it hasn't been measured yet
+	 */
+	public long getRoundTripMicros(){
+		double rtt = roundTripTime;
+		return (rtt < 0) ? -1 : TimeUnit.NANOSECONDS.toMicros((long)rtt);
+	}
+
+	/**
+	 * Used to get the measured jitter of the round trip time.
+	 * @return The jitter in microseconds
+	 */
+	public long getJitterMicros(){
+		return TimeUnit.NANOSECONDS.toMicros((long)jitter);
+	}
+
+	/**
+	 * Used to get the number of pings that never got a pong, either because the ping or the pong
+	 * was lost.
+	 * @return The number of lost pongs
+	 */
+	public long getLostPongs(){
+		return lostPongs;
+	}
+
+	/**
+	 * Used to get the number of pongs that arrived after newer ones.
+	 * @return The number of out of order pongs
+	 */
+	public long getOutOfOrderPongs(){
+		return outOfOrderPongs;
+	}
+
+	/**
+	 * Used to get the number of messages sent per second.
+	 * @return The message send rate
+	 */
+	public double getMessagesSentPerSecond(){
+		return messagesSentRate;
+	}
+
+	/**
+	 * Used to get the number of bytes sent per second.
+	 * @return The byte send rate
+	 */
+	public double getBytesSentPerSecond(){
+		return bytesSentRate;
+	}
+
+	/**
+	 * Used to get the number of messages received per second.
+	 * @return The message receive rate
+	 */
+	public double getMessagesReceivedPerSecond(){
+		return messagesReceivedRate;
+	}
+
+	/**
+	 * Used to get the number of bytes received per second.
+	 * @return The byte receive rate
+	 */
+	public double getBytesReceivedPerSecond(){
+		return bytesReceivedRate;
+	}
+
+	/**
+	 * Used to get the total number of messages received.
+	 * @return The number of messages
+	 */
+	public long getMessagesReceived(){
+		return messagesReceived.get();
+	}
+
+	/**
+	 * Used to get the total number of bytes received.
+	 * @return The number of bytes
+	 */
+	public long getBytesReceived(){
+		return bytesReceived.get();
+	}
+
+	/**
+	 * Used to get a one line summary of each measurement, for showing in game.
+	 * @return The summaries
+	 */
+	public String[] getSummaries(){
+		return new String[]{
+				String.format("Network: RTT %.1fms  jitter %.1fms  lost %d  out of order %d", getRoundTripMicros() / 1000.0,
+						getJitterMicros() / 1000.0, lostPongs, outOfOrderPongs),
+				String.format("Sent %.0f msg/s %.1fKB/s  Received %.0f msg/s %.1fKB/s", messagesSentRate, bytesSentRate / 1024,
+						messagesReceivedRate, bytesReceivedRate / 1024)
+		};
+	}
+
+	/**
+	 * Forgets every measurement, ready for a new connection. Must only be called while nothing is
+	 * being received.
+	 * @param now When the connection was set up, from System.nanoTime(). The hello has just been
+	 * received, so the other side has to be heard from again within PEER_TIMEOUT
+	 */
+	public void reset(long now){
+		messagesReceived.set(0);
+		bytesReceived.set(0);
+		lastReceiveTime = now;
+		lastDatagramTime = 0;
+		nextPingSequence = 0;
+		lastPingTime = 0;
+		newestPongSequence = -1;
+		roundTripTime = -1;
+		jitter = 0;
+		lostPongs = 0;
+		outOfOrderPongs = 0;
+		rateTime = 0;
+		messagesSentRate = 0;
+		bytesSentRate = 0;
+		messagesReceivedRate = 0;
+		bytesReceivedRate = 0;
+	}
+
+}
@@ -0,0 +1,130 @@
+package hsenfow.pongh.Network.Protocol;
+
+import java.io.IOException;
+
+import hsenfow.pongh.Entities.Paddle;
+import hsenfow.pongh.Entities.Paddle.Direction;
+import hsenfow.pongh.Simulation.Court;
+
+/**
+ * The player's inputs on the client, which move their paddle straight away rather than waiting for
+ * the server. Every input is numbered and kept until the server says it has applied it, and each
+ * time a snapshot arrives the paddle is moved to where the server has it and the inputs the server
+ * hasn't applied yet are replayed on top. The client and server move paddles the same way, so
+ * normally this puts the paddle right back where it was.
+ */
+public class PredictedInputs {
+
+	// The most inputs that can be waiting for the server. Must be a power of two
+	public static final int SIZE = Frames.MAX_INPUTS;
+
+	// The inputs, indexed by the low bits of their sequence numbers
+	private final Direction[] inputs = new Direction[SIZE];
+	// The inputs waiting for the server, oldest first, ready to be sent
+	private final Direction[] unacked = new Direction[SIZE];
+
+	// The sequence number of the newest input, and of the newest one the server has applied.
+	// Both wrap around at 16 bits
+	private int newestSequence = 0xFFFF;
+	private int ackedSequence = 0xFFFF;
+
+	// The number of times the server's position for the paddle didn't match what was predicted
+	private volatile long corrections = 0;
+
+	/**
+	 * Moves the paddle for a new input, and remembers the input so it can be sent to the server.
+	 * Should be called once per tick.
+	 * @param court The court the paddle is on
+	 * @param paddle The player's paddle
+	 * @param direction The direction the player wants to move in, or NONE
+	 */
+	public synchronized void apply(Court court, Paddle paddle, Direction direction){
+		newestSequence = (newestSequence + 1) & 0xFFFF;
+		inputs[newestSequence & (SIZE - 1)] = direction;
+		court.updatePaddle(paddle, direction);
+	}
+
+	/**
+	 * Used to get the number of inputs the server hasn't applied yet. If the server has fallen
+	 * more than SIZE behind, then only the newest SIZE are counted.
+	 * @return The number of inputs
+	 */
+	private int getUnackedCount(){
+		return Math.min(Snapshot.getSequenceDifference(newestSequence, ackedSequence) & 0xFFFF, SIZE);
+	}
+
+	/**
+	 * Used to check whether any of the inputs the server hasn't applied yet move the paddle.
+	 * @return Returns true if the server is yet to apply a movement
+	 */
+	public synchronized boolean hasUnackedMovement(){
+		int count = getUnackedCount();
+		for(int age = 0; age < count; age++){
+			if(inputs[(newestSequence - age) & (SIZE - 1)] != Direction.NONE) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Sends every input the server hasn't applied yet, so that any lost on the way are sent again.
+	 * Does nothing if there aren't any.
+	 * @param writer The writer to send them with
+	 * @param inputId The ID of the key press that caused the newest input, or -1
+	 */
+	public synchronized void send(FrameWriter writer, int inputId) throws IOException{
+		int count = getUnackedCount();
+		if(count == 0) return;
+
+		for(int index = 0; index < count; index++){
+			unacked[index] = inputs[(newestSequence - (count - 1) + index) & (SIZE - 1)];
+		}
+		writer.writeInputs(newestSequence, unacked, count, inputId);
+	}
+
+	/**
+	 * Moves the paddle to where the server has it, then replays the inputs the server hasn't
+	 * applied yet.
+	 * @param court The court the paddle is on
+	 * @param paddle The player's paddle
+	 * @param serverY The paddle's Y coordinate on the server
+	 * @param serverSequence The sequence number of the newest input the server has applied
+	 */
+	public synchronized void reconcile(Court court, Paddle paddle, int serverY, int serverSequence){
+		// Ignore the server if it's behind what it's already told us, or ahead of what we've sent
+		if(Snapshot.getSequenceDifference(serverSequence, ackedSequence) < 0
+				|| Snapshot.getSequenceDifference(serverSequence, newestSequence) > 0){
+			return;
+		}
+		ackedSequence = serverSequence;
+
+		int predictedY = paddle.getY();
+		Direction direction = paddle.currentDirection;
+		paddle.setPosition(serverY, direction);
+		int count = getUnackedCount();
+		for(int age = count - 1; age >= 0; age--){
+			court.updatePaddle(paddle, inputs[(newestSequence - age) & (SIZE - 1)]);
+		}
+		if(count == 0) paddle.currentDirection = direction;
+
+		if(paddle.getY() != predictedY) corrections++;
+	}
+
+	/**
+	 * Used to get the number of times the paddle had to be corrected because the server didn't
+	 * agree with what was predicted.
+	 * @return The number of corrections
+	 */
+	public long getCorrections(){
+		return corrections;
+	}
+
+	/**
+	 * Forgets every input, ready for a new connection.
+	 */
+	public synchronized void reset(){
+		newestSequence = 0xFFFF;
+		ackedSequence = 0xFFFF;
+		corrections = 0;
+	}
+
+}
@@ -0,0 +1,93 @@
+package hsenfow.pongh.Network.Protocol;
+
+import hsenfow.pongh.Entities.Paddle;
+import hsenfow.pongh.Entities.Paddle.Direction;
+import hsenfow.pongh.Simulation.Court;
+
+/**
+ * The inputs received from one client on the server, waiting to be applied to the client's paddle
+ * on the next tick. Clients send every input the server hasn't applied yet, so inputs are received
+ * more than once and out of order. Any input that never arrives is treated as NONE. The sequence
+ * number of the newest input applied is sent back in each snapshot.
+ */
+public class ReceivedInputs {
+
+	// The most inputs that can be waiting to be applied. Must be a power of two
+	public static final int SIZE = Frames.MAX_INPUTS;
+
+	// The inputs, indexed by the low bits of their sequence numbers
+	private final Direction[] inputs = new Direction[SIZE];
+
+	// The sequence number of the newest input received, and of the newest one applied. Both wrap
+	// around at 16 bits
+	private int newestSequence = 0xFFFF;
+	private int appliedSequence = 0xFFFF;
+
+	// The ID of the key press that caused one of the inputs waiting to be applied, or -1, and that
+	// input's sequence number
+	private int inputId = -1;
+	private int inputIdSequence;
+
+	/**
+	 * Stores the inputs in the reader's latest input frame.
+	 * @param frame The reader holding the input frame
+	 */
+	public synchronized void received(FrameReader frame){
+		int sequence = frame.getSequence();
+		int count = frame.getInputCount();
+		if(Snapshot.getSequenceDifference(sequence, newestSequence) <= 0) return;
+
+		// If so many inputs are waiting that the oldest would be overwritten, then drop them
+		if(Snapshot.getSequenceDifference(sequence, appliedSequence) > SIZE) appliedSequence = (sequence - SIZE) & 0xFFFF;
+
+		// Store every input newer than the ones we already had
+		int newInputs = Math.min(Snapshot.getSequenceDifference(sequence, newestSequence), SIZE);
+		for(int age = newInputs - 1; age >= 0; age--){
+			inputs[(sequence - age) & (SIZE - 1)] = (age < count) ? frame.getInput(count - 1 - age) : Direction.NONE;
+		}
+		newestSequence = sequence;
+
+		if(frame.getInputId() >= 0){
+			inputId = frame.getInputId();
+			inputIdSequence = sequence;
+		}
+	}
+
+	/**
+	 * Moves the client's paddle for every input received since the last tick.
+	 * @param court The court the paddle is on
+	 * @param paddle The client's paddle
+	 * @return The ID of the key press that caused one of the inputs applied, or -1
+	 */
+	public synchronized int apply(Court court, Paddle paddle){
+		int appliedInputId = -1;
+		while(appliedSequence != newestSequence){
+			appliedSequence = (appliedSequence + 1) & 0xFFFF;
+			court.updatePaddle(paddle, inputs[appliedSequence & (SIZE - 1)]);
+
+			if(inputId >= 0 && appliedSequence == inputIdSequence){
+				appliedInputId = inputId;
+				inputId = -1;
+			}
+		}
+		return appliedInputId;
+	}
+
+	/**
+	 * Used to get the sequence number of the newest input applied.
+	 * @return The sequence number
+	 */
+	public synchronized int getAppliedSequence(){
+		return appliedSequence;
+	}
+
+	/**
+	 * Forgets every input, ready for a new connection.
+	 */
+	public synchronized void reset(){
+		newestSequence = 0xFFFF;
+		appliedSequence = 0xFFFF;
+		inputId = -1;
+	}
+
+}
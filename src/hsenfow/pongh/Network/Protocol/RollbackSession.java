@@ -0,0 +1,298 @@
+package hsenfow.pongh.Network.Protocol;
+
+import java.io.IOException;
+
+import hsenfow.pongh.Entities.Paddle.Direction;
+import hsenfow.pongh.Simulation.Court;
+import hsenfow.pongh.Simulation.CourtState;
+
+/**
+ * Runs a two player court on both players' computers at once, with neither one in charge. Each
+ * player's inputs are applied straight away and sent to the other player, one per frame. Until
+ * the other player's input for a frame arrives, they're assumed to still be doing whatever they
+ * were last known to be doing. The court's state is saved before every frame, so when an input
+ * arrives that doesn't match what was assumed, the court is put back to how it was before that
+ * frame and every frame since is played again, all within a single tick.
+ *
+ * To stop either player getting too far ahead of what they know about the other, a frame isn't
+ * played if it would mean assuming more than MAX_PREDICTION_FRAMES of the other player's inputs.
+ * Each player also says how far ahead they are, and whichever is further ahead waits a frame
+ * every so often, so that neither ends up doing all the rolling back.
+ *
+ * Frames are counted from 0 and sent as 16 bits, which wrap around. Both courts must be created
+ * the same way (the same size and seed) for them to play out the same. Only the game loop should
+ * use a session, including passing it the frames received.
+ */
+public class RollbackSession {
+
+	// The number of frames of inputs and states kept. Must be a power of two, and more than
+	// MAX_INPUTS, as our inputs are kept until the other player has received them
+	private static final int SIZE = 128;
+
+	// The most frames the other player's inputs can be assumed for
+	public static final int MAX_PREDICTION_FRAMES = 12;
+	// The number of frames between each check of whether we're ahead of the other player
+	private static final int TIME_SYNC_INTERVAL_FRAMES = 60;
+	// The most frames to wait at once to let the other player catch up
+	private static final int MAX_TIME_SYNC_WAIT = 4;
+
+	// The court being played on
+	private final Court court;
+	// Which player we are, and which player the other one is
+	private final int localPlayer, remotePlayer;
+
+	// The state of the court before each frame, indexed by the low bits of the frame
+	private final CourtState[] states = new CourtState[SIZE];
+	// Each player's input for each frame, indexed by the player then the low bits of the frame.
+	// For the other player, frames after remoteFrame hold what was assumed
+	private final Direction[][] inputs = new Direction[2][SIZE];
+	// The inputs being sent, oldest first
+	private final Direction[] sendInputs = new Direction[Frames.MAX_INPUTS];
+
+	// The next frame to be played, which is also the number played so far
+	private int frame = 0;
+	// The newest frame the other player's input has arrived for (along with every one before it)
+	private int remoteFrame = -1;
+	// The newest frame the other player has received our input for
+	private int ackedFrame = -1;
+	// The earliest frame played with an assumed input that turned out to be wrong, or -1
+	private int firstIncorrectFrame = -1;
+
+	// How many frames ahead of our inputs the other player last said they were
+	private int remoteAdvantage = 0;
+	// The frame to next check whether we're ahead of the other player, and the number of frames
+	// left to wait for them
+	private int nextTimeSyncFrame = TIME_SYNC_INTERVAL_FRAMES;
+	private int timeSyncWait = 0;
+
+	// Each player's score as of the newest frame both players' inputs are known for
+	private final int[] confirmedScores = new int[2];
+
+	// The number of times the court has been rolled back, the number of frames played again, the
+	// most frames played again at once, the number of ticks skipped waiting for the other
+	// player's inputs, and the number skipped to let the other player catch up
+	private volatile long rollbacks = 0, resimulatedFrames = 0, maxRollback = 0, stalls = 0, timeSyncWaits = 0;
+
+	/**
+	 * Creates a session for a court that hasn't been played on yet.
+	 * @param court The court, which must be created the same way by both players
+	 * @param localPlayer The player we are (PLAYER_ONE or PLAYER_TWO)
+	 */
+	public RollbackSession(Court court, int localPlayer){
+		this.court = court;
+		this.localPlayer = localPlayer;
+		this.remotePlayer = 1 - localPlayer;
+		for(int index = 0; index < SIZE; index++) states[index] = new CourtState();
+	}
+
+	/**
+	 * Plays the next frame with the given input for our paddle, first playing again any frames
+	 * that were played with the wrong inputs. Should be called once per tick.
+	 * @param localInput The direction we want to move our paddle in
+	 * @return Returns false if the frame wasn't played, so the input wasn't used, because we're
+	 * too far ahead of the other player
+	 */
+	public boolean advance(Direction localInput){
+		rollBack();
+
+		// Wait for the other player if we'd have to guess too much of what they're doing, or
+		// they haven't received enough of our inputs
+		if(frame - remoteFrame > MAX_PREDICTION_FRAMES || frame - ackedFrame > Frames.MAX_INPUTS){
+			stalls++;
+			return false;
+		}
+
+		// Every so often, give the other player a chance to catch up if we're ahead of them
+		if(frame >= nextTimeSyncFrame){
+			nextTimeSyncFrame = frame + TIME_SYNC_INTERVAL_FRAMES;
+			int advantage = frame - remoteFrame;
+			timeSyncWait = Math.min((advantage - remoteAdvantage) / 2, MAX_TIME_SYNC_WAIT);
+		}
+		if(timeSyncWait > 0){
+			timeSyncWait--;
+			timeSyncWaits++;
+			return false;
+		}
+
+		inputs[localPlayer][frame & (SIZE - 1)] = localInput;
+		simulate();
+		updateConfirmedScores();
+		return true;
+	}
+
+	/**
+	 * Puts the court back to how it was before the first frame played with the wrong input from
+	 * the other player, then plays every frame since again. The court's listener isn't told
+	 * about anything that happens in the frames played again, as it was told the first time.
+	 */
+	private void rollBack(){
+		if(firstIncorrectFrame < 0) return;
+
+		int lastFrame = frame;
+		int rolledBack = lastFrame - firstIncorrectFrame;
+		frame = firstIncorrectFrame;
+		firstIncorrectFrame = -1;
+		court.restoreState(states[frame & (SIZE - 1)]);
+
+		Court.CourtListener listener = court.getListener();
+		court.setListener(null);
+		try{
+			while(frame < lastFrame) simulate();
+		} finally{
+			court.setListener(listener);
+		}
+
+		rollbacks++;
+		resimulatedFrames += rolledBack;
+		maxRollback = Math.max(maxRollback, rolledBack);
+	}
+
+	/**
+	 * Saves the court's state, then plays the next frame. If the other player's input for the
+	 * frame hasn't arrived, then they're assumed to be doing the same as in their newest input.
+	 */
+	private void simulate(){
+		int index = frame & (SIZE - 1);
+		if(frame > remoteFrame){
+			inputs[remotePlayer][index] = (remoteFrame < 0) ? Direction.NONE : inputs[remotePlayer][remoteFrame & (SIZE - 1)];
+		}
+
+		court.saveState(states[index]);
+		court.tick(inputs[Court.PLAYER_ONE][index], inputs[Court.PLAYER_TWO][index]);
+		frame++;
+	}
+
+	/**
+	 * Updates the scores as of the newest frame both players' inputs are known for.
+	 */
+	private void updateConfirmedScores(){
+		int confirmedFrame = Math.min(remoteFrame, frame - 1);
+		if(confirmedFrame < 0) return;
+
+		// The state after a frame is the one saved before the next frame, unless the next frame
+		// hasn't been played yet
+		for(int player = Court.PLAYER_ONE; player <= Court.PLAYER_TWO; player++){
+			confirmedScores[player] = (confirmedFrame == frame - 1) ? court.getScore(player)
+					: states[(confirmedFrame + 1) & (SIZE - 1)].getScore(player);
+		}
+	}
+
+	/**
+	 * Stores the other player's inputs from the reader's latest rollback input frame. If any of
+	 * them are for frames already played with a different input, then those frames are played
+	 * again before the next one.
+	 * @param reader The reader holding the rollback input frame
+	 * @return The ID of the key press that caused the other player's newest input, or -1 if
+	 * there wasn't one or the input wasn't new
+	 */
+	public int received(FrameReader reader){
+		remoteAdvantage = reader.getFrameAdvantage();
+
+		// Frames are sent as 16 bits, so work out which frames they are from the frame we're on
+		int acked = (frame - 1) + Snapshot.getSequenceDifference(reader.getAckSequence(), (frame - 1) & 0xFFFF);
+		if(acked > ackedFrame && acked < frame) ackedFrame = acked;
+
+		int newest = frame + Snapshot.getSequenceDifference(reader.getSequence(), frame & 0xFFFF);
+		int count = reader.getInputCount();
+		if(newest <= remoteFrame) return -1;
+
+		// If some inputs are missing, or the inputs are too far ahead to store, then wait for the
+		// other player to send them again
+		if(newest - count >= remoteFrame + 1 || newest - remoteFrame >= SIZE - MAX_PREDICTION_FRAMES) return -1;
+
+		for(int inputFrame = remoteFrame + 1; inputFrame <= newest; inputFrame++){
+			Direction input = reader.getInput(count - 1 - (newest - inputFrame));
+			int index = inputFrame & (SIZE - 1);
+
+			// If the frame has been played assuming a different input, then it has to be played again
+			if(inputFrame < frame && inputs[remotePlayer][index] != input
+					&& (firstIncorrectFrame < 0 || inputFrame < firstIncorrectFrame)){
+				firstIncorrectFrame = inputFrame;
+			}
+			inputs[remotePlayer][index] = input;
+		}
+		remoteFrame = newest;
+		return reader.getInputId();
+	}
+
+	/**
+	 * Sends every one of our inputs the other player hasn't received yet, along with the newest
+	 * frame we've received from them.
+	 * @param writer The writer to send the inputs with
+	 * @param inputId The ID of the key press that caused the newest input, or -1
+	 */
+	public void send(FrameWriter writer, int inputId) throws IOException{
+		int newest = frame - 1;
+		int count = Math.min(newest - ackedFrame, Frames.MAX_INPUTS);
+		for(int index = 0; index < count; index++) sendInputs[index] = inputs[localPlayer][(newest - count + 1 + index) & (SIZE - 1)];
+		writer.writeRollbackInputs(newest & 0xFFFF, remoteFrame & 0xFFFF, frame - remoteFrame, sendInputs, count, inputId);
+	}
+
+	/**
+	 * Used to get a player's score as of the newest frame both players' inputs are known for,
+	 * which can't be changed by rolling back.
+	 * @param player The player (PLAYER_ONE or PLAYER_TWO)
+	 * @return The player's score
+	 */
+	public int getConfirmedScore(int player){
+		return confirmedScores[player];
+	}
+
+	/**
+	 * Used to get the number of frames that have been played.
+	 * @return The number of frames
+	 */
+	public int getFrame(){
+		return frame;
+	}
+
+	/**
+	 * Used to get the number of times the court has been rolled back.
+	 * @return The number of rollbacks
+	 */
+	public long getRollbacks(){
+		return rollbacks;
+	}
+
+	/**
+	 * Used to get the number of frames that have been played again after rolling back.
+	 * @return The number of frames played again
+	 */
+	public long getResimulatedFrames(){
+		return resimulatedFrames;
+	}
+
+	/**
+	 * Used to get the most frames played again after a single rollback.
+	 * @return The most frames played again at once
+	 */
+	public long getMaxRollback(){
+		return maxRollback;
+	}
+
+	/**
+	 * Used to get the number of ticks skipped while waiting for the other player's inputs.
+	 * @return The number of stalled ticks
+	 */
+	public long getStalls(){
+		return stalls;
+	}
+
+	/**
+	 * Used to get the number of ticks skipped to let the other player catch up.
+	 * @return The number of ticks skipped
+	 */
+	public long getTimeSyncWaits(){
+		return timeSyncWaits;
+	}
+
+	/**
+	 * Used to get a one line summary of the rollbacks, for showing in game.
+	 * @return The summary
+	 */
+	public String getSummary(){
+		return String.format("Rollback: %d frames re-simulated  %d rollbacks  max %d  stalls %d  syncs %d", resimulatedFrames,
+				rollbacks, maxRollback, stalls, timeSyncWaits);
+	}
+
+}
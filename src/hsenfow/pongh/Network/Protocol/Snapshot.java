@@ -0,0 +1,272 @@
+package hsenfow.pongh.Network.Protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import hsenfow.pongh.Entities.Paddle;
+import hsenfow.pongh.Entities.Paddle.Direction;
+import hsenfow.pongh.Simulation.Court;
+
+/**
+ * Everything a client needs to show the court, as seen from its own side (so the client is always
+ * player one, on the left), along with the newest of the client's inputs the server has applied.
+ * Snapshots are sent as changes from an earlier snapshot the client is known to have, with every
+ * field packed into as few bits as it needs:
+ *
+ * Without a base, each field is sent in full. With one, each field is sent as 0 if it hasn't
+ * changed, 10 and an 8 bit signed change if it changed by a little, or 11 and the field in full.
+ * Then comes 0, or 1 and a 31 bit input ID, and the bits are padded to a whole byte.
+ *
+ * An unchanged snapshot costs 2 bytes, and one with just the ball moving costs 4.
+ */
+public class Snapshot {
+
+	// The index of each field
+	public static final int BALL_X = 0;
+	public static final int BALL_Y = 1;
+	public static final int PADDLE_ONE_Y = 2;
+	public static final int PADDLE_TWO_Y = 3;
+	public static final int PADDLE_TWO_DIRECTION = 4;
+	public static final int SCORE_ONE = 5;
+	public static final int SCORE_TWO = 6;
+	public static final int INPUT_SEQUENCE = 7;
+
+	// The number of bits used to send each field in full. Values are clamped to fit
+	private static final int[] FIELD_BITS = {12, 12, 12, 12, 2, 8, 8, 16};
+
+	// The number of bits used to send a small change to a field
+	private static final int DELTA_BITS = 8;
+	// The number of bits used to send an input ID
+	private static final int INPUT_ID_BITS = 31;
+
+	// Every paddle direction, indexed by the value used to send it
+	private static final Direction[] DIRECTIONS = Direction.values();
+
+	// The snapshot's sequence number, which wraps around at 16 bits, or -1 if it isn't set
+	public int sequence = -1;
+	// The value of each field
+	private final int[] fields = new int[FIELD_BITS.length];
+	// The ID of the opponent's latest key press, applied in this snapshot, or -1
+	public int inputId = -1;
+
+	/**
+	 * Fills the snapshot from a court, as seen by one of its players.
+	 * @param court The court
+	 * @param player The player the snapshot is for. Everything is mirrored for player two
+	 * @param inputId The ID of the opponent's key press applied this tick, or -1
+	 * @param inputSequence The sequence number of the newest of the player's inputs applied
+	 */
+	public void capture(Court court, int player, int inputId, int inputSequence){
+		boolean mirrored = (player == Court.PLAYER_TWO);
+		Paddle ownPaddle = mirrored ? court.paddleTwo : court.paddleOne;
+		Paddle opponentPaddle = mirrored ? court.paddleOne : court.paddleTwo;
+
+		int ballX = court.ball.getX();
+		set(BALL_X, mirrored ? (court.getWidth() - ballX) - court.ball.getWidth() : ballX);
+		set(BALL_Y, court.ball.getY());
+		set(PADDLE_ONE_Y, ownPaddle.getY());
+		set(PADDLE_TWO_Y, opponentPaddle.getY());
+		set(PADDLE_TWO_DIRECTION, opponentPaddle.currentDirection.ordinal());
+		set(SCORE_ONE, court.getScore(player));
+		set(SCORE_TWO, court.getScore(1 - player));
+		set(INPUT_SEQUENCE, inputSequence);
+		this.inputId = inputId;
+	}
+
+	/**
+	 * Sets a field, clamping it to what can be sent.
+	 * @param field The field's index
+	 * @param value The field's value
+	 */
+	public void set(int field, int value){
+		fields[field] = Math.max(0, Math.min(value, (1 << FIELD_BITS[field]) - 1));
+	}
+
+	/**
+	 * Used to get a field's value.
+	 * @param field The field's index
+	 * @return The field's value
+	 */
+	public int get(int field){
+		return fields[field];
+	}
+
+	/**
+	 * Used to get the direction paddle two is moving in.
+	 * @return The direction
+	 */
+	public Direction getPaddleTwoDirection(){
+		return DIRECTIONS[fields[PADDLE_TWO_DIRECTION]];
+	}
+
+	/**
+	 * Makes this snapshot the same as another one.
+	 * @param other The snapshot to copy
+	 */
+	public void copyFrom(Snapshot other){
+		sequence = other.sequence;
+		System.arraycopy(other.fields, 0, fields, 0, fields.length);
+		inputId = other.inputId;
+	}
+
+	/**
+	 * Used to get how far apart two sequence numbers are, allowing for them wrapping around.
+	 * @param sequence The later sequence number
+	 * @param earlier The earlier sequence number
+	 * @return The difference, which is negative if the first is actually the earlier one
+	 */
+	public static int getSequenceDifference(int sequence, int earlier){
+		return (short)(sequence - earlier);
+	}
+
+	/**
+	 * Encodes the snapshot's fields.
+	 * @param out The buffer to encode into
+	 * @param base The snapshot to send the changes from, or null to send everything in full
+	 */
+	void encode(ByteBuffer out, Snapshot base){
+		BitWriter writer = new BitWriter(out);
+		for(int field = 0; field < fields.length; field++){
+			int value = fields[field];
+			if(base == null){
+				writer.write(value, FIELD_BITS[field]);
+				continue;
+			}
+
+			int delta = value - base.fields[field];
+			if(delta == 0){
+				writer.write(0, 1);
+			}
+			else if(delta >= -(1 << (DELTA_BITS - 1)) && delta < (1 << (DELTA_BITS - 1))){
+				writer.write(0x2, 2);
+				writer.write(delta, DELTA_BITS);
+			}
+			else{
+				writer.write(0x3, 2);
+				writer.write(value, FIELD_BITS[field]);
+			}
+		}
+
+		if(inputId < 0) writer.write(0, 1);
+		else{
+			writer.write(1, 1);
+			writer.write(inputId, INPUT_ID_BITS);
+		}
+		writer.finish();
+	}
+
+	/**
+	 * Decodes the snapshot's fields.
+	 * @param bytes The encoded fields
+	 * @param length The number of encoded bytes
+	 * @param base The snapshot the changes were sent from, or null if everything was sent in full
+	 * @throws IOException If the snapshot is too short or invalid
+	 */
+	void decode(byte[] bytes, int length, Snapshot base) throws IOException{
+		BitReader reader = new BitReader(bytes, length);
+		for(int field = 0; field < fields.length; field++){
+			if(base == null){
+				fields[field] = reader.read(FIELD_BITS[field]);
+			}
+			else if(reader.read(1) == 0){
+				fields[field] = base.fields[field];
+			}
+			else if(reader.read(1) == 0){
+				int delta = (reader.read(DELTA_BITS) << (32 - DELTA_BITS)) >> (32 - DELTA_BITS);
+				fields[field] = base.fields[field] + delta;
+			}
+			else{
+				fields[field] = reader.read(FIELD_BITS[field]);
+			}
+		}
+		if(fields[PADDLE_TWO_DIRECTION] >= DIRECTIONS.length) throw new IOException("Invalid direction: " + fields[PADDLE_TWO_DIRECTION]);
+
+		inputId = (reader.read(1) == 0) ? -1 : reader.read(INPUT_ID_BITS);
+	}
+
+	/**
+	 * Packs values into a buffer using as many bits as each one needs.
+	 */
+	private static class BitWriter{
+
+		// The buffer being written to
+		private final ByteBuffer out;
+		// The bits not yet written, in the lowest bitCount bits
+		private long bits = 0;
+		private int bitCount = 0;
+
+		/**
+		 * Creates a writer for the given buffer.
+		 * @param out The buffer to write to
+		 */
+		BitWriter(ByteBuffer out){
+			this.out = out;
+		}
+
+		/**
+		 * Writes the lowest bits of a value.
+		 * @param value The value
+		 * @param width The number of bits to write, up to 32
+		 */
+		void write(int value, int width){
+			bits = (bits << width) | (value & ((1L << width) - 1));
+			bitCount += width;
+			while(bitCount >= 8){
+				bitCount -= 8;
+				out.put((byte)(bits >>> bitCount));
+			}
+		}
+
+		/**
+		 * Writes any bits left over, padded to a whole byte.
+		 */
+		void finish(){
+			if(bitCount > 0) out.put((byte)(bits << (8 - bitCount)));
+			bitCount = 0;
+		}
+
+	}
+
+	/**
+	 * Unpacks values written by a BitWriter.
+	 */
+	private static class BitReader{
+
+		// The bytes being read
+		private final byte[] bytes;
+		private final int length;
+		// The position of the next byte to read
+		private int position = 0;
+		// The bits read but not yet used, in the lowest bitCount bits
+		private long bits = 0;
+		private int bitCount = 0;
+
+		/**
+		 * Creates a reader for the given bytes.
+		 * @param bytes The bytes to read
+		 * @param length The number of bytes to read
+		 */
+		BitReader(byte[] bytes, int length){
+			this.bytes = bytes;
+			this.length = length;
+		}
+
+		/**
+		 * Reads an unsigned value.
+		 * @param width The number of bits to read, up to 32
+		 * @return The value
+		 * @throws IOException If there aren't enough bits left
+		 */
+		int read(int width) throws IOException{
+			while(bitCount < width){
+				if(position >= length) throw new IOException("Snapshot too short");
+				bits = (bits << 8) | (bytes[position++] & 0xFF);
+				bitCount += 8;
+			}
+			bitCount -= width;
+			return (int)((bits >>> bitCount) & ((1L << width) - 1));
+		}
+
+	}
+
+}
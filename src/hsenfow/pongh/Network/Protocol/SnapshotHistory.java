@@ -0,0 +1,47 @@
+package hsenfow.pongh.Network.Protocol;
+
+/**
+ * The latest snapshots sent or received, kept so later snapshots can be sent or unpacked as
+ * changes from them. Nothing is allocated once the history has been created.
+ */
+public class SnapshotHistory {
+
+	// The number of snapshots kept. Must be a power of two
+	public static final int SIZE = 32;
+
+	// The snapshots, indexed by the low bits of their sequence numbers
+	private final Snapshot[] snapshots = new Snapshot[SIZE];
+
+	/**
+	 * Creates an empty history.
+	 */
+	public SnapshotHistory(){
+		for(int index = 0; index < SIZE; index++) snapshots[index] = new Snapshot();
+	}
+
+	/**
+	 * Used to get the snapshot with the given sequence number.
+	 * @param sequence The snapshot's sequence number
+	 * @return The snapshot, or null if it isn't in the history
+	 */
+	public Snapshot get(int sequence){
+		Snapshot snapshot = snapshots[sequence & (SIZE - 1)];
+		return (snapshot.sequence == sequence) ? snapshot : null;
+	}
+
+	/**
+	 * Adds a copy of a snapshot to the history, replacing the one SIZE snapshots before it.
+	 * @param snapshot The snapshot
+	 */
+	public void store(Snapshot snapshot){
+		snapshots[snapshot.sequence & (SIZE - 1)].copyFrom(snapshot);
+	}
+
+	/**
+	 * Removes every snapshot from the history.
+	 */
+	public void clear(){
+		for(Snapshot snapshot : snapshots) snapshot.sequence = -1;
+	}
+
+}
@@ -0,0 +1,60 @@
+package hsenfow.pongh.Network.Protocol;
+
+import java.io.IOException;
+
+/**
+ * Unpacks the snapshots received from the server, and keeps track of which one should be
+ * acknowledged next. Snapshots older than the newest one received are ignored.
+ */
+public class SnapshotReceiver {
+
+	// The snapshots received
+	private final SnapshotHistory received = new SnapshotHistory();
+	// The newest snapshot received
+	private final Snapshot newest = new Snapshot();
+	// The snapshot being unpacked
+	private final Snapshot decoded = new Snapshot();
+
+	// The sequence number of the newest snapshot acknowledged, or -1
+	private int ackedSequence = -1;
+
+	/**
+	 * Unpacks the snapshot in the reader's latest frame.
+	 * @param frame The reader holding the snapshot frame
+	 * @return The snapshot, or null if it's out of date or its base has been lost. The snapshot
+	 * is only valid until the next one is received
+	 * @throws IOException If the snapshot is invalid
+	 */
+	public synchronized Snapshot receive(FrameReader frame) throws IOException{
+		if(newest.sequence >= 0 && Snapshot.getSequenceDifference(frame.getSequence(), newest.sequence) <= 0) return null;
+
+		// If the base has gone (e.g. it was sent a long time ago), then wait for the server to
+		// notice and send one in full
+		if(!frame.decodeSnapshot(decoded, received)) return null;
+
+		received.store(decoded);
+		newest.copyFrom(decoded);
+		return newest;
+	}
+
+	/**
+	 * Used to get the sequence number to acknowledge, if a snapshot has been received since the
+	 * last one was acknowledged.
+	 * @return The newest snapshot's sequence number, or -1 if it has already been acknowledged
+	 */
+	public synchronized int takeAck(){
+		if(newest.sequence < 0 || newest.sequence == ackedSequence) return -1;
+		ackedSequence = newest.sequence;
+		return ackedSequence;
+	}
+
+	/**
+	 * Forgets every snapshot received, ready for a new connection.
+	 */
+	public synchronized void reset(){
+		received.clear();
+		newest.sequence = -1;
+		ackedSequence = -1;
+	}
+
+}
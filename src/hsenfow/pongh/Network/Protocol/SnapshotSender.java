@@ -0,0 +1,65 @@
+package hsenfow.pongh.Network.Protocol;
+
+import java.io.IOException;
+
+/**
+ * Sends snapshots to one client, each as changes from the newest snapshot the client has
+ * acknowledged. If the client hasn't acknowledged any of the snapshots still in the history,
+ * then snapshots are sent in full until it does.
+ */
+public class SnapshotSender {
+
+	// The snapshots sent
+	private final SnapshotHistory sent = new SnapshotHistory();
+	// The snapshot being sent next
+	private final Snapshot snapshot = new Snapshot();
+
+	// The sequence number of the next snapshot
+	private int nextSequence = 0;
+	// The sequence number of the newest snapshot the client has acknowledged, or -1
+	private int ackedSequence = -1;
+
+	/**
+	 * Used to get the snapshot to fill in and send next.
+	 * @return The snapshot, with its sequence number set
+	 */
+	public synchronized Snapshot next(){
+		snapshot.sequence = nextSequence;
+		return snapshot;
+	}
+
+	/**
+	 * Sends the snapshot returned by next.
+	 * @param writer The writer to send it with
+	 */
+	public synchronized void send(FrameWriter writer) throws IOException{
+		Snapshot base = null;
+		if(ackedSequence >= 0){
+			int baseAge = Snapshot.getSequenceDifference(snapshot.sequence, ackedSequence);
+			if(baseAge > 0 && baseAge < SnapshotHistory.SIZE) base = sent.get(ackedSequence);
+		}
+
+		writer.writeSnapshot(snapshot, base);
+		sent.store(snapshot);
+		nextSequence = (nextSequence + 1) & 0xFFFF;
+	}
+
+	/**
+	 * Records that the client has received a snapshot. Acknowledgements older than the newest one
+	 * are ignored.
+	 * @param sequence The snapshot's sequence number
+	 */
+	public synchronized void acknowledged(int sequence){
+		if(ackedSequence < 0 || Snapshot.getSequenceDifference(sequence, ackedSequence) > 0) ackedSequence = sequence;
+	}
+
+	/**
+	 * Forgets every snapshot sent, ready for a new connection.
+	 */
+	public synchronized void reset(){
+		sent.clear();
+		nextSequence = 0;
+		ackedSequence = -1;
+	}
+
+}
@@ -0,0 +1,208 @@
+package hsenfow.pongh.Network.Server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import hsenfow.pongh.Network.Protocol.FrameReader;
+import hsenfow.pongh.Network.Protocol.FrameWriter;
+import hsenfow.pongh.Network.Protocol.Frames;
+import hsenfow.pongh.Network.Protocol.ReceivedInputs;
+import hsenfow.pongh.Network.Protocol.SnapshotSender;
+
+/**
+ * A client connected to the match server. Frames sent to the client are encoded by its writer into
+ * an outbound buffer, which is written to the socket when flushed, so that a slow client can never
+ * hold up the thread sending to it. Only one thread reads from the client. With a non-blocking
+ * socket the buffer is written by flush, and with a blocking one it's written by a thread of the
+ * client's own running drain.
+ */
+class ClientConnection implements WritableByteChannel{
+
+	// The number of bytes that can be waiting to be sent to the client before it's disconnected
+	private static final int OUTBOUND_CAPACITY = Frames.MAX_FRAME_SIZE * 32;
+
+	// The client's socket
+	final SocketChannel channel;
+	// The client's key in the server's selector, if it has one
+	SelectionKey key;
+
+	// The bytes received from the client but not yet decoded. Kept ready for filling between reads
+	private final ByteBuffer inbound = ByteBuffer.allocate(Frames.MAX_FRAME_SIZE * 4);
+	// The bytes waiting to be sent to the client. Kept ready for filling between flushes
+	private final ByteBuffer outbound = ByteBuffer.allocate(OUTBOUND_CAPACITY);
+	// Guards the outbound buffer. A lock rather than a monitor, so a virtual thread waiting for it
+	// doesn't hold on to its carrier thread
+	private final ReentrantLock outboundLock = new ReentrantLock();
+	// Signalled when the outbound buffer should be sent, or the connection has been closed
+	private final Condition drainRequested = outboundLock.newCondition();
+	// Whether the outbound buffer should be sent by drain. Guarded by outboundLock
+	private boolean drainPending = false;
+
+	// Encodes frames into the outbound buffer
+	final FrameWriter writer = new FrameWriter(this);
+	// Decodes the frames received from the client
+	final FrameReader reader = new FrameReader(null);
+
+	// The match the client is playing in, or null if it's still waiting for an opponent
+	volatile ServerMatch match = null;
+	// The client's player number in its match
+	int player;
+	// Whether the client has sent its hello back, confirming the session
+	volatile boolean helloReceived = false;
+	// When the latest frame was received, or when the hello was sent if nothing has been since
+	volatile long lastReceiveTime = 0;
+
+	// Sends the client snapshots of its match
+	final SnapshotSender snapshots = new SnapshotSender();
+	// The inputs received from the client, waiting to be applied to its paddle
+	final ReceivedInputs inputs = new ReceivedInputs();
+
+	/**
+	 * Creates a connection for a newly accepted client.
+	 * @param channel The client's socket
+	 */
+	ClientConnection(SocketChannel channel){
+		this.channel = channel;
+	}
+
+	/**
+	 * Reads whatever the client has sent, waiting for something if the socket is in blocking mode,
+	 * and passes every whole frame received to the client's match.
+	 * @return Returns false if the client has closed the connection
+	 * @throws IOException If the socket couldn't be read, or a frame was invalid
+	 */
+	boolean read() throws IOException{
+		int read = channel.read(inbound);
+
+		inbound.flip();
+		try{
+			while(FrameReader.hasWholeFrame(inbound)){
+				reader.decodeFrame(inbound);
+
+				// Clients shouldn't say anything before they've been put in a match
+				ServerMatch currentMatch = match;
+				if(currentMatch == null) throw new IOException("Frame received before match started: " + reader.getType());
+				currentMatch.frameReceived(this);
+			}
+		} finally{
+			inbound.compact();
+		}
+		return read >= 0;
+	}
+
+	/**
+	 * Adds a frame to the outbound buffer. Called by the writer.
+	 * @param source The frame
+	 * @return The size of the frame
+	 * @throws IOException If there isn't room for the frame, as the client isn't keeping up
+	 */
+	@Override
+	public int write(ByteBuffer source) throws IOException{
+		outboundLock.lock();
+		try{
+			int length = source.remaining();
+			if(length > outbound.remaining()) throw new IOException("Client isn't keeping up");
+			outbound.put(source);
+			return length;
+		} finally{
+			outboundLock.unlock();
+		}
+	}
+
+	/**
+	 * Writes as much of the outbound buffer to the socket as it will take. Only for sockets in
+	 * non-blocking mode.
+	 * @return Returns true if everything was written
+	 * @throws IOException If the socket couldn't be written to
+	 */
+	boolean flush() throws IOException{
+		outboundLock.lock();
+		try{
+			outbound.flip();
+			try{
+				if(outbound.hasRemaining()) channel.write(outbound);
+				return !outbound.hasRemaining();
+			} finally{
+				outbound.compact();
+			}
+		} finally{
+			outboundLock.unlock();
+		}
+	}
+
+	/**
+	 * Asks the thread running drain to send the outbound buffer. Never waits for the socket.
+	 */
+	void requestDrain(){
+		outboundLock.lock();
+		try{
+			drainPending = true;
+			drainRequested.signal();
+		} finally{
+			outboundLock.unlock();
+		}
+	}
+
+	/**
+	 * Sends the outbound buffer each time it's asked to, until the connection is closed. Only for
+	 * sockets in blocking mode, and should be run by a thread of the client's own, as it waits
+	 * for as long as the client takes. The buffer is copied out before it's written, so frames
+	 * can still be added while the client is slow, until the buffer is full and the client is
+	 * cut off.
+	 * @throws IOException If the socket couldn't be written to
+	 */
+	void drain() throws IOException{
+		ByteBuffer sending = ByteBuffer.allocate(OUTBOUND_CAPACITY);
+		while(true){
+			outboundLock.lock();
+			try{
+				while(!drainPending && channel.isOpen()) drainRequested.awaitUninterruptibly();
+				if(!channel.isOpen()) return;
+				drainPending = false;
+
+				outbound.flip();
+				sending.clear();
+				sending.put(outbound);
+				sending.flip();
+				outbound.clear();
+			} finally{
+				outboundLock.unlock();
+			}
+
+			while(sending.hasRemaining()) channel.write(sending);
+		}
+	}
+
+	/**
+	 * Used to check whether the connection is open.
+	 * @return Returns true if the socket is open
+	 */
+	@Override
+	public boolean isOpen(){
+		return channel.isOpen();
+	}
+
+	/**
+	 * Closes the socket.
+	 */
+	@Override
+	public void close(){
+		try{
+			channel.close();
+		} catch(IOException ioe){ }
+
+		// Wake up the thread running drain, if there is one, so it can finish
+		outboundLock.lock();
+		try{
+			drainRequested.signalAll();
+		} finally{
+			outboundLock.unlock();
+		}
+	}
+
+}
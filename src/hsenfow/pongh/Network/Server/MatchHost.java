@@ -0,0 +1,51 @@
+package hsenfow.pongh.Network.Server;
+
+import java.io.IOException;
+
+import hsenfow.pongh.Engine.LatencyHistogram;
+
+/**
+ * A server that hosts matches between clients. Each way of hosting them (e.g. one selector thread
+ * for every client, or a thread for each client and match) has its own implementation.
+ */
+interface MatchHost {
+
+	/**
+	 * Accepts clients and hosts their matches until the server is stopped.
+	 * @throws IOException If the server socket couldn't be opened
+	 */
+	void run() throws IOException;
+
+	/**
+	 * Stops the server, ending every match. Can be called by any thread.
+	 */
+	void stop();
+
+	/**
+	 * Sends a client's waiting frames to its socket, without waiting for a slow client. Can be
+	 * called by any thread.
+	 * @param client The client
+	 */
+	void flush(ClientConnection client) throws IOException;
+
+	/**
+	 * Ends a match, closing both clients' connections. Can be called by any thread.
+	 * @param match The match
+	 * @param leaver The client that left the match, or null if neither did
+	 * @param reason The reason the match ended
+	 */
+	void endMatch(ServerMatch match, ClientConnection leaver, String reason);
+
+	/**
+	 * Used to get the number of matches being played.
+	 * @return The number of active matches
+	 */
+	int getActiveMatches();
+
+	/**
+	 * Used to get how late each tick started compared to when it should have.
+	 * @return The histogram of tick lateness
+	 */
+	LatencyHistogram getTickJitter();
+
+}
@@ -0,0 +1,408 @@
+package hsenfow.pongh.Network.Server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import hsenfow.pongh.Utils;
+import hsenfow.pongh.Engine.GameLoop;
+import hsenfow.pongh.Engine.LatencyHistogram;
+import hsenfow.pongh.Network.NetworkUtils;
+import hsenfow.pongh.Network.Threads.ServerThread;
+
+/**
+ * A dedicated server that hosts any number of matches on one port, without a window. Clients
+ * connect to it just like they would to another player's game, and are paired up in the order
+ * they connect. One selector thread accepts clients and reads everything they send, and a small
+ * pool of tick threads updates the matches, each thread ticking its own share of them.
+ *
+ * Usage: MatchServer [--port=N] [--tick-threads=N]
+ */
+public final class MatchServer implements MatchHost{
+
+	// The size of the court each match is played on
+	static final int COURT_WIDTH = 800;
+	static final int COURT_HEIGHT = 600;
+
+	// The number of seconds between each status report
+	private static final int STATUS_INTERVAL_SECONDS = 10;
+
+	// The port the server listens on
+	private int port = ServerThread.DEFAULT_PORT;
+	// The number of threads the matches are ticked on
+	private int tickThreads = Runtime.getRuntime().availableProcessors();
+
+	// Whether the server should keep running
+	private volatile boolean running = true;
+
+	// The selector every client is registered with
+	private Selector selector;
+	// The clients with frames waiting that didn't fit in their socket's buffer. The selector thread
+	// waits until each of them can be written to
+	private final Queue<ClientConnection> pendingWrites = new ConcurrentLinkedQueue<ClientConnection>();
+
+	// The client waiting for an opponent, or null. Only used by the selector thread
+	private ClientConnection waitingClient = null;
+
+	// The groups of matches ticked by each tick thread
+	private TickGroup[] tickGroups;
+	// The group the next match is added to. Only used by the selector thread
+	private int nextTickGroup = 0;
+
+	// The number of matches being played and the number that have been played in total
+	private final AtomicInteger activeMatches = new AtomicInteger();
+	private final AtomicInteger totalMatches = new AtomicInteger();
+	// How late each tick group started each tick
+	private final LatencyHistogram tickJitter = new LatencyHistogram("Tick lateness");
+
+	/**
+	 * Creates a server using the default settings.
+	 */
+	public MatchServer(){ }
+
+	/**
+	 * Creates a server with the given settings.
+	 * @param port The port to listen on
+	 * @param tickThreads The number of threads to tick the matches on
+	 */
+	public MatchServer(int port, int tickThreads){
+		this.port = port;
+		this.tickThreads = tickThreads;
+	}
+
+	/**
+	 * Runs the server from the command line.
+	 * @param args The settings to use, in the form --name=value
+	 */
+	public static void main(String[] args){
+		MatchServer server = new MatchServer();
+		for(String arg : args){
+			if(!server.applyArgument(arg)){
+				Utils.log("Invalid argument: " + arg);
+				return;
+			}
+		}
+
+		try{
+			server.run();
+		} catch(IOException ioe){
+			Utils.log("Error running match server: " + ioe.getMessage());
+		}
+	}
+
+	/**
+	 * Applies a single command line argument.
+	 * @param arg The argument, in the form --name=value
+	 * @return Returns true if the argument was valid
+	 */
+	private boolean applyArgument(String arg){
+		int equalsIndex = arg.indexOf('=');
+		if(!arg.startsWith("--") || equalsIndex < 0) return false;
+
+		String name = arg.substring(2, equalsIndex);
+		String value = arg.substring(equalsIndex + 1);
+		try{
+			switch(name){
+			case "port": port = Integer.parseInt(value); break;
+			case "tick-threads": tickThreads = Integer.parseInt(value); break;
+			default: return false;
+			}
+		} catch(NumberFormatException nfe){
+			return false;
+		}
+		return tickThreads > 0;
+	}
+
+	/**
+	 * Starts the tick threads, then accepts and reads from clients until the server is stopped.
+	 * @throws IOException If the server socket couldn't be opened
+	 */
+	@Override
+	public void run() throws IOException{
+		try(ServerSocketChannel serverChannel = ServerSocketChannel.open()){
+			serverChannel.bind(new InetSocketAddress(port));
+			serverChannel.configureBlocking(false);
+
+			selector = Selector.open();
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+			ScheduledExecutorService tickExecutor = startTickThreads();
+			Utils.log("Match server listening on port " + port + " with " + tickThreads + " tick threads");
+
+			try{
+				long nextStatusTime = System.nanoTime() + TimeUnit.SECONDS.toNanos(STATUS_INTERVAL_SECONDS);
+				while(running){
+					selector.select(TimeUnit.SECONDS.toMillis(1));
+					registerPendingWrites();
+
+					Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					while(keys.hasNext()){
+						SelectionKey key = keys.next();
+						keys.remove();
+						if(!key.isValid()) continue;
+
+						if(key.isAcceptable()) accept(serverChannel);
+						else handleKey(key);
+					}
+
+					if(System.nanoTime() - nextStatusTime >= 0){
+						nextStatusTime += TimeUnit.SECONDS.toNanos(STATUS_INTERVAL_SECONDS);
+						Utils.log("Matches: " + activeMatches.get() + " active, " + totalMatches.get() + " played");
+					}
+				}
+			} finally{
+				tickExecutor.shutdownNow();
+				for(SelectionKey key : selector.keys()){
+					if(key.attachment() instanceof ClientConnection) ((ClientConnection)key.attachment()).close();
+				}
+				selector.close();
+			}
+		}
+	}
+
+	/**
+	 * Stops the server. Can be called by any thread.
+	 */
+	@Override
+	public void stop(){
+		running = false;
+		Selector currentSelector = selector;
+		if(currentSelector != null) currentSelector.wakeup();
+	}
+
+	/**
+	 * Starts the tick threads, each ticking its own group of matches at the game's tick rate.
+	 * @return The executor running the tick threads
+	 */
+	private ScheduledExecutorService startTickThreads(){
+		ScheduledExecutorService tickExecutor = Executors.newScheduledThreadPool(tickThreads, new ThreadFactory(){
+			private int threadNumber = 0;
+
+			@Override
+			public Thread newThread(Runnable runnable){
+				Thread thread = new Thread(runnable, "Match tick thread " + (threadNumber++));
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		long tickNanos = TimeUnit.SECONDS.toNanos(1) / GameLoop.TICK_RATE;
+		tickGroups = new TickGroup[tickThreads];
+		for(int index = 0; index < tickGroups.length; index++){
+			// Spread the groups' ticks across the tick, so they don't all wake at once
+			long delay = (tickNanos * index) / tickThreads;
+			tickGroups[index] = new TickGroup(System.nanoTime() + delay, tickNanos);
+			tickExecutor.scheduleAtFixedRate(tickGroups[index], delay, tickNanos, TimeUnit.NANOSECONDS);
+		}
+		return tickExecutor;
+	}
+
+	/**
+	 * Accepts a new client, pairing it with the waiting client if there is one.
+	 * @param serverChannel The server socket's channel
+	 */
+	private void accept(ServerSocketChannel serverChannel){
+		SocketChannel channel;
+		ClientConnection client;
+		try{
+			channel = serverChannel.accept();
+			if(channel == null) return;
+			channel.configureBlocking(false);
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			client = new ClientConnection(channel);
+			client.key = channel.register(selector, SelectionKey.OP_READ, client);
+		} catch(IOException ioe){
+			Utils.log("Error accepting client: " + ioe.getMessage());
+			return;
+		}
+
+		// If no one's waiting, then this client waits for the next one
+		if(waitingClient == null || !waitingClient.isOpen()){
+			waitingClient = client;
+			return;
+		}
+
+		// Otherwise start a match between them
+		ServerMatch match = new ServerMatch(this, NetworkUtils.generateSessionId(), waitingClient, client,
+				COURT_WIDTH, COURT_HEIGHT);
+		waitingClient = null;
+		activeMatches.incrementAndGet();
+		totalMatches.incrementAndGet();
+
+		try{
+			match.start();
+		} catch(IOException ioe){
+			endMatch(match, null, "Error starting match: " + ioe.getMessage());
+			return;
+		}
+		tickGroups[nextTickGroup].add(match);
+		nextTickGroup = (nextTickGroup + 1) % tickGroups.length;
+	}
+
+	/**
+	 * Reads from or writes to a client whose socket is ready.
+	 * @param key The client's key
+	 */
+	private void handleKey(SelectionKey key){
+		ClientConnection client = (ClientConnection)key.attachment();
+		try{
+			// Send anything that didn't fit in the socket's buffer before
+			if(key.isWritable() && client.flush()) key.interestOps(SelectionKey.OP_READ);
+
+			if(key.isReadable() && !client.read()){
+				disconnect(client, "Client disconnected");
+			}
+		} catch(IOException ioe){
+			disconnect(client, "Error reading from client: " + ioe.getMessage());
+		}
+	}
+
+	/**
+	 * Writes a client's waiting frames to its socket. If they don't all fit, then the selector
+	 * thread sends the rest once the socket's ready. Can be called by any thread.
+	 * @param client The client
+	 */
+	@Override
+	public void flush(ClientConnection client) throws IOException{
+		if(!client.flush()){
+			pendingWrites.add(client);
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * Waits for each client with frames left over to be ready to be written to.
+	 */
+	private void registerPendingWrites(){
+		ClientConnection client;
+		while((client = pendingWrites.poll()) != null){
+			if(client.key.isValid()) client.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		}
+	}
+
+	/**
+	 * Closes a client's connection, ending its match if it's in one.
+	 * @param client The client
+	 * @param reason The reason the client's being disconnected
+	 */
+	private void disconnect(ClientConnection client, String reason){
+		ServerMatch match = client.match;
+		if(match != null) endMatch(match, client, reason);
+		else{
+			Utils.log(reason);
+			client.close();
+			if(waitingClient == client) waitingClient = null;
+		}
+	}
+
+	/**
+	 * Ends a match, closing both clients' connections. Can be called by any thread.
+	 * @param match The match
+	 * @param leaver The client that left the match, or null if neither did
+	 * @param reason The reason the match ended
+	 */
+	@Override
+	public void endMatch(ServerMatch match, ClientConnection leaver, String reason){
+		if(match.end(leaver)){
+			activeMatches.decrementAndGet();
+			Utils.log("Match " + match.sessionId + " ended: " + reason);
+		}
+	}
+
+	/**
+	 * Used to get the number of matches being played.
+	 * @return The number of active matches
+	 */
+	@Override
+	public int getActiveMatches(){
+		return activeMatches.get();
+	}
+
+	/**
+	 * Used to get how late each tick group started each tick.
+	 * @return The histogram of tick lateness
+	 */
+	@Override
+	public LatencyHistogram getTickJitter(){
+		return tickJitter;
+	}
+
+	/**
+	 * A group of matches ticked by the same tick thread, one after another.
+	 */
+	private class TickGroup implements Runnable{
+
+		// The matches added since the last tick
+		private final Queue<ServerMatch> addedMatches = new ConcurrentLinkedQueue<ServerMatch>();
+		// The matches being ticked. Only used by the tick thread
+		private final ArrayList<ServerMatch> matches = new ArrayList<ServerMatch>();
+
+		// When the next tick should start, and the time between ticks
+		private long nextTickTime;
+		private final long tickNanos;
+
+		/**
+		 * Creates an empty group.
+		 * @param firstTickTime When the first tick should start
+		 * @param tickNanos The time between ticks
+		 */
+		TickGroup(long firstTickTime, long tickNanos){
+			this.nextTickTime = firstTickTime;
+			this.tickNanos = tickNanos;
+		}
+
+		/**
+		 * Adds a match to the group, to be ticked from the next tick onwards.
+		 * @param match The match
+		 */
+		void add(ServerMatch match){
+			addedMatches.add(match);
+		}
+
+		/**
+		 * Ticks every match in the group, dropping any that have ended.
+		 */
+		@Override
+		public void run(){
+			tickJitter.record(Math.max(0, System.nanoTime() - nextTickTime));
+			nextTickTime += tickNanos;
+
+			ServerMatch added;
+			while((added = addedMatches.poll()) != null) matches.add(added);
+
+			for(int index = 0; index < matches.size(); index++){
+				boolean playing;
+				try{
+					playing = matches.get(index).tick();
+				} catch(RuntimeException re){
+					// An exception would stop the group being ticked ever again, so just end the match
+					endMatch(matches.get(index), null, "Error ticking match: " + re.toString());
+					playing = false;
+				}
+
+				// Swap the ended match with the last one, so nothing has to be shifted along
+				if(!playing){
+					int last = matches.size() - 1;
+					matches.set(index, matches.get(last));
+					matches.remove(last);
+					index--;
+				}
+			}
+		}
+
+	}
+
+}
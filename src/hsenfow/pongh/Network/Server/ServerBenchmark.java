@@ -0,0 +1,435 @@
+package hsenfow.pongh.Network.Server;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import hsenfow.pongh.Utils;
+import hsenfow.pongh.Engine.LatencyHistogram;
+import hsenfow.pongh.Entities.Paddle.Direction;
+import hsenfow.pongh.Network.NetworkCommunications;
+import hsenfow.pongh.Network.Protocol.FrameReader;
+import hsenfow.pongh.Network.Protocol.FrameWriter;
+import hsenfow.pongh.Network.Protocol.Frames;
+import hsenfow.pongh.Network.Protocol.MessageType;
+import hsenfow.pongh.Network.Protocol.NetworkStats;
+import hsenfow.pongh.Network.Threads.ServerThread;
+
+/**
+ * Compares the ways of hosting matches: the selector-based server, and the threaded server with
+ * platform and with virtual threads. Each server is started in turn and filled with bot clients
+ * over loopback, which mostly just listen, moving their paddles every so often like players who
+ * aren't doing much, and pinging the server like the game does. Reports how many clients are
+ * still playing, the memory and threads used per client, and how late the matches' ticks were.
+ *
+ * Usage: ServerBenchmark [--modes=nio,platform,virtual] [--matches=N] [--seconds=N] [--port=N]
+ */
+public final class ServerBenchmark {
+
+	// The number of ticks between each input a bot sends
+	private static final int BOT_MOVE_TICKS = 30;
+	// The longest to wait for every match to start
+	private static final int START_TIMEOUT_SECONDS = 60;
+	// The most bots waiting for their match to start at once. Kept below the server's accept
+	// backlog, as connections that overflow it are lost without the bot knowing
+	private static final int MAX_WAITING_BOTS = 32;
+
+	// The settings for the benchmark
+	private String[] modes = {"nio", "platform", "virtual"};
+	private int matches = 500;
+	private int seconds = 10;
+	private int port = ServerThread.DEFAULT_PORT + 1;
+
+	/**
+	 * Runs the benchmark from the command line.
+	 * @param args The settings to use, in the form --name=value
+	 */
+	public static void main(String[] args){
+		ServerBenchmark benchmark = new ServerBenchmark();
+		for(String arg : args){
+			if(!benchmark.applyArgument(arg)){
+				Utils.log("Invalid argument: " + arg);
+				return;
+			}
+		}
+
+		ArrayList<String> results = new ArrayList<String>();
+		for(String mode : benchmark.modes){
+			try{
+				results.add(benchmark.run(mode));
+			} catch(IOException | InterruptedException e){
+				results.add(String.format("%-9s failed: %s", mode, e.toString()));
+			}
+		}
+
+		Utils.log(String.format("%-9s %9s %8s %10s %10s %9s %9s %9s", "Mode", "Clients", "Threads", "Heap/conn",
+				"RSS/conn", "Tick p50", "Tick p99", "Tick max"));
+		for(String result : results) Utils.log(result);
+	}
+
+	/**
+	 * Applies a single command line argument.
+	 * @param arg The argument, in the form --name=value
+	 * @return Returns true if the argument was valid
+	 */
+	private boolean applyArgument(String arg){
+		int equalsIndex = arg.indexOf('=');
+		if(!arg.startsWith("--") || equalsIndex < 0) return false;
+
+		String name = arg.substring(2, equalsIndex);
+		String value = arg.substring(equalsIndex + 1);
+		try{
+			switch(name){
+			case "modes": modes = value.split(","); break;
+			case "matches": matches = Integer.parseInt(value); break;
+			case "seconds": seconds = Integer.parseInt(value); break;
+			case "port": port = Integer.parseInt(value); break;
+			default: return false;
+			}
+		} catch(NumberFormatException nfe){
+			return false;
+		}
+		return matches > 0 && seconds > 0;
+	}
+
+	/**
+	 * Benchmarks a single way of hosting matches.
+	 * @param mode The way of hosting matches: nio, platform or virtual
+	 * @return A row of the results table
+	 */
+	private String run(String mode) throws IOException, InterruptedException{
+		final MatchHost host;
+		switch(mode){
+		case "nio": host = new MatchServer(port, Runtime.getRuntime().availableProcessors()); break;
+		case "platform": host = new ThreadedMatchServer(port, false); break;
+		case "virtual":{
+			if(!ThreadedMatchServer.isVirtualThreadsAvailable()) return String.format("%-9s skipped: needs Java 21", mode);
+			host = new ThreadedMatchServer(port, true);
+			break;
+		}
+		default: throw new IOException("Unknown mode: " + mode);
+		}
+
+		// Measure what's in use before the server starts
+		long heapBefore = getUsedHeap(null);
+		long rssBefore = getResidentMemory();
+		int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+
+		Thread serverThread = new Thread(new Runnable(){
+			@Override
+			public void run(){
+				try{
+					host.run();
+				} catch(IOException ioe){
+					Utils.log("Error running server: " + ioe.getMessage());
+				}
+			}
+		}, "Benchmark server");
+		serverThread.setDaemon(true);
+		serverThread.start();
+
+		Bots bots = new Bots(matches * 2);
+		try{
+			// Connect every bot and wait for their matches to start
+			Thread.sleep(200);
+			bots.connect(new InetSocketAddress("127.0.0.1", port));
+			long startDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(START_TIMEOUT_SECONDS);
+			while(bots.getStarted() < bots.size() && System.nanoTime() < startDeadline) bots.pump(10);
+
+			// Play for a while, then see how much is being used while every match is being played
+			host.getTickJitter().reset();
+			long endTime = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+			while(System.nanoTime() < endTime) bots.pump(1);
+			LatencyHistogram jitter = host.getTickJitter();
+			String jitterSummary = String.format("%8.2fms %8.2fms %8.2fms", jitter.getPercentileMicros(50) / 1000.0,
+					jitter.getPercentileMicros(99) / 1000.0, jitter.getMaxMicros() / 1000.0);
+
+			int threads = ManagementFactory.getThreadMXBean().getThreadCount() - threadsBefore;
+			long heapPerClient = (getUsedHeap(bots) - heapBefore) / bots.size();
+			long rss = getResidentMemory();
+			String rssPerClient = (rss < 0 || rssBefore < 0) ? "n/a" : ((rss - rssBefore) / bots.size() / 1024) + "KB";
+
+			return String.format("%-9s %4d/%-4d %8d %8dKB %10s %s", mode, bots.getPlaying(), bots.size(), threads,
+					heapPerClient / 1024, rssPerClient, jitterSummary);
+		} finally{
+			host.stop();
+			bots.close();
+			serverThread.join(TimeUnit.SECONDS.toMillis(5));
+		}
+	}
+
+	/**
+	 * Used to get the amount of heap in use, after collecting as much garbage as possible.
+	 * @param bots The bots to keep pumping while waiting for the collections, so the server doesn't
+	 * think they've gone, or null if there aren't any yet
+	 * @return The used heap in bytes
+	 */
+	private static long getUsedHeap(Bots bots) throws IOException, InterruptedException{
+		Runtime runtime = Runtime.getRuntime();
+		for(int collection = 0; collection < 3; collection++){
+			System.gc();
+			if(bots == null){
+				Thread.sleep(100);
+				continue;
+			}
+			long endTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+			while(System.nanoTime() < endTime) bots.pump(1);
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Used to get the amount of memory the process has resident, which includes thread stacks.
+	 * Only works on Linux.
+	 * @return The resident memory in bytes, or -1 if it isn't known
+	 */
+	private static long getResidentMemory(){
+		try(BufferedReader reader = new BufferedReader(new FileReader("/proc/self/status"))){
+			String line;
+			while((line = reader.readLine()) != null){
+				if(line.startsWith("VmRSS:")) return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+			}
+		} catch(IOException | NumberFormatException e){ }
+		return -1;
+	}
+
+	/**
+	 * The bot clients, all driven by one selector so that they use as little as possible of
+	 * what's being measured.
+	 */
+	private static class Bots{
+
+		// The number of bots
+		private final int count;
+		// The selector every bot is registered with
+		private final Selector selector;
+		// Every bot's connection
+		private final ArrayList<Bot> bots = new ArrayList<Bot>();
+		// The number of bots whose match has started, and the number the server has disconnected
+		private int started = 0, dropped = 0;
+
+		// When the bots next move their paddles, and the number of times they've moved
+		private long nextMoveTime = System.nanoTime();
+		private int moves = 0;
+		// When the bots next ping the server
+		private long nextPingTime = System.nanoTime();
+
+		/**
+		 * Creates the bots, ready to connect.
+		 * @param count The number of bots
+		 */
+		Bots(int count) throws IOException{
+			this.count = count;
+			this.selector = Selector.open();
+		}
+
+		/**
+		 * Starts connecting every bot to the server. The connections are finished by pump, so a
+		 * full accept backlog can't hold up the bots that are already playing.
+		 * @param address The server's address
+		 */
+		void connect(InetSocketAddress address) throws IOException{
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(START_TIMEOUT_SECONDS);
+			for(int index = 0; index < count; index++){
+				// Let the server catch up before connecting any more
+				while(index - started >= MAX_WAITING_BOTS){
+					if(System.nanoTime() - deadline > 0) throw new IOException("Timed out waiting for matches to start");
+					pump(1);
+				}
+
+				SocketChannel channel = SocketChannel.open();
+				channel.configureBlocking(false);
+				Bot bot = new Bot(channel);
+				boolean connected = channel.connect(address);
+				channel.register(selector, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, bot);
+				bots.add(bot);
+
+				// Keep up with what the server's sending, and keep pinging, while the rest connect
+				pump(0);
+			}
+		}
+
+		/**
+		 * Finishes any connections that are ready, reads everything the server has sent, and pings
+		 * the server and moves the bots' paddles if it's time to. Any bot the server disconnects
+		 * is dropped, and the rest carry on.
+		 * @param timeout The longest to wait for something to read, in milliseconds, or 0 to not wait
+		 */
+		void pump(long timeout) throws IOException{
+			if(timeout > 0) selector.select(timeout);
+			else selector.selectNow();
+
+			for(SelectionKey key : selector.selectedKeys()){
+				Bot bot = (Bot)key.attachment();
+				try{
+					if(key.isConnectable()){
+						if(bot.channel.finishConnect()) key.interestOps(SelectionKey.OP_READ);
+					}
+					else if(bot.read()) started++;
+				} catch(IOException ioe){
+					drop(bot);
+				}
+			}
+			selector.selectedKeys().clear();
+
+			long now = System.nanoTime();
+			boolean ping = now - nextPingTime >= 0;
+			boolean move = now - nextMoveTime >= 0;
+			if(ping) nextPingTime = now + NetworkStats.PING_INTERVAL;
+			if(move){
+				nextMoveTime = now + (TimeUnit.SECONDS.toNanos(1) * BOT_MOVE_TICKS / 60);
+				moves++;
+			}
+			if(!ping && !move) return;
+
+			for(Bot bot : bots){
+				try{
+					if(ping) bot.ping(now);
+					if(move) bot.move(moves);
+				} catch(IOException ioe){
+					drop(bot);
+				}
+			}
+		}
+
+		/**
+		 * Disconnects a bot the server has disconnected or stopped accepting frames from.
+		 * @param bot The bot
+		 */
+		private void drop(Bot bot){
+			if(bot.dropped) return;
+			bot.dropped = true;
+			dropped++;
+			try{
+				bot.channel.close();
+			} catch(IOException ioe){ }
+		}
+
+		/**
+		 * Used to get the number of bots.
+		 * @return The number of bots
+		 */
+		int size(){
+			return count;
+		}
+
+		/**
+		 * Used to get the number of bots whose match has started.
+		 * @return The number of bots playing
+		 */
+		int getStarted(){
+			return started;
+		}
+
+		/**
+		 * Used to get the number of bots whose match has started and who are still connected.
+		 * @return The number of bots still playing
+		 */
+		int getPlaying(){
+			return started - dropped;
+		}
+
+		/**
+		 * Disconnects every bot.
+		 */
+		void close() throws IOException{
+			for(Bot bot : bots) bot.channel.close();
+			selector.close();
+		}
+
+	}
+
+	/**
+	 * A single bot client.
+	 */
+	private static class Bot{
+
+		// The bot's connection to the server
+		final SocketChannel channel;
+		// The bytes received but not yet decoded
+		private final ByteBuffer inbound = ByteBuffer.allocate(Frames.MAX_FRAME_SIZE * 16);
+		// Decodes the frames received
+		private final FrameReader reader = new FrameReader(null);
+		// Encodes the frames sent
+		private final FrameWriter writer;
+		// Whether the bot's match has started
+		private boolean started = false;
+		// Whether the server has disconnected the bot
+		boolean dropped = false;
+		// The number of snapshots received since the bot last acknowledged one
+		private int snapshotsSinceAck = 0;
+		// The input sent each time the bot moves
+		private final Direction[] moveInput = new Direction[1];
+		// The sequence number of the next ping
+		private int pingSequence = 0;
+
+		/**
+		 * Creates a bot for a connection.
+		 * @param channel The connection, in non-blocking mode
+		 */
+		Bot(SocketChannel channel){
+			this.channel = channel;
+			this.writer = new FrameWriter(channel);
+		}
+
+		/**
+		 * Reads everything the server has sent, sending the hello back when it arrives and
+		 * acknowledging snapshots as often as the game does.
+		 * @return Returns true if the bot's match has just started
+		 */
+		boolean read() throws IOException{
+			boolean justStarted = false;
+			if(channel.read(inbound) < 0) throw new EOFException("Server closed the connection");
+
+			inbound.flip();
+			while(FrameReader.hasWholeFrame(inbound)){
+				MessageType type = reader.decodeFrame(inbound);
+				if(type == MessageType.HELLO && !started){
+					writer.writeHello(reader.getSessionId());
+					started = true;
+					justStarted = true;
+				}
+				else if(type == MessageType.SNAPSHOT && ++snapshotsSinceAck >= NetworkCommunications.ACK_INTERVAL_TICKS){
+					writer.writeSnapshotAck(reader.getSequence());
+					snapshotsSinceAck = 0;
+				}
+			}
+			inbound.compact();
+			return justStarted;
+		}
+
+		/**
+		 * Sends an input moving the bot's paddle.
+		 * @param move The number of times the bots have moved
+		 */
+		void move(int move) throws IOException{
+			if(!started || dropped) return;
+
+			// Each move stands in for the inputs since the last one, which didn't move the paddle
+			moveInput[0] = (move % 2 == 0) ? Direction.UP : Direction.DOWN;
+			writer.writeInputs((move * BOT_MOVE_TICKS) & 0xFFFF, moveInput, 1, -1);
+		}
+
+		/**
+		 * Pings the server, so it knows the bot is still there. The pongs are ignored.
+		 * @param now The current time, from System.nanoTime()
+		 */
+		void ping(long now) throws IOException{
+			if(!started || dropped) return;
+
+			writer.writePing(pingSequence, now);
+			pingSequence = (pingSequence + 1) & 0xFFFF;
+		}
+
+	}
+
+}
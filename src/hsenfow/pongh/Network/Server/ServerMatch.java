@@ -0,0 +1,234 @@
+package hsenfow.pongh.Network.Server;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import hsenfow.pongh.Utils;
+import hsenfow.pongh.Entities.Paddle;
+import hsenfow.pongh.Network.Protocol.FrameReader;
+import hsenfow.pongh.Network.Protocol.Frames;
+import hsenfow.pongh.Network.Protocol.MessageType;
+import hsenfow.pongh.Network.Protocol.NetworkStats;
+import hsenfow.pongh.Simulation.Court;
+
+/**
+ * A match being played on the match server between two clients. The server decides where
+ * everything is: each client sends its inputs, which the server applies to its paddle, and every
+ * few ticks each client is sent a snapshot of the court as changes from the newest one it has
+ * acknowledged. Both clients see themselves as player one on the left, so everything sent to
+ * player two is mirrored. The match is ticked by one of the server's threads, and told about the
+ * frames its clients send by the thread reading them.
+ */
+class ServerMatch {
+
+	// The ID of the match's session, sent with every frame
+	final int sessionId;
+
+	// The server hosting the match
+	private final MatchHost host;
+	// The court being played on. Only used by the tick thread
+	private final Court court;
+	// The two clients, indexed by player number
+	private final ClientConnection[] players = new ClientConnection[2];
+
+	// The ID of each player's key press applied since the last snapshot, to be passed on to the
+	// other player, or -1. Only used by the tick thread
+	private final int[] inputIds = {-1, -1};
+	// The number of ticks since the last snapshots were sent. Only used by the tick thread
+	private int ticksSinceSnapshot = 0;
+
+	// Whether the match has ended
+	private final AtomicBoolean ended = new AtomicBoolean(false);
+
+	/**
+	 * Creates a match between two clients.
+	 * @param host The server hosting the match
+	 * @param sessionId The ID of the match's session
+	 * @param playerOne The first client
+	 * @param playerTwo The second client
+	 * @param width The width of the court
+	 * @param height The height of the court
+	 */
+	ServerMatch(MatchHost host, int sessionId, ClientConnection playerOne, ClientConnection playerTwo,
+			int width, int height){
+		this.host = host;
+		this.sessionId = sessionId;
+		this.court = new Court(width, height, sessionId);
+
+		players[Court.PLAYER_ONE] = playerOne;
+		players[Court.PLAYER_TWO] = playerTwo;
+		for(int player = 0; player < players.length; player++){
+			players[player].player = player;
+			players[player].match = this;
+		}
+	}
+
+	/**
+	 * Sends both clients the session ID, starting the match once they send it back. A client that
+	 * doesn't send it back within PEER_TIMEOUT ends the match.
+	 */
+	void start() throws IOException{
+		long now = System.nanoTime();
+		for(ClientConnection player : players) player.lastReceiveTime = now;
+		for(ClientConnection player : players){
+			player.writer.writeHello(sessionId);
+			host.flush(player);
+		}
+	}
+
+	/**
+	 * Handles the frame just received from one of the match's clients. Called by whichever thread
+	 * reads from the client.
+	 * @param client The client
+	 */
+	void frameReceived(ClientConnection client) throws IOException{
+		FrameReader frame = client.reader;
+		if(ended.get()) return;
+		if(frame.getSessionId() != sessionId) throw new IOException("Wrong session: " + frame.getSessionId());
+
+		// The first frame must be the hello sent back
+		if(!client.helloReceived){
+			if(frame.getType() != MessageType.HELLO
+					|| frame.getProtocolVersion() != Frames.PROTOCOL_VERSION){
+				throw new IOException("Invalid hello returned by client: " + frame.getType());
+			}
+			client.lastReceiveTime = System.nanoTime();
+			client.helloReceived = true;
+			return;
+		}
+		client.lastReceiveTime = System.nanoTime();
+
+		ClientConnection opponent = getOpponent(client.player);
+		switch(frame.getType()){
+		case PLAYER_INPUT:{
+			// Keep the inputs until the next tick, ignoring any we already have
+			client.inputs.received(frame);
+			break;
+		}
+		case SNAPSHOT_ACK:{
+			client.snapshots.acknowledged(frame.getSequence());
+			break;
+		}
+		case INPUT_ACK:{
+			// The client has applied one of its opponent's key presses, so pass that on
+			opponent.writer.writeInputAck(frame.getInputId());
+			host.flush(opponent);
+			break;
+		}
+		case PLAYER_MESSAGE:{
+			opponent.writer.writePlayerMessage(frame.getText());
+			host.flush(opponent);
+			break;
+		}
+		case PING:{
+			// Reply straight away, so the client can measure its round trip time
+			client.writer.writePong(frame.getSequence(), frame.getTimestamp(), 0);
+			host.flush(client);
+			break;
+		}
+		case DISCONNECT:{
+			host.endMatch(this, client, "Client left the match");
+			break;
+		}
+		default:{
+			Utils.log("Unexpected message from client: " + frame.getType());
+			break;
+		}
+		}
+	}
+
+	/**
+	 * Used to get the given player's opponent.
+	 * @param player The player's number
+	 * @return The opponent's connection
+	 */
+	ClientConnection getOpponent(int player){
+		return players[1 - player];
+	}
+
+	/**
+	 * Used to check whether the match has ended.
+	 * @return Returns true if the match has ended
+	 */
+	boolean hasEnded(){
+		return ended.get();
+	}
+
+	/**
+	 * Updates the match by one tick, sending a snapshot to both clients every
+	 * SNAPSHOT_INTERVAL_TICKS. Nothing happens until both clients have confirmed the session.
+	 * @return Returns false if the match has ended
+	 */
+	boolean tick(){
+		if(ended.get()) return false;
+
+		// If either client has gone quiet, then it has gone even if its connection is still open.
+		// This includes never sending the hello back
+		long now = System.nanoTime();
+		for(ClientConnection player : players){
+			if(now - player.lastReceiveTime > NetworkStats.PEER_TIMEOUT){
+				host.endMatch(this, null, player.helloReceived ? "Client stopped responding" : "Client didn't confirm the session");
+				return false;
+			}
+		}
+		if(!players[0].helloReceived || !players[1].helloReceived) return true;
+
+		try{
+			// Move the paddles for the inputs received since the last tick, then move the ball
+			for(int player = 0; player < players.length; player++){
+				int inputId = players[player].inputs.apply(court, getPaddle(player));
+				if(inputId >= 0) inputIds[player] = inputId;
+			}
+			court.updateBall();
+			if(++ticksSinceSnapshot < Frames.SNAPSHOT_INTERVAL_TICKS) return true;
+			ticksSinceSnapshot = 0;
+
+			// Send each player a snapshot, passing on their opponent's latest key press and
+			// telling them which of their inputs have been applied
+			for(int player = 0; player < players.length; player++){
+				ClientConnection client = players[player];
+				client.snapshots.next().capture(court, player, inputIds[1 - player], client.inputs.getAppliedSequence());
+				client.snapshots.send(client.writer);
+			}
+			inputIds[Court.PLAYER_ONE] = -1;
+			inputIds[Court.PLAYER_TWO] = -1;
+
+			host.flush(players[Court.PLAYER_ONE]);
+			host.flush(players[Court.PLAYER_TWO]);
+		} catch(IOException ioe){
+			host.endMatch(this, null, "Error sending to client: " + ioe.getMessage());
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Used to get a player's paddle.
+	 * @param player The player's number
+	 * @return The paddle
+	 */
+	private Paddle getPaddle(int player){
+		return (player == Court.PLAYER_ONE) ? court.paddleOne : court.paddleTwo;
+	}
+
+	/**
+	 * Ends the match, telling every client that didn't leave and closing both connections.
+	 * @param leaver The client that left the match, or null if neither did
+	 * @return Returns false if the match had already ended
+	 */
+	boolean end(ClientConnection leaver){
+		if(!ended.compareAndSet(false, true)) return false;
+
+		for(ClientConnection player : players){
+			if(player != leaver && player.isOpen()){
+				try{
+					player.writer.writeDisconnect();
+					player.flush();
+				} catch(IOException ioe){ }
+			}
+			player.close();
+		}
+		return true;
+	}
+
+}
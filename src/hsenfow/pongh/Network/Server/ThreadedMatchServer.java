@@ -0,0 +1,339 @@
+package hsenfow.pongh.Network.Server;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import hsenfow.pongh.Utils;
+import hsenfow.pongh.Engine.GameLoop;
+import hsenfow.pongh.Engine.LatencyHistogram;
+import hsenfow.pongh.Network.NetworkUtils;
+import hsenfow.pongh.Network.Threads.ServerThread;
+
+/**
+ * A match server that gives every match its own thread, and every client one thread for reading
+ * and one for writing, which simply block while they wait, the same way the game's own network
+ * thread does. A match thread never writes to a socket itself, so a slow client only holds up its
+ * own writing thread. On Java 21 or later these are
+ * virtual threads, which cost next to nothing while they wait, so idle and slow clients don't
+ * need a platform thread each. On older versions (or if asked to) platform threads are used.
+ *
+ * Usage: ThreadedMatchServer [--port=N] [--threads=virtual|platform]
+ */
+public final class ThreadedMatchServer implements MatchHost{
+
+	// The most ticks a match can fall behind before it skips the ticks it missed
+	private static final int MAX_TICKS_BEHIND = 5;
+
+	// Thread.startVirtualThread(Runnable), or null if this version of Java doesn't have it
+	private static final Method START_VIRTUAL_THREAD = findStartVirtualThread();
+
+	// The port the server listens on
+	private final int port;
+	// Whether virtual threads are being used
+	private final boolean virtualThreads;
+
+	// Whether the server should keep running
+	private volatile boolean running = true;
+	// The server socket's channel, once it's open
+	private volatile ServerSocketChannel serverChannel = null;
+	// Every client that's connected, so they can be closed when the server stops
+	private final Set<ClientConnection> clients = ConcurrentHashMap.newKeySet();
+
+	// The client waiting for an opponent, or null. Guarded by the server
+	private ClientConnection waitingClient = null;
+
+	// The number of matches being played and the number that have been played in total
+	private final AtomicInteger activeMatches = new AtomicInteger();
+	private final AtomicInteger totalMatches = new AtomicInteger();
+	// How late each match started each tick
+	private final LatencyHistogram tickJitter = new LatencyHistogram("Tick lateness");
+
+	/**
+	 * Runs the server from the command line.
+	 * @param args The settings to use, in the form --name=value
+	 */
+	public static void main(String[] args){
+		int port = ServerThread.DEFAULT_PORT;
+		boolean virtualThreads = true;
+		for(String arg : args){
+			try{
+				if(arg.startsWith("--port=")) port = Integer.parseInt(arg.substring("--port=".length()));
+				else if(arg.equals("--threads=virtual")) virtualThreads = true;
+				else if(arg.equals("--threads=platform")) virtualThreads = false;
+				else throw new NumberFormatException();
+			} catch(NumberFormatException nfe){
+				Utils.log("Invalid argument: " + arg);
+				return;
+			}
+		}
+
+		try{
+			new ThreadedMatchServer(port, virtualThreads).run();
+		} catch(IOException ioe){
+			Utils.log("Error running match server: " + ioe.getMessage());
+		}
+	}
+
+	/**
+	 * Creates a server with the given settings.
+	 * @param port The port to listen on
+	 * @param virtualThreads Whether to use virtual threads. If they aren't available, then
+	 * platform threads are used instead
+	 */
+	public ThreadedMatchServer(int port, boolean virtualThreads){
+		this.port = port;
+		if(virtualThreads && START_VIRTUAL_THREAD == null){
+			Utils.log("Virtual threads need Java 21 or later, using platform threads");
+			virtualThreads = false;
+		}
+		this.virtualThreads = virtualThreads;
+	}
+
+	/**
+	 * Used to check whether this version of Java has virtual threads.
+	 * @return Returns true if virtual threads can be used
+	 */
+	public static boolean isVirtualThreadsAvailable(){
+		return START_VIRTUAL_THREAD != null;
+	}
+
+	/**
+	 * Looks up Thread.startVirtualThread, which was added in Java 21.
+	 * @return The method, or null if it doesn't exist
+	 */
+	private static Method findStartVirtualThread(){
+		try{
+			return Thread.class.getMethod("startVirtualThread", Runnable.class);
+		} catch(NoSuchMethodException nsme){
+			return null;
+		}
+	}
+
+	/**
+	 * Accepts clients until the server is stopped, giving each one a thread to read from it.
+	 * @throws IOException If the server socket couldn't be opened
+	 */
+	@Override
+	public void run() throws IOException{
+		try(ServerSocketChannel channel = ServerSocketChannel.open()){
+			channel.bind(new InetSocketAddress(port));
+			serverChannel = channel;
+			Utils.log("Threaded match server listening on port " + port + " using "
+					+ (virtualThreads ? "virtual" : "platform") + " threads");
+
+			while(running){
+				final ClientConnection client;
+				try{
+					SocketChannel clientChannel = channel.accept();
+					clientChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+					client = new ClientConnection(clientChannel);
+				} catch(IOException ioe){
+					if(running) Utils.log("Error accepting client: " + ioe.getMessage());
+					continue;
+				}
+				clients.add(client);
+
+				startThread("Client thread", new Runnable(){
+					@Override
+					public void run(){
+						readClient(client);
+					}
+				});
+				startThread("Client writer thread", new Runnable(){
+					@Override
+					public void run(){
+						writeClient(client);
+					}
+				});
+				pairClient(client);
+			}
+		} finally{
+			for(ClientConnection client : clients) client.close();
+		}
+	}
+
+	/**
+	 * Stops the server. Can be called by any thread.
+	 */
+	@Override
+	public void stop(){
+		running = false;
+
+		// Closing the channels wakes up every thread waiting on them
+		ServerSocketChannel channel = serverChannel;
+		if(channel != null){
+			try{
+				channel.close();
+			} catch(IOException ioe){ }
+		}
+		for(ClientConnection client : clients) client.close();
+	}
+
+	/**
+	 * Starts a thread, which is virtual if virtual threads are being used.
+	 * @param name The name of the thread, if it's a platform thread
+	 * @param runnable What the thread should run
+	 */
+	private void startThread(String name, Runnable runnable){
+		if(virtualThreads){
+			try{
+				START_VIRTUAL_THREAD.invoke(null, runnable);
+				return;
+			} catch(ReflectiveOperationException roe){
+				Utils.log("Error starting virtual thread: " + roe.toString());
+			}
+		}
+
+		Thread thread = new Thread(runnable, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Pairs a new client with the waiting client if there is one, and starts their match.
+	 * @param client The new client
+	 */
+	private void pairClient(ClientConnection client){
+		final ServerMatch match;
+		synchronized(this){
+			// If no one's waiting, then this client waits for the next one
+			if(waitingClient == null || !waitingClient.isOpen()){
+				waitingClient = client;
+				return;
+			}
+
+			match = new ServerMatch(this, NetworkUtils.generateSessionId(), waitingClient, client,
+					MatchServer.COURT_WIDTH, MatchServer.COURT_HEIGHT);
+			waitingClient = null;
+		}
+		activeMatches.incrementAndGet();
+		totalMatches.incrementAndGet();
+
+		try{
+			match.start();
+		} catch(IOException ioe){
+			endMatch(match, null, "Error starting match: " + ioe.getMessage());
+			return;
+		}
+		startThread("Match thread", new Runnable(){
+			@Override
+			public void run(){
+				playMatch(match);
+			}
+		});
+	}
+
+	/**
+	 * Reads from a client until it disconnects. Runs on the client's own thread.
+	 * @param client The client
+	 */
+	private void readClient(ClientConnection client){
+		String reason = "Client disconnected";
+		try{
+			while(client.read());
+		} catch(IOException ioe){
+			reason = "Error reading from client: " + ioe.getMessage();
+		}
+
+		clients.remove(client);
+		ServerMatch match = client.match;
+		if(match != null) endMatch(match, client, reason);
+		else{
+			client.close();
+			synchronized(this){
+				if(waitingClient == client) waitingClient = null;
+			}
+		}
+	}
+
+	/**
+	 * Writes to a client whenever its frames are flushed, until it disconnects. Runs on the
+	 * client's own writing thread.
+	 * @param client The client
+	 */
+	private void writeClient(ClientConnection client){
+		try{
+			client.drain();
+		} catch(IOException ioe){
+			// Closing the client makes its reading thread end the match
+			if(client.isOpen()) Utils.log("Error writing to client: " + ioe.getMessage());
+			client.close();
+		}
+	}
+
+	/**
+	 * Ticks a match at the game's tick rate until it ends. Runs on the match's own thread.
+	 * @param match The match
+	 */
+	private void playMatch(ServerMatch match){
+		long tickNanos = TimeUnit.SECONDS.toNanos(1) / GameLoop.TICK_RATE;
+		long nextTickTime = System.nanoTime();
+
+		while(running){
+			// If we've fallen too far behind, then don't try to catch up
+			long lateness = System.nanoTime() - nextTickTime;
+			tickJitter.record(Math.max(0, lateness));
+			if(lateness > tickNanos * MAX_TICKS_BEHIND) nextTickTime += lateness;
+
+			if(!match.tick()) return;
+
+			// Wait for the next tick
+			nextTickTime += tickNanos;
+			long waitTime;
+			while((waitTime = nextTickTime - System.nanoTime()) > 0) LockSupport.parkNanos(waitTime);
+		}
+		endMatch(match, null, "Server stopped");
+	}
+
+	/**
+	 * Asks a client's writing thread to send its waiting frames, without waiting for them to be
+	 * sent. A client that doesn't keep up fills its outbound buffer, and is disconnected.
+	 * @param client The client
+	 */
+	@Override
+	public void flush(ClientConnection client) throws IOException{
+		client.requestDrain();
+	}
+
+	/**
+	 * Ends a match, closing both clients' connections. Can be called by any thread.
+	 * @param match The match
+	 * @param leaver The client that left the match, or null if neither did
+	 * @param reason The reason the match ended
+	 */
+	@Override
+	public void endMatch(ServerMatch match, ClientConnection leaver, String reason){
+		if(match.end(leaver)){
+			activeMatches.decrementAndGet();
+			Utils.log("Match " + match.sessionId + " ended: " + reason);
+		}
+	}
+
+	/**
+	 * Used to get the number of matches being played.
+	 * @return The number of active matches
+	 */
+	@Override
+	public int getActiveMatches(){
+		return activeMatches.get();
+	}
+
+	/**
+	 * Used to get how late each match started each tick.
+	 * @return The histogram of tick lateness
+	 */
+	@Override
+	public LatencyHistogram getTickJitter(){
+		return tickJitter;
+	}
+
+}
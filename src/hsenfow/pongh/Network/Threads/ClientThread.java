@@ -1,14 +1,18 @@
 package hsenfow.pongh.Network.Threads;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
 
 import hsenfow.pongh.Utils;
 import hsenfow.pongh.Network.NetworkThread;
 import hsenfow.pongh.Network.NetworkUtils;
+import hsenfow.pongh.Network.Protocol.FrameReader;
+import hsenfow.pongh.Network.Protocol.FrameWriter;
+import hsenfow.pongh.Network.Protocol.Frames;
+import hsenfow.pongh.Network.Protocol.MessageType;
 
 public class ClientThread extends NetworkThread{
 	
@@ -32,28 +36,40 @@ public class ClientThread extends NetworkThread{
 			Utils.log("Connecting to server: " + host + ":" + port);
 			
 			// Connect to the server
-			NetworkUtils.clientSocket = new Socket(host, port);
+			SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+			NetworkUtils.clientSocket = channel.socket();
 			
-			// Create the socket writer
-			NetworkUtils.socketWriter = new PrintWriter(NetworkUtils.clientSocket.getOutputStream(), true);
+			// Everything sent during a tick is batched, so don't hold any of it back waiting for more
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
 			
-			// Create the socket reader
-			NetworkUtils.socketReader = new BufferedReader(new InputStreamReader(NetworkUtils.clientSocket.getInputStream()));
+			// Create the frame writer and reader
+			NetworkUtils.frameWriter = new FrameWriter(channel, true);
+			NetworkUtils.frameReader = new FrameReader(channel);
 			
-			// Get the key the server should give us
-			NetworkUtils.clientServerKey = NetworkUtils.socketReader.readLine();
+			// Get the hello the server should give us
+			MessageType hello = NetworkUtils.frameReader.readFrame();
+			int sessionId = NetworkUtils.frameReader.getSessionId();
 			
-			// Make sure the key is valid
-			if(NetworkUtils.clientServerKey == null || NetworkUtils.clientServerKey.length() != NetworkUtils.CLIENT_SERVER_KEY_LENGTH
-					|| NetworkUtils.clientServerKey.indexOf(NetworkUtils.CLIENT_SERVER_KEY_PREFIX) != 0){
+			// Make sure the hello is valid
+			if(hello != MessageType.HELLO || sessionId == Frames.NO_SESSION
+					|| NetworkUtils.frameReader.getProtocolVersion() != Frames.PROTOCOL_VERSION){
 				// We're not connected to a proper server
-				Utils.log("Invalid key returned by server: " + NetworkUtils.clientServerKey);
+				Utils.log("Invalid hello returned by server: " + hello);
 				NetworkUtils.connected = false;
 			}
 			else{
-				// The key is valid, so send it back to the server so it knows we got it
-				NetworkUtils.socketWriter.println(NetworkUtils.clientServerKey);
+				// The hello is valid, so send it back to the server so it knows we got it, and use
+				// whichever netcode the server chose
+				int netcode = NetworkUtils.frameReader.getNetcode();
+				NetworkUtils.frameWriter.writeHello(sessionId, netcode);
+				NetworkUtils.frameWriter.flush();
+				// Open a datagram channel to the server's UDP port, to send positions over once we
+				// know it works
+				openDatagramChannel();
+				
 				// We're connected and ready to play
+				NetworkUtils.sessionId = sessionId;
+				NetworkUtils.rollback = (netcode == Frames.NETCODE_ROLLBACK);
 				NetworkUtils.connected = true;
 				
 				Utils.log("Connected");
@@ -63,4 +79,23 @@ public class ClientThread extends NetworkThread{
 		}
 	}
 	
+	/**
+	 * Opens a datagram channel to the server. If it can't be opened then everything will just be
+	 * sent over TCP.
+	 */
+	private void openDatagramChannel(){
+		try{
+			DatagramChannel datagramChannel = DatagramChannel.open();
+			try{
+				datagramChannel.connect(new InetSocketAddress(host, port));
+				NetworkUtils.datagramChannel = datagramChannel;
+			} catch(IOException ioe){
+				datagramChannel.close();
+				throw ioe;
+			}
+		} catch(IOException ioe){
+			Utils.log("Unable to open UDP channel, using TCP only: " + ioe.getMessage());
+		}
+	}
+	
 }
@@ -0,0 +1,204 @@
+package hsenfow.pongh.Network.Threads;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+import hsenfow.pongh.Utils;
+import hsenfow.pongh.Network.NetworkCommunications;
+import hsenfow.pongh.Network.NetworkUtils;
+import hsenfow.pongh.Network.Protocol.FrameReader;
+import hsenfow.pongh.Network.Protocol.FrameWriter;
+import hsenfow.pongh.Network.Protocol.Frames;
+import hsenfow.pongh.Network.Protocol.MessageType;
+
+/**
+ * Receives positions over UDP for as long as we're connected. Before any positions are sent over
+ * UDP, the client sends hellos through the datagram channel until the server sends one back. The
+ * server only starts sending positions over UDP once one arrives from the client, so both sides
+ * know that UDP works in both directions. If it doesn't, or it stops working later on, everything
+ * is sent over TCP, and the client tries UDP again every so often.
+ */
+public class DatagramThread extends Thread{
+
+	// The time between each hello the client sends while waiting for one back from the server
+	private static final int HELLO_RETRY_MILLIS = 250;
+	// The number of hellos the client sends before giving up on UDP
+	private static final int MAX_HELLO_ATTEMPTS = 12;
+	// The time between each try at UDP again, once the client has given up on it
+	private static final int UDP_RETRY_MILLIS = 10000;
+
+	// The channel positions are received through
+	private final DatagramChannel channel;
+	// Whether we're the server
+	private final boolean isServer;
+
+	// The latest datagram received
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(Frames.MAX_FRAME_SIZE);
+	// Decodes the latest datagram received
+	private final FrameReader reader = new FrameReader(null);
+
+	// The number of hellos the client has sent, and when the latest one was sent
+	private int helloAttempts = 0;
+	private long lastHelloTime = 0;
+
+	/**
+	 * Creates the thread, ready to receive through the given channel.
+	 * @param channel The datagram channel. The client's should already be connected to the server
+	 * @param isServer Whether we're the server
+	 */
+	public DatagramThread(DatagramChannel channel, boolean isServer){
+		super("Datagram thread");
+		this.channel = channel;
+		this.isServer = isServer;
+		setDaemon(true);
+	}
+
+	/**
+	 * Receives datagrams until we disconnect or UDP stops working.
+	 */
+	@Override
+	public void run(){
+		try(Selector selector = Selector.open()){
+			channel.configureBlocking(false);
+			channel.register(selector, SelectionKey.OP_READ);
+
+			// The client's datagram channel is already connected to the server
+			if(!isServer) NetworkUtils.datagramWriter = new FrameWriter(channel, true);
+
+			while(NetworkUtils.connected && channel.isOpen()){
+				if(!isServer) sendHello();
+
+				selector.select(HELLO_RETRY_MILLIS);
+				selector.selectedKeys().clear();
+
+				// Handle every frame in every datagram that has arrived
+				SocketAddress sender;
+				while((sender = receive()) != null){
+					while(buffer.hasRemaining() && handleFrame(sender));
+				}
+			}
+		} catch(IOException ioe){
+			// If the channel was closed, then we've just disconnected
+			if(channel.isOpen()){
+				Utils.log("UDP stopped working, falling back to TCP: " + ioe.toString());
+			}
+		}
+
+		NetworkUtils.udpReady = false;
+	}
+
+	/**
+	 * Sends a hello to the server if UDP isn't working and it's time to try again.
+	 */
+	private void sendHello() throws IOException{
+		if(NetworkUtils.udpReady){
+			helloAttempts = 0;
+			return;
+		}
+
+		// Once the client has given up, try again every so often in case UDP has been unblocked
+		long now = System.currentTimeMillis();
+		if(helloAttempts > MAX_HELLO_ATTEMPTS){
+			if(now - lastHelloTime < UDP_RETRY_MILLIS) return;
+			helloAttempts = 0;
+		}
+		if(now - lastHelloTime < HELLO_RETRY_MILLIS) return;
+		lastHelloTime = now;
+
+		if(helloAttempts++ == MAX_HELLO_ATTEMPTS){
+			Utils.log("No UDP response from server, using TCP only");
+			return;
+		}
+		NetworkUtils.datagramWriter.writeHello(NetworkUtils.sessionId);
+		NetworkUtils.datagramWriter.flush();
+	}
+
+	/**
+	 * Receives the next datagram, if there is one.
+	 * @return The address the datagram came from, or null if there isn't one
+	 */
+	private SocketAddress receive() throws IOException{
+		buffer.clear();
+		SocketAddress sender = channel.receive(buffer);
+		buffer.flip();
+		return sender;
+	}
+
+	/**
+	 * Decodes and handles the next frame in the latest datagram received.
+	 * @param sender The address the datagram came from
+	 * @return Returns false if the rest of the datagram should be ignored
+	 */
+	private boolean handleFrame(SocketAddress sender) throws IOException{
+		// Anyone can send us a datagram, so just ignore any that aren't valid or for this session
+		MessageType type;
+		try{
+			type = reader.decodeFrame(buffer);
+		} catch(IOException ioe){
+			Utils.log("Invalid datagram from " + sender + ": " + ioe.getMessage());
+			return false;
+		}
+		if(reader.getSessionId() != NetworkUtils.sessionId) return false;
+
+		if(type == MessageType.HELLO){
+			if(reader.getProtocolVersion() != Frames.PROTOCOL_VERSION) return true;
+			NetworkCommunications.getStats().messageReceived(reader.getFrameLength(), System.nanoTime(), true);
+
+			if(isServer){
+				// The session ID is short enough to guess, so only take a hello from the same
+				// address as the client's TCP connection
+				if(!isFromClient(sender)){
+					Utils.log("Ignoring UDP hello from " + sender);
+					return false;
+				}
+
+				// Only accept datagrams from the client from now on, and send the hello back so
+				// it knows UDP works
+				if(!channel.isConnected()){
+					channel.connect(sender);
+					FrameWriter writer = new FrameWriter(channel, true);
+					writer.setSessionId(NetworkUtils.sessionId);
+					NetworkUtils.datagramWriter = writer;
+				}
+				NetworkUtils.datagramWriter.writeHello(NetworkUtils.sessionId);
+				NetworkUtils.datagramWriter.flush();
+			}
+			else if(!NetworkUtils.udpReady){
+				// The server got our hello and we got its one, so UDP works both ways
+				Utils.log("Sending positions over UDP");
+				NetworkUtils.udpReady = true;
+			}
+		}
+		else if(type.isState()){
+			NetworkCommunications.receiveMessage(reader, true);
+
+			// The client only sends positions over UDP once it's had our hello, so UDP works both ways
+			if(isServer && !NetworkUtils.udpReady && channel.isConnected()){
+				Utils.log("Sending positions over UDP");
+				NetworkUtils.udpReady = true;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Used to check whether a datagram came from the same address as the client's TCP connection.
+	 * @param sender The address the datagram came from
+	 * @return Returns true if the datagram came from the client's address
+	 */
+	private static boolean isFromClient(SocketAddress sender){
+		Socket clientSocket = NetworkUtils.clientSocket;
+		if(clientSocket == null || !(sender instanceof InetSocketAddress)) return false;
+
+		InetAddress clientAddress = clientSocket.getInetAddress();
+		return clientAddress != null && clientAddress.equals(((InetSocketAddress)sender).getAddress());
+	}
+
+}
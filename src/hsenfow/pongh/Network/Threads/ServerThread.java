@@ -1,14 +1,21 @@
 package hsenfow.pongh.Network.Threads;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 
+import hsenfow.pongh.Settings;
 import hsenfow.pongh.Utils;
+import hsenfow.pongh.Settings.Setting;
 import hsenfow.pongh.Network.NetworkThread;
 import hsenfow.pongh.Network.NetworkUtils;
+import hsenfow.pongh.Network.Protocol.FrameReader;
+import hsenfow.pongh.Network.Protocol.FrameWriter;
+import hsenfow.pongh.Network.Protocol.Frames;
+import hsenfow.pongh.Network.Protocol.MessageType;
 
 public class ServerThread extends NetworkThread{
 	
@@ -22,7 +29,29 @@ public class ServerThread extends NetworkThread{
 	 */
 	public ServerThread() throws IOException{
 		// Create the server socket
-		NetworkUtils.serverSocket = new ServerSocket(DEFAULT_PORT);
+		ServerSocketChannel serverChannel = ServerSocketChannel.open();
+		try{
+			serverChannel.bind(new InetSocketAddress(DEFAULT_PORT));
+		} catch(IOException ioe){
+			serverChannel.close();
+			throw ioe;
+		}
+		NetworkUtils.serverSocket = serverChannel.socket();
+		
+		// Create the datagram channel on the same port. If it can't be opened then everything
+		// will just be sent over TCP
+		try{
+			DatagramChannel datagramChannel = DatagramChannel.open();
+			try{
+				datagramChannel.bind(new InetSocketAddress(DEFAULT_PORT));
+				NetworkUtils.datagramChannel = datagramChannel;
+			} catch(IOException ioe){
+				datagramChannel.close();
+				throw ioe;
+			}
+		} catch(IOException ioe){
+			Utils.log("Unable to open UDP port, using TCP only: " + ioe.getMessage());
+		}
 	}
 	
 	/**
@@ -33,27 +62,35 @@ public class ServerThread extends NetworkThread{
 			Utils.log("Starting server");
 			
 			// Wait for a client
-			NetworkUtils.clientSocket = NetworkUtils.serverSocket.accept();
+			SocketChannel channel = NetworkUtils.serverSocket.getChannel().accept();
+			NetworkUtils.clientSocket = channel.socket();
 			
-			// Create the socket writer
-			NetworkUtils.socketWriter = new PrintWriter(NetworkUtils.clientSocket.getOutputStream(), true);
+			// Everything sent during a tick is batched, so don't hold any of it back waiting for more
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
 			
-			// Create the socket reader
-			NetworkUtils.socketReader = new BufferedReader(new InputStreamReader(NetworkUtils.clientSocket.getInputStream()));
+			// Create the frame writer and reader
+			NetworkUtils.frameWriter = new FrameWriter(channel, true);
+			NetworkUtils.frameReader = new FrameReader(channel);
 			
-			// Generate and share client-server key
-			NetworkUtils.clientServerKey = NetworkUtils.generateKey();
-			NetworkUtils.socketWriter.println(NetworkUtils.clientServerKey);
+			// Generate and share the session ID, along with the netcode to use
+			int sessionId = NetworkUtils.generateSessionId();
+			int netcode = Settings.NETCODE_ROLLBACK.equals(Settings.getSettingValue(Setting.NETCODE))
+					? Frames.NETCODE_ROLLBACK : Frames.NETCODE_SERVER;
+			NetworkUtils.frameWriter.writeHello(sessionId, netcode);
+			NetworkUtils.frameWriter.flush();
 			
-			// Wait for a response from the client, telling us that it got the key
-			String response = NetworkUtils.socketReader.readLine();
-			// If the response isn't the key we sent, then something went wrong
-			if(response == null || !response.equals(NetworkUtils.clientServerKey)){
-				Utils.log("Invalid key returned by client: " + NetworkUtils.clientServerKey);
+			// Wait for a response from the client, telling us that it got the session ID
+			MessageType response = NetworkUtils.frameReader.readFrame();
+			// If the response isn't for the session we sent, then something went wrong
+			if(response != MessageType.HELLO || NetworkUtils.frameReader.getSessionId() != sessionId
+					|| NetworkUtils.frameReader.getProtocolVersion() != Frames.PROTOCOL_VERSION){
+				Utils.log("Invalid hello returned by client: " + response);
 				NetworkUtils.connected = false;
 			}
 			else{
 				// We're connected and ready to play
+				NetworkUtils.sessionId = sessionId;
+				NetworkUtils.rollback = (netcode == Frames.NETCODE_ROLLBACK);
 				NetworkUtils.connected = true;
 				
 				Utils.log("Connected");
@@ -0,0 +1,162 @@
+package hsenfow.pongh.Rendering;
+
+import java.awt.Component;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Toolkit;
+import java.awt.image.VolatileImage;
+
+/**
+ * An accelerated offscreen buffer used to actively render a component. Everything is drawn into
+ * the buffer first, then the buffer is copied onto the component in one go, so the component
+ * never shows a half-drawn frame.
+ */
+public class BackBuffer {
+
+	// The component the buffer is shown on
+	private final Component component;
+
+	// The accelerated image everything is drawn into
+	private VolatileImage image = null;
+
+	// Whether anti-aliasing should be enabled when drawing into the buffer
+	private final boolean antialiasing;
+
+	// Whether the buffer's contents have been lost (or never drawn) since the last frame was shown
+	private boolean contentsReset = true;
+
+	/**
+	 * Creates a back buffer for the given component. The image itself isn't created until the
+	 * first frame is drawn.
+	 * @param component The component the buffer will be shown on
+	 * @param antialiasing Whether to enable anti-aliasing
+	 */
+	public BackBuffer(Component component, boolean antialiasing){
+		this.component = component;
+		this.antialiasing = antialiasing;
+	}
+
+	/**
+	 * Prepares the buffer for a new frame, (re)creating the image if it has been lost or the
+	 * component's size has changed.
+	 * @return The graphics object to draw the frame with, or null if the component can't be drawn
+	 * to yet. This must be disposed of once the frame has been drawn
+	 */
+	public Graphics2D begin(){
+		// Make sure the component is actually displayable
+		GraphicsConfiguration graphicsConfiguration = component.getGraphicsConfiguration();
+		int width = component.getWidth(), height = component.getHeight();
+		if(graphicsConfiguration == null || width <= 0 || height <= 0) return null;
+
+		// Create the image if we don't have one, it's the wrong size or it's no longer compatible
+		// with the screen (e.g. the window was moved to another monitor)
+		int status = (image == null) ? VolatileImage.IMAGE_INCOMPATIBLE : image.validate(graphicsConfiguration);
+		if(status == VolatileImage.IMAGE_INCOMPATIBLE || image.getWidth() != width || image.getHeight() != height){
+			if(image != null) image.flush();
+			image = graphicsConfiguration.createCompatibleVolatileImage(width, height);
+			contentsReset = true;
+		}
+		// If the image had to be restored then its previous contents are gone
+		else if(status == VolatileImage.IMAGE_RESTORED){
+			contentsReset = true;
+		}
+
+		// Create the graphics object for the frame
+		Graphics2D graphics = image.createGraphics();
+		applyRenderingHints(graphics, antialiasing);
+		return graphics;
+	}
+
+	/**
+	 * Used to check whether the buffer's previous contents have been lost, meaning the whole frame
+	 * needs to be drawn rather than just the parts that changed.
+	 * @return Whether the contents have been lost since the last frame was shown
+	 */
+	public boolean isContentsReset(){
+		return contentsReset;
+	}
+
+	/**
+	 * Copies the whole buffer onto the component.
+	 * @return False if the buffer's contents were lost while drawing, in which case the frame
+	 * should be drawn again
+	 */
+	public boolean show(){
+		return show(null, 0);
+	}
+
+	/**
+	 * Copies the given regions of the buffer onto the component.
+	 * @param regions The regions to copy, or null to copy the whole buffer
+	 * @param count The number of regions to copy
+	 * @return False if the buffer's contents were lost while drawing, in which case the frame
+	 * should be drawn again
+	 */
+	public boolean show(Rectangle[] regions, int count){
+		if(image == null) return true;
+
+		// Draw the buffer onto the component
+		Graphics graphics = component.getGraphics();
+		if(graphics == null) return true;
+		try{
+			if(regions == null){
+				graphics.drawImage(image, 0, 0, null);
+			}
+			else{
+				for(int i = 0; i < count; i++){
+					Rectangle region = regions[i];
+					graphics.drawImage(image, region.x, region.y, region.x + region.width, region.y + region.height,
+							region.x, region.y, region.x + region.width, region.y + region.height, null);
+				}
+			}
+		} finally{
+			graphics.dispose();
+		}
+
+		// Make sure the frame is actually displayed now, rather than whenever the window system
+		// gets round to it
+		Toolkit.getDefaultToolkit().sync();
+
+		// If the contents were lost then the whole frame will need drawing again
+		contentsReset = image.contentsLost();
+		return !contentsReset;
+	}
+
+	/**
+	 * Draws the buffer's current contents with the given graphics object, e.g. when Swing asks
+	 * for the component to be repainted between frames.
+	 * @param graphics The graphics object to draw the buffer with
+	 * @return Whether there was anything to draw
+	 */
+	public boolean draw(Graphics graphics){
+		if(image == null || image.contentsLost()) return false;
+		graphics.drawImage(image, 0, 0, null);
+		return true;
+	}
+
+	/**
+	 * Releases the image used by the buffer.
+	 */
+	public void dispose(){
+		if(image != null){
+			image.flush();
+			image = null;
+		}
+	}
+
+	/**
+	 * Sets the rendering hints used to draw the game.
+	 * @param graphics The graphics object to set the hints on
+	 * @param antialiasing Whether to enable anti-aliasing
+	 */
+	public static void applyRenderingHints(Graphics2D graphics, boolean antialiasing){
+		graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+				antialiasing ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
+		graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+				antialiasing ? RenderingHints.VALUE_TEXT_ANTIALIAS_ON : RenderingHints.VALUE_TEXT_ANTIALIAS_OFF);
+	}
+
+}
@@ -0,0 +1,151 @@
+package hsenfow.pongh.Rendering;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * Composites each frame from the static court layer and the moving things drawn on top of it.
+ * Rather than redrawing the whole court every frame, only the areas that were drawn over in the
+ * last frame are restored from the court layer, and only the areas that changed are copied to the
+ * screen.
+ */
+public class Compositor {
+
+	// The most dirty regions recorded per frame. If more are marked then the whole frame is
+	// redrawn instead
+	private static final int MAX_DIRTY_REGIONS = 32;
+
+	// The amount each dirty region is grown by, so anti-aliased edges are covered too
+	private static final int DIRTY_PADDING = 2;
+
+	// The static court layer
+	private final CourtLayer courtLayer;
+
+	// The regions drawn over in the previous and current frames
+	private Rectangle[] previousRegions = createRegions(MAX_DIRTY_REGIONS);
+	private Rectangle[] currentRegions = createRegions(MAX_DIRTY_REGIONS);
+	private int previousCount = 0, currentCount = 0;
+
+	// The regions that need copying to the screen this frame (both the previous and current ones)
+	private final Rectangle[] flushRegions = createRegions(MAX_DIRTY_REGIONS * 2);
+	private int flushCount = 0;
+
+	// Whether the whole frame is being redrawn
+	private boolean fullRedraw = true;
+	// Whether more regions were marked than we can store, so the next frame must be redrawn fully
+	private boolean overflowed = false;
+
+	// The size of the frame being drawn
+	private int width, height;
+
+	/**
+	 * Creates a compositor that draws on top of the given court layer.
+	 * @param courtLayer The static court layer
+	 */
+	public Compositor(CourtLayer courtLayer){
+		this.courtLayer = courtLayer;
+	}
+
+	/**
+	 * Begins a frame by restoring the court everywhere something was drawn in the last frame.
+	 * @param graphics The graphics object for the back buffer
+	 * @param graphicsConfiguration The screen's graphics configuration
+	 * @param width The width of the frame
+	 * @param height The height of the frame
+	 * @param contentsReset Whether the back buffer's contents were lost since the last frame
+	 */
+	public void beginFrame(Graphics2D graphics, GraphicsConfiguration graphicsConfiguration, int width, int height,
+			boolean contentsReset){
+		this.width = width;
+		this.height = height;
+
+		// Make sure the court layer is up to date. If it was rebuilt, or we've lost track of what
+		// was drawn, everything has to be redrawn
+		boolean rebuilt = courtLayer.validate(graphicsConfiguration, width, height);
+		fullRedraw = contentsReset || rebuilt || overflowed;
+		overflowed = false;
+
+		BufferedImage courtImage = courtLayer.getImage();
+		flushCount = 0;
+		if(fullRedraw){
+			graphics.drawImage(courtImage, 0, 0, null);
+		}
+		else{
+			// Restore the court beneath everything drawn last frame
+			for(int i = 0; i < previousCount; i++){
+				Rectangle region = previousRegions[i];
+				graphics.drawImage(courtImage, region.x, region.y, region.x + region.width, region.y + region.height,
+						region.x, region.y, region.x + region.width, region.y + region.height, null);
+				flushRegions[flushCount++].setBounds(region);
+			}
+		}
+
+		currentCount = 0;
+	}
+
+	/**
+	 * Marks the given area as having been drawn over this frame.
+	 * @param x The X coordinate of the area
+	 * @param y The Y coordinate of the area
+	 * @param regionWidth The width of the area
+	 * @param regionHeight The height of the area
+	 */
+	public void markDirty(int x, int y, int regionWidth, int regionHeight){
+		// Grow the area slightly and keep it within the frame
+		int left = Math.max(0, x - DIRTY_PADDING);
+		int top = Math.max(0, y - DIRTY_PADDING);
+		int right = Math.min(width, x + regionWidth + DIRTY_PADDING);
+		int bottom = Math.min(height, y + regionHeight + DIRTY_PADDING);
+		if(right <= left || bottom <= top) return;
+
+		// If we've run out of space, we'll have to redraw everything next frame
+		if(currentCount == MAX_DIRTY_REGIONS){
+			overflowed = true;
+			return;
+		}
+
+		currentRegions[currentCount++].setBounds(left, top, right - left, bottom - top);
+		flushRegions[flushCount++].setBounds(left, top, right - left, bottom - top);
+	}
+
+	/**
+	 * Marks the given area as having been drawn over this frame.
+	 * @param region The area
+	 */
+	public void markDirty(Rectangle region){
+		markDirty(region.x, region.y, region.width, region.height);
+	}
+
+	/**
+	 * Shows the frame, copying only the areas that changed to the screen, then gets ready for the
+	 * next frame.
+	 * @param backBuffer The back buffer the frame was drawn into
+	 * @return False if the back buffer's contents were lost, in which case the frame should be
+	 * drawn again
+	 */
+	public boolean endFrame(BackBuffer backBuffer){
+		boolean shown = (fullRedraw || overflowed) ? backBuffer.show() : backBuffer.show(flushRegions, flushCount);
+
+		// This frame's regions will need restoring next frame
+		Rectangle[] swap = previousRegions;
+		previousRegions = currentRegions;
+		currentRegions = swap;
+		previousCount = currentCount;
+
+		return shown;
+	}
+
+	/**
+	 * Creates an array of empty rectangles.
+	 * @param count The number of rectangles
+	 * @return The created array
+	 */
+	private static Rectangle[] createRegions(int count){
+		Rectangle[] regions = new Rectangle[count];
+		for(int i = 0; i < count; i++) regions[i] = new Rectangle();
+		return regions;
+	}
+
+}
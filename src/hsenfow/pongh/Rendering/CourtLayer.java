@@ -0,0 +1,85 @@
+package hsenfow.pongh.Rendering;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.image.BufferedImage;
+
+/**
+ * The static part of the court (the background and the middle line), pre-rendered into an image
+ * so that it doesn't have to be redrawn every frame. The image is only rebuilt when the court's
+ * size changes.
+ */
+public class CourtLayer {
+
+	// The colour of the middle line
+	private static final Color MIDDLE_LINE_COLOUR = Color.DARK_GRAY;
+
+	// The background colour
+	private final Color backgroundColour;
+
+	// The pre-rendered image
+	private BufferedImage image = null;
+
+	/**
+	 * Creates a court layer using the given background colour.
+	 * @param backgroundColour The court's background colour
+	 */
+	public CourtLayer(Color backgroundColour){
+		this.backgroundColour = backgroundColour;
+	}
+
+	/**
+	 * Makes sure the image is up to date, rebuilding it if needed.
+	 * @param graphicsConfiguration The configuration to create the image for, or null to create
+	 * a plain image
+	 * @param width The width of the court
+	 * @param height The height of the court
+	 * @return Whether the image was rebuilt
+	 */
+	public boolean validate(GraphicsConfiguration graphicsConfiguration, int width, int height){
+		if(image != null && image.getWidth() == width && image.getHeight() == height) return false;
+
+		// Create an image that's compatible with the screen, so that Java2D can keep an
+		// accelerated copy of it
+		if(image != null) image.flush();
+		image = (graphicsConfiguration != null) ? graphicsConfiguration.createCompatibleImage(width, height)
+				: new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+		// Draw the court
+		Graphics2D graphics = image.createGraphics();
+		try{
+			// Fill the background
+			graphics.setColor(backgroundColour);
+			graphics.fillRect(0, 0, width, height);
+
+			// Draw the middle line
+			int middleX = width / 2;
+			graphics.setColor(MIDDLE_LINE_COLOUR);
+			graphics.drawLine(middleX, 0, middleX, height);
+		} finally{
+			graphics.dispose();
+		}
+
+		return true;
+	}
+
+	/**
+	 * Used to get the pre-rendered image. validate() must have been called first.
+	 * @return The court image
+	 */
+	public BufferedImage getImage(){
+		return image;
+	}
+
+	/**
+	 * Releases the pre-rendered image.
+	 */
+	public void dispose(){
+		if(image != null){
+			image.flush();
+			image = null;
+		}
+	}
+
+}
@@ -23,17 +23,60 @@ public class Settings {
 	// The available settings
 	public enum Setting{
 		PADDLE_1_COLOUR,
-		BALL_COLOUR
+		BALL_COLOUR,
+		FRAME_RATE,
+		RENDERER,
+		ANTI_ALIASING,
+		GAME_MODE,
+		AI_DIFFICULTY,
+		CHAOS_BALLS,
+		RECORD_REPLAYS,
+		NETCODE
 	};
 	
 	// The possible colours of things
 	private static final String[] COLOURS = {"White", "Red", "Green", "Blue", "Cyan", "Magenta", "Orange", "Pink", "Yellow"};
 	
+	// The possible frame rates. 'Uncapped' renders as often as possible
+	public static final String FRAME_RATE_UNCAPPED = "Uncapped";
+	private static final String[] FRAME_RATES = {"60", "120", "144", FRAME_RATE_UNCAPPED};
+	
+	// The possible renderers. 'Passive' draws through Swing's normal painting, which is slower but
+	// works everywhere
+	public static final String RENDERER_ACCELERATED = "Accelerated";
+	public static final String RENDERER_PASSIVE = "Passive";
+	private static final String[] RENDERERS = {RENDERER_ACCELERATED, RENDERER_PASSIVE};
+	
+	// The possible game modes. 'Chaos' adds a swarm of extra balls in single player
+	public static final String GAME_MODE_CLASSIC = "Classic";
+	public static final String GAME_MODE_CHAOS = "Chaos";
+	private static final String[] GAME_MODES = {GAME_MODE_CLASSIC, GAME_MODE_CHAOS};
+	
+	// The possible AI difficulties
+	private static final String[] AI_DIFFICULTIES = {"Easy", "Normal", "Hard"};
+	
+	// The possible numbers of extra balls in chaos mode
+	private static final String[] CHAOS_BALL_COUNTS = {"100", "500", "1000", "5000"};
+	
+	// The possible netcodes, which are chosen by whoever hosts a game. 'Rollback' has both players
+	// simulate the court, rolling back when the other player's input turns out to be different
+	public static final String NETCODE_SERVER = "Server";
+	public static final String NETCODE_ROLLBACK = "Rollback";
+	private static final String[] NETCODES = {NETCODE_SERVER, NETCODE_ROLLBACK};
+	
 	// The information about each setting
 	public static final HashMap<Setting, SettingInfo> SETTINGS_INFO = new HashMap<>();
 	static{
 		SETTINGS_INFO.put(Setting.PADDLE_1_COLOUR, new SettingInfo("Paddle One Colour", SettingType.SELECT_BOX, COLOURS));
 		SETTINGS_INFO.put(Setting.BALL_COLOUR, new SettingInfo("Ball Colour", SettingType.SELECT_BOX, COLOURS));
+		SETTINGS_INFO.put(Setting.FRAME_RATE, new SettingInfo("Frame Rate", SettingType.SELECT_BOX, FRAME_RATES, "60"));
+		SETTINGS_INFO.put(Setting.RENDERER, new SettingInfo("Renderer", SettingType.SELECT_BOX, RENDERERS, RENDERER_ACCELERATED));
+		SETTINGS_INFO.put(Setting.ANTI_ALIASING, new SettingInfo("Anti-aliasing", SettingType.CHECKBOX, null, "true"));
+		SETTINGS_INFO.put(Setting.GAME_MODE, new SettingInfo("Game Mode", SettingType.SELECT_BOX, GAME_MODES, GAME_MODE_CLASSIC));
+		SETTINGS_INFO.put(Setting.AI_DIFFICULTY, new SettingInfo("AI Difficulty", SettingType.SELECT_BOX, AI_DIFFICULTIES, "Normal"));
+		SETTINGS_INFO.put(Setting.CHAOS_BALLS, new SettingInfo("Chaos Balls", SettingType.SELECT_BOX, CHAOS_BALL_COUNTS, "500"));
+		SETTINGS_INFO.put(Setting.RECORD_REPLAYS, new SettingInfo("Record Replays", SettingType.CHECKBOX, null, "false"));
+		SETTINGS_INFO.put(Setting.NETCODE, new SettingInfo("Netcode", SettingType.SELECT_BOX, NETCODES, NETCODE_SERVER));
 	}
 	
 	/**
@@ -111,7 +154,24 @@ public class Settings {
 	public static String getSettingValue(Setting setting){
 		return SETTINGS_INFO.get(setting).value;
 	}
-	
+
+	/**
+	 * Gets the value for the requested setting as an integer.
+	 * @param setting The setting to get the value for
+	 * @param defaultValue The value to return if the setting isn't a valid integer
+	 * @return The requested setting's value, or the default value
+	 */
+	public static int getSettingIntValue(Setting setting, int defaultValue){
+		String value = getSettingValue(setting);
+		if(value == null) return defaultValue;
+
+		try{
+			return Integer.parseInt(value);
+		} catch(NumberFormatException nfe){
+			return defaultValue;
+		}
+	}
+
 	/**
 	 * An object used to group all the information about a setting into one place.
 	 */
@@ -145,5 +205,15 @@ public class Settings {
 			this(fieldName, type);
 			this.selectValues = selectValues;
 		}
+		
+		/**
+		 * Creates a setting with the given values, select values and default value.
+		 * @param defaultValue The value to use until the setting has been changed
+		 * @see #SettingInfo(String, SettingType, String[])
+		 */
+		public SettingInfo(String fieldName, SettingType type, String[] selectValues, String defaultValue){
+			this(fieldName, type, selectValues);
+			this.value = defaultValue;
+		}
 	}
 }
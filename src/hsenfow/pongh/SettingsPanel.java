@@ -119,7 +119,7 @@ public class SettingsPanel extends JPanel{
 				// Create the checkbox
 				JCheckBox checkbox = new JCheckBox();
 				checkbox.setName(entry.getKey().name());
-				checkbox.setSelected(Boolean.getBoolean(currentSettingInfo.value));
+				checkbox.setSelected(Boolean.parseBoolean(currentSettingInfo.value));
 				checkboxFields.push(checkbox);
 				fieldsPanel.add(checkbox);
 				break;
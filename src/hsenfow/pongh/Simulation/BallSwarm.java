@@ -0,0 +1,411 @@
+package hsenfow.pongh.Simulation;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import hsenfow.pongh.Entities.Ball;
+import hsenfow.pongh.Entities.Paddle;
+
+/**
+ * The extra balls used by chaos mode. Rather than being Ball objects, the balls are stored as
+ * plain arrays of numbers (one array per property), and a uniform grid is used to find which
+ * balls are near each other. Once there are enough balls, each step of the update is split into
+ * chunks and run in parallel.
+ */
+public class BallSwarm {
+
+	// The radius of every ball in the swarm. They're smaller than the main ball so that
+	// thousands of them can fit on the court
+	public static final float RADIUS = 4;
+
+	// The fastest a ball can go. Lots of balls bouncing off each other at once can otherwise
+	// build up more and more speed
+	private static final float MAX_SPEED = Ball.DEFAULT_MOVE_SPEED * 2;
+
+	// The size of each grid cell. Balls can only touch balls in the same or neighbouring cells
+	private static final float CELL_SIZE = RADIUS * 2;
+
+	// The number of balls below which the update isn't worth running in parallel
+	private static final int PARALLEL_THRESHOLD = 2048;
+	// The number of balls each parallel chunk handles
+	private static final int CHUNK_SIZE = 512;
+
+	// The court the swarm is on
+	private final Court court;
+
+	// The number of balls
+	private final int count;
+
+	// The centre and velocity of each ball, and the centre it had at the start of the tick
+	private float[] x, y, velocityX, velocityY;
+	private final float[] previousX, previousY;
+
+	// The positions and velocities being worked out for the next tick. These are swapped with
+	// the current ones once every ball has been updated, so every ball sees the same state
+	private float[] nextX, nextY, nextVelocityX, nextVelocityY;
+
+	// The grid: the first ball in each cell, and the next ball in the same cell as each ball
+	private final int gridColumns, gridRows;
+	private final int[] cellHeads;
+	private final int[] cellNext;
+
+	// Whether each ball left the court this tick
+	private final boolean[] exited;
+
+	// The pool the parallel chunks are run on
+	private final ForkJoinPool pool = ForkJoinPool.commonPool();
+
+	/**
+	 * Creates a swarm of balls in the middle of the court, moving in random directions.
+	 * @param court The court the swarm is on
+	 * @param count The number of balls
+	 * @param seed The seed used to place the balls
+	 */
+	public BallSwarm(Court court, int count, long seed){
+		this.court = court;
+		this.count = count;
+
+		x = new float[count];
+		y = new float[count];
+		velocityX = new float[count];
+		velocityY = new float[count];
+		previousX = new float[count];
+		previousY = new float[count];
+		nextX = new float[count];
+		nextY = new float[count];
+		nextVelocityX = new float[count];
+		nextVelocityY = new float[count];
+		exited = new boolean[count];
+
+		gridColumns = (int)Math.ceil(court.getWidth() / CELL_SIZE) + 1;
+		gridRows = (int)Math.ceil(court.getHeight() / CELL_SIZE) + 1;
+		cellHeads = new int[gridColumns * gridRows];
+		cellNext = new int[count];
+
+		// Spread the balls out evenly between the paddles, so none of them start on top of each
+		// other, and send them off in random directions
+		Random random = new Random(seed);
+		float areaX = court.getWidth() / 4f, areaWidth = court.getWidth() / 2f;
+		float spacing = (float)Math.sqrt((areaWidth * court.getHeight()) / count);
+		int columns = Math.max(1, (int)(areaWidth / spacing));
+		float jitter = Math.max(0, (spacing / 2) - RADIUS);
+		for(int ball = 0; ball < count; ball++){
+			x[ball] = areaX + ((ball % columns) + 0.5f) * spacing + ((random.nextFloat() * 2 - 1) * jitter);
+			y[ball] = Math.min(court.getHeight() - RADIUS, ((ball / columns) + 0.5f) * spacing
+					+ ((random.nextFloat() * 2 - 1) * jitter));
+			velocityX[ball] = (random.nextBoolean() ? 1 : -1) * (2 + (random.nextFloat() * (Ball.DEFAULT_MOVE_SPEED - 2)));
+			velocityY[ball] = (random.nextFloat() * 2 - 1) * Ball.DEFAULT_MOVE_SPEED;
+		}
+		resetPreviousPositions();
+	}
+
+	/**
+	 * Used to get the number of balls in the swarm.
+	 * @return The number of balls
+	 */
+	public int getCount(){
+		return count;
+	}
+
+	/**
+	 * Used to get the X coordinate of a ball's centre, blended between its previous and current
+	 * positions.
+	 * @param ball The index of the ball
+	 * @param alpha How far through the current tick we are, from 0 to 1
+	 * @return The ball's X coordinate
+	 */
+	public float getRenderX(int ball, float alpha){
+		return previousX[ball] + ((x[ball] - previousX[ball]) * alpha);
+	}
+
+	/**
+	 * Used to get the Y coordinate of a ball's centre, blended between its previous and current
+	 * positions.
+	 * @param ball The index of the ball
+	 * @param alpha How far through the current tick we are, from 0 to 1
+	 * @return The ball's Y coordinate
+	 */
+	public float getRenderY(int ball, float alpha){
+		return previousY[ball] + ((y[ball] - previousY[ball]) * alpha);
+	}
+
+	/**
+	 * Used to get the X coordinate of a ball's centre.
+	 * @param ball The index of the ball
+	 * @return The ball's X coordinate
+	 */
+	public float getX(int ball){
+		return x[ball];
+	}
+
+	/**
+	 * Used to get the Y coordinate of a ball's centre.
+	 * @param ball The index of the ball
+	 * @return The ball's Y coordinate
+	 */
+	public float getY(int ball){
+		return y[ball];
+	}
+
+	/**
+	 * Used to get a ball's X velocity.
+	 * @param ball The index of the ball
+	 * @return The ball's X velocity
+	 */
+	public float getVelocityX(int ball){
+		return velocityX[ball];
+	}
+
+	/**
+	 * Stores every ball's current position as its previous one.
+	 */
+	public void resetPreviousPositions(){
+		System.arraycopy(x, 0, previousX, 0, count);
+		System.arraycopy(y, 0, previousY, 0, count);
+	}
+
+	/**
+	 * Moves every ball, bouncing them off each other, the walls and the paddles.
+	 */
+	public void update(){
+		// Move the balls
+		runStep(Step.MOVE);
+
+		// Put every ball into the grid
+		buildGrid();
+
+		// Work out every ball's collisions, then swap in the results
+		runStep(Step.COLLIDE);
+		float[] swap = x; x = nextX; nextX = swap;
+		swap = y; y = nextY; nextY = swap;
+		swap = velocityX; velocityX = nextVelocityX; nextVelocityX = swap;
+		swap = velocityY; velocityY = nextVelocityY; nextVelocityY = swap;
+
+		// Put any balls that left the court back in the middle, heading back the way they came.
+		// Only the main ball scores points, so these don't count towards the score
+		for(int ball = 0; ball < count; ball++){
+			if(!exited[ball]) continue;
+
+			x[ball] = previousX[ball] = court.getWidth() / 2f;
+			previousY[ball] = y[ball];
+			velocityX[ball] = -velocityX[ball];
+			exited[ball] = false;
+		}
+	}
+
+	// The steps of the update that can be run in parallel
+	private enum Step{
+		MOVE, COLLIDE
+	};
+
+	/**
+	 * Runs the given step over every ball, in parallel chunks if there are enough balls.
+	 * @param step The step to run
+	 */
+	private void runStep(Step step){
+		if(count < PARALLEL_THRESHOLD) runStep(step, 0, count);
+		else pool.invoke(new StepTask(step, 0, count));
+	}
+
+	/**
+	 * Runs the given step over a range of balls.
+	 * @param step The step to run
+	 * @param from The first ball in the range
+	 * @param to The ball after the last one in the range
+	 */
+	private void runStep(Step step, int from, int to){
+		switch(step){
+		case MOVE:{
+			move(from, to);
+			break;
+		}
+		case COLLIDE:{
+			collide(from, to);
+			break;
+		}
+		}
+	}
+
+	/**
+	 * Splits a step into chunks that are run in parallel.
+	 */
+	private class StepTask extends RecursiveAction{
+		private static final long serialVersionUID = -4417420911590413424L;
+
+		// The step being run and the range of balls this task covers
+		private final Step step;
+		private final int from, to;
+
+		/**
+		 * Creates a task for the given range of balls.
+		 */
+		StepTask(Step step, int from, int to){
+			this.step = step;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute(){
+			if(to - from <= CHUNK_SIZE){
+				runStep(step, from, to);
+				return;
+			}
+
+			int middle = (from + to) >>> 1;
+			invokeAll(new StepTask(step, from, middle), new StepTask(step, middle, to));
+		}
+	}
+
+	/**
+	 * Moves a range of balls, bouncing them off the top and bottom of the court and noting which
+	 * ones have left it.
+	 * @param from The first ball in the range
+	 * @param to The ball after the last one in the range
+	 */
+	private void move(int from, int to){
+		float courtWidth = court.getWidth(), courtHeight = court.getHeight();
+		for(int ball = from; ball < to; ball++){
+			x[ball] += velocityX[ball];
+			y[ball] += velocityY[ball];
+
+			// Bounce off the top and bottom of the court
+			if(y[ball] < RADIUS){
+				y[ball] = RADIUS + (RADIUS - y[ball]);
+				velocityY[ball] = Math.abs(velocityY[ball]);
+			}
+			else if(y[ball] > courtHeight - RADIUS){
+				y[ball] = (courtHeight - RADIUS) - (y[ball] - (courtHeight - RADIUS));
+				velocityY[ball] = -Math.abs(velocityY[ball]);
+			}
+
+			// Note whether the ball has left the court
+			exited[ball] = x[ball] < -RADIUS || x[ball] > courtWidth + RADIUS;
+		}
+	}
+
+	/**
+	 * Puts every ball into the grid cell its centre is in.
+	 */
+	private void buildGrid(){
+		for(int cell = 0; cell < cellHeads.length; cell++) cellHeads[cell] = -1;
+
+		for(int ball = 0; ball < count; ball++){
+			int cell = getCell(getColumn(x[ball]), getRow(y[ball]));
+			cellNext[ball] = cellHeads[cell];
+			cellHeads[cell] = ball;
+		}
+	}
+
+	/**
+	 * Works out the new position and velocity of a range of balls after bouncing off each other
+	 * and the paddles. Only the current state is read and only each ball's own next state is
+	 * written, so ranges can safely be worked out in parallel.
+	 * @param from The first ball in the range
+	 * @param to The ball after the last one in the range
+	 */
+	private void collide(int from, int to){
+		float minimumDistance = RADIUS * 2;
+		for(int ball = from; ball < to; ball++){
+			float ballX = x[ball], ballY = y[ball];
+			float newX = ballX, newY = ballY;
+			float newVelocityX = velocityX[ball], newVelocityY = velocityY[ball];
+
+			// Check the balls in this and the neighbouring cells
+			int column = getColumn(ballX), row = getRow(ballY);
+			for(int neighbourRow = Math.max(0, row - 1); neighbourRow <= Math.min(gridRows - 1, row + 1); neighbourRow++){
+				for(int neighbourColumn = Math.max(0, column - 1); neighbourColumn <= Math.min(gridColumns - 1, column + 1); neighbourColumn++){
+					for(int other = cellHeads[getCell(neighbourColumn, neighbourRow)]; other >= 0; other = cellNext[other]){
+						if(other == ball) continue;
+
+						float offsetX = ballX - x[other], offsetY = ballY - y[other];
+						float distanceSquared = (offsetX * offsetX) + (offsetY * offsetY);
+						if(distanceSquared >= minimumDistance * minimumDistance || distanceSquared == 0) continue;
+
+						// Push this ball half of the way out of the other one
+						float distance = (float)Math.sqrt(distanceSquared);
+						float normalX = offsetX / distance, normalY = offsetY / distance;
+						float push = (minimumDistance - distance) / 2;
+						newX += normalX * push;
+						newY += normalY * push;
+
+						// If they're moving towards each other, swap their speeds along the
+						// normal (as every ball has the same mass)
+						float approach = ((velocityX[ball] - velocityX[other]) * normalX)
+								+ ((velocityY[ball] - velocityY[other]) * normalY);
+						if(approach < 0){
+							newVelocityX -= approach * normalX;
+							newVelocityY -= approach * normalY;
+						}
+					}
+				}
+			}
+
+			// Bounce off the paddles. Only balls in the same columns as a paddle can touch it
+			Paddle paddle = (ballX < court.getWidth() / 2f) ? court.paddleOne : court.paddleTwo;
+			if(column >= getColumn(paddle.getX() - RADIUS) && column <= getColumn(paddle.getX() + paddle.getWidth() + RADIUS)){
+				float closestX = Math.max(paddle.getX(), Math.min(paddle.getX() + paddle.getWidth(), newX));
+				float closestY = Math.max(paddle.getY(), Math.min(paddle.getY() + paddle.getHeight(), newY));
+				float offsetX = newX - closestX, offsetY = newY - closestY;
+				if((offsetX * offsetX) + (offsetY * offsetY) < RADIUS * RADIUS){
+					// Push the ball out sideways and send it back the other way
+					float paddleCentreX = paddle.getX() + (paddle.getWidth() / 2f);
+					if(newX < paddleCentreX){
+						newX = paddle.getX() - RADIUS;
+						newVelocityX = -Math.abs(newVelocityX);
+					}
+					else{
+						newX = paddle.getX() + paddle.getWidth() + RADIUS;
+						newVelocityX = Math.abs(newVelocityX);
+					}
+				}
+			}
+
+			// Don't let the ball get too fast
+			float speedSquared = (newVelocityX * newVelocityX) + (newVelocityY * newVelocityY);
+			if(speedSquared > MAX_SPEED * MAX_SPEED){
+				float scale = MAX_SPEED / (float)Math.sqrt(speedSquared);
+				newVelocityX *= scale;
+				newVelocityY *= scale;
+			}
+
+			// Keep the ball on the court, as being pushed by other balls could move it off
+			newY = Math.max(RADIUS, Math.min(court.getHeight() - RADIUS, newY));
+
+			nextX[ball] = newX;
+			nextY[ball] = newY;
+			nextVelocityX[ball] = newVelocityX;
+			nextVelocityY[ball] = newVelocityY;
+		}
+	}
+
+	/**
+	 * Used to get the grid column containing the given X coordinate.
+	 * @param positionX The X coordinate
+	 * @return The column, clamped to the grid
+	 */
+	private int getColumn(float positionX){
+		return Math.max(0, Math.min(gridColumns - 1, (int)(positionX / CELL_SIZE)));
+	}
+
+	/**
+	 * Used to get the grid row containing the given Y coordinate.
+	 * @param positionY The Y coordinate
+	 * @return The row, clamped to the grid
+	 */
+	private int getRow(float positionY){
+		return Math.max(0, Math.min(gridRows - 1, (int)(positionY / CELL_SIZE)));
+	}
+
+	/**
+	 * Used to get the index of a grid cell.
+	 * @param column The cell's column
+	 * @param row The cell's row
+	 * @return The cell's index
+	 */
+	private int getCell(int column, int row){
+		return (row * gridColumns) + column;
+	}
+
+}
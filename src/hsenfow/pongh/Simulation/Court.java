@@ -0,0 +1,342 @@
+package hsenfow.pongh.Simulation;
+
+import java.util.Random;
+
+import hsenfow.pongh.Entities.Ball;
+import hsenfow.pongh.Entities.Paddle;
+import hsenfow.pongh.Entities.Paddle.Direction;
+
+/**
+ * The game world: the court's size, the two paddles, the ball and the score. Nothing in here
+ * depends on Swing or the main frame, so the game can be simulated without a window (e.g. with
+ * java.awt.headless=true) as fast as needed. The game panel just drives and renders it.
+ */
+public class Court {
+
+	// The two players
+	public static final int PLAYER_ONE = 0;
+	public static final int PLAYER_TWO = 1;
+
+	// The distance between each paddle and its edge of the court
+	public static final int PADDLE_EDGE_DISTANCE = 50;
+
+	/**
+	 * Informs something outside the simulation (e.g. the game panel) about things happening on
+	 * the court.
+	 */
+	public interface CourtListener{
+		/**
+		 * Called whenever the ball bounces off a wall or a paddle.
+		 */
+		void ballBounced();
+
+		/**
+		 * Called whenever a player scores a point.
+		 * @param player The player who scored (PLAYER_ONE or PLAYER_TWO)
+		 */
+		void pointScored(int player);
+	}
+
+	// The size of the court
+	private final int width, height;
+
+	// The two paddles. Paddle one is on the left, paddle two is on the right
+	public final Paddle paddleOne, paddleTwo;
+
+	// The ball
+	public final Ball ball;
+
+	// The AI that controls paddle two in single player
+	public final PaddleAI paddleTwoAI;
+
+	// The seed used for anything random on the court, and the generator created from it
+	private final long seed;
+	private final Random random;
+
+	// The extra balls in chaos mode, or null if there aren't any
+	private BallSwarm swarm = null;
+
+	// Each player's score
+	private final int[] scores = new int[2];
+
+	// The listener to inform about things happening on the court, if there is one
+	private CourtListener listener = null;
+
+	// The last non-zero distance the ball moved on each axis when being moved by moveBall()
+	private int lastBallMovementX = 0, lastBallMovementY = 0;
+
+	/**
+	 * Creates a court of the given size, with the paddles and ball in their starting positions.
+	 * @param width The width of the court
+	 * @param height The height of the court
+	 */
+	public Court(int width, int height){
+		this(width, height, System.nanoTime());
+	}
+
+	/**
+	 * Creates a court of the given size, using the given seed for anything random. Two courts
+	 * created with the same seed and given the same input play out exactly the same way.
+	 * @param seed The seed for anything random
+	 * @see #Court(int, int)
+	 */
+	public Court(int width, int height, long seed){
+		this.width = width;
+		this.height = height;
+		this.seed = seed;
+		random = new Random(seed);
+
+		// Create the two paddles
+		paddleOne = new Paddle(this, PADDLE_EDGE_DISTANCE, (height / 2) - (Paddle.DEFAULT_HEIGHT / 2));
+		paddleTwo = new Paddle(this, width - Paddle.DEFAULT_WIDTH - PADDLE_EDGE_DISTANCE,
+				(height / 2) - (Paddle.DEFAULT_HEIGHT / 2));
+
+		// Create the ball
+		ball = new Ball(this, (width / 2) - (Ball.DEFAULT_WIDTH / 2), (height / 2) - (Ball.DEFAULT_HEIGHT / 2));
+
+		// Create the AI for paddle two
+		paddleTwoAI = new PaddleAI(paddleTwo, this, random);
+	}
+
+	/**
+	 * Adds a swarm of extra balls to the court, for chaos mode.
+	 * @param ballCount The number of extra balls
+	 * @param seed The seed used to place the balls
+	 */
+	public void addSwarm(int ballCount, long seed){
+		swarm = new BallSwarm(this, ballCount, seed);
+	}
+
+	/**
+	 * Used to get the swarm of extra balls.
+	 * @return The swarm, or null if there isn't one
+	 */
+	public BallSwarm getSwarm(){
+		return swarm;
+	}
+
+	/**
+	 * Sets the listener to inform about things happening on the court.
+	 * @param listener The listener, or null to stop informing anything
+	 */
+	public void setListener(CourtListener listener){
+		this.listener = listener;
+	}
+	
+	/**
+	 * Used to get the listener informed about things happening on the court.
+	 * @return The listener, or null if there isn't one
+	 */
+	public CourtListener getListener(){
+		return listener;
+	}
+
+	/**
+	 * Used to get the width of the court.
+	 * @return The court's width
+	 */
+	public int getWidth(){
+		return width;
+	}
+
+	/**
+	 * Used to get the height of the court.
+	 * @return The court's height
+	 */
+	public int getHeight(){
+		return height;
+	}
+
+	/**
+	 * Used to get the seed used for anything random on the court.
+	 * @return The court's seed
+	 */
+	public long getSeed(){
+		return seed;
+	}
+
+	/**
+	 * Used to get a player's score.
+	 * @param player The player (PLAYER_ONE or PLAYER_TWO)
+	 * @return The player's score
+	 */
+	public int getScore(int player){
+		return scores[player];
+	}
+
+	/**
+	 * Works out a checksum of everything on the court that the simulation depends on. Two courts
+	 * that have played out the same way have the same checksum.
+	 * @return The court's checksum
+	 */
+	public long getChecksum(){
+		long checksum = seed;
+		checksum = mixChecksum(checksum, scores[PLAYER_ONE]);
+		checksum = mixChecksum(checksum, scores[PLAYER_TWO]);
+		checksum = mixChecksum(checksum, paddleOne.getY());
+		checksum = mixChecksum(checksum, paddleTwo.getY());
+		checksum = mixChecksum(checksum, ball.getX());
+		checksum = mixChecksum(checksum, ball.getY());
+		checksum = mixChecksum(checksum, ball.getMoveSpeedX());
+		checksum = mixChecksum(checksum, ball.getMoveSpeedY());
+		if(swarm != null){
+			for(int swarmBall = 0; swarmBall < swarm.getCount(); swarmBall++){
+				checksum = mixChecksum(checksum, Float.floatToIntBits(swarm.getX(swarmBall)));
+				checksum = mixChecksum(checksum, Float.floatToIntBits(swarm.getY(swarmBall)));
+			}
+		}
+		return checksum;
+	}
+
+	/**
+	 * Adds a value to a checksum.
+	 * @param checksum The checksum so far
+	 * @param value The value to add
+	 * @return The new checksum
+	 */
+	private static long mixChecksum(long checksum, int value){
+		return (checksum ^ value) * 0x100000001B3L;
+	}
+
+	/**
+	 * Performs a single player tick: paddle one is moved in the given direction, paddle two is moved
+	 * by the AI, then the ball is updated.
+	 * @param paddleOneDirection The direction the player wants to move paddle one in
+	 */
+	public void tick(Direction paddleOneDirection){
+		resetPreviousPositions();
+
+		// Update the paddles
+		updatePaddle(paddleOne, paddleOneDirection);
+		paddleTwoAI.update(ball);
+
+		// Update the ball and any extra balls
+		updateBall();
+		if(swarm != null) swarm.update();
+	}
+
+	/**
+	 * Performs a two player tick: each paddle is moved in the direction its player wants, then the
+	 * ball is updated. Given the same state and inputs, this always ends in the same state.
+	 * @param paddleOneDirection The direction player one wants to move paddle one in
+	 * @param paddleTwoDirection The direction player two wants to move paddle two in
+	 */
+	public void tick(Direction paddleOneDirection, Direction paddleTwoDirection){
+		resetPreviousPositions();
+		updatePaddle(paddleOne, paddleOneDirection);
+		updatePaddle(paddleTwo, paddleTwoDirection);
+		updateBall();
+	}
+	
+	/**
+	 * Saves everything a two player tick depends on, so the court can be put back as it is now.
+	 * Extra balls aren't saved.
+	 * @param state The state to save into
+	 */
+	public void saveState(CourtState state){
+		state.paddleOneY = paddleOne.getY();
+		state.paddleOneDirection = paddleOne.currentDirection;
+		state.paddleTwoY = paddleTwo.getY();
+		state.paddleTwoDirection = paddleTwo.currentDirection;
+		state.ballX = ball.getExactX();
+		state.ballY = ball.getExactY();
+		state.ballSpeedX = ball.getMoveSpeedX();
+		state.ballSpeedY = ball.getMoveSpeedY();
+		state.scoreOne = scores[PLAYER_ONE];
+		state.scoreTwo = scores[PLAYER_TWO];
+	}
+	
+	/**
+	 * Puts the court back into a state saved earlier. The listener isn't told about anything.
+	 * @param state The state to restore
+	 */
+	public void restoreState(CourtState state){
+		paddleOne.setPosition(state.paddleOneY, state.paddleOneDirection);
+		paddleTwo.setPosition(state.paddleTwoY, state.paddleTwoDirection);
+		ball.setExactPosition(state.ballX, state.ballY);
+		ball.setMoveSpeed(state.ballSpeedX, state.ballSpeedY);
+		scores[PLAYER_ONE] = state.scoreOne;
+		scores[PLAYER_TWO] = state.scoreTwo;
+	}
+	
+	/**
+	 * Stores the current position of everything as its previous position. This should be done at
+	 * the start of every tick.
+	 */
+	public void resetPreviousPositions(){
+		paddleOne.resetPreviousPosition();
+		paddleTwo.resetPreviousPosition();
+		ball.resetPreviousPosition();
+		if(swarm != null) swarm.resetPreviousPositions();
+	}
+
+	/**
+	 * Updates the given paddle for the direction it's being moved in.
+	 * @param paddle The paddle to update
+	 * @param direction The direction to move the paddle in, or NONE to keep it still
+	 */
+	public void updatePaddle(Paddle paddle, Direction direction){
+		paddle.currentDirection = Direction.NONE;
+		if(direction == Direction.UP || direction == Direction.DOWN) paddle.move(direction);
+	}
+
+	/**
+	 * Moves the ball, bouncing it off anything it hits on the way.
+	 */
+	public void updateBall(){
+		ball.update();
+	}
+
+	/**
+	 * Moves the ball to a position decided elsewhere (e.g. by the server). As the ball isn't
+	 * being simulated here, a bounce is detected by the ball changing direction.
+	 * @param x The ball's new X coordinate
+	 * @param y The ball's new Y coordinate
+	 */
+	public void moveBall(int x, int y){
+		int movementX = x - ball.getX(), movementY = y - ball.getY();
+
+		// Only count a change of direction as a bounce if the ball hasn't just jumped to the
+		// centre of the court after a point
+		boolean bounced = ((movementX ^ lastBallMovementX) < 0 && lastBallMovementX != 0 && movementX != 0
+				&& Math.abs(movementX) < width / 2)
+				|| ((movementY ^ lastBallMovementY) < 0 && lastBallMovementY != 0 && movementY != 0
+				&& Math.abs(movementY) < height / 2);
+
+		ball.setPosition(x, y);
+		if(movementX != 0) lastBallMovementX = movementX;
+		if(movementY != 0) lastBallMovementY = movementY;
+
+		if(bounced) ballBounced();
+	}
+
+	/**
+	 * Called by the ball whenever it bounces.
+	 */
+	public void ballBounced(){
+		if(listener != null) listener.ballBounced();
+	}
+
+	/**
+	 * Called by the ball when it leaves the court, giving the player a point.
+	 * @param player The player who scored
+	 */
+	public void pointScored(int player){
+		scores[player]++;
+		if(listener != null) listener.pointScored(player);
+	}
+
+	/**
+	 * Brings the scores up to ones decided elsewhere (e.g. by the server), scoring each point
+	 * that's been missed so the listener hears about it.
+	 * @param playerOneScore Player one's score
+	 * @param playerTwoScore Player two's score
+	 */
+	public void setScores(int playerOneScore, int playerTwoScore){
+		while(scores[PLAYER_ONE] < playerOneScore) pointScored(PLAYER_ONE);
+		while(scores[PLAYER_TWO] < playerTwoScore) pointScored(PLAYER_TWO);
+		scores[PLAYER_ONE] = playerOneScore;
+		scores[PLAYER_TWO] = playerTwoScore;
+	}
+
+}
@@ -0,0 +1,35 @@
+package hsenfow.pongh.Simulation;
+
+import hsenfow.pongh.Entities.Paddle.Direction;
+
+/**
+ * Everything the simulation of a two player court depends on, saved so that the court can be put
+ * back exactly as it was (e.g. to play a tick again with different inputs). The paddles' sizes
+ * and speeds and the court's size never change, so they aren't saved. A state is a few dozen
+ * bytes, and saving or restoring one never allocates.
+ * @see Court#saveState(CourtState)
+ * @see Court#restoreState(CourtState)
+ */
+public class CourtState {
+
+	// Each paddle's position and the direction it was last moved in
+	int paddleOneY, paddleTwoY;
+	Direction paddleOneDirection = Direction.NONE, paddleTwoDirection = Direction.NONE;
+
+	// The ball's exact position and move speed
+	double ballX, ballY;
+	int ballSpeedX, ballSpeedY;
+
+	// Each player's score
+	int scoreOne, scoreTwo;
+
+	/**
+	 * Used to get a player's score in this state.
+	 * @param player The player (PLAYER_ONE or PLAYER_TWO)
+	 * @return The player's score
+	 */
+	public int getScore(int player){
+		return (player == Court.PLAYER_ONE) ? scoreOne : scoreTwo;
+	}
+
+}
@@ -0,0 +1,330 @@
+package hsenfow.pongh.Simulation;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import hsenfow.pongh.Utils;
+import hsenfow.pongh.Entities.Ball;
+import hsenfow.pongh.Entities.Paddle;
+
+/**
+ * Plays lots of AI against AI matches without a window, spread across every core, and reports how
+ * they went. Used to tune things like the ball and paddle speeds. Each match has its own seed, so
+ * any single match can be played again exactly.
+ *
+ * Usage: MatchSimulator [--matches=N] [--points=N] [--max-ticks=N] [--ball-speed=N]
+ * [--paddle-speed=N] [--difficulty-one=EASY|NORMAL|HARD] [--difficulty-two=...] [--seed=N]
+ *
+ * Two AIs of NORMAL difficulty or better hardly ever miss at the default ball speed, so the
+ * default is an EASY player one against a NORMAL player two, which decides nearly every match.
+ */
+public final class MatchSimulator {
+
+	// The size of the court each match is played on
+	private static final int COURT_WIDTH = 800;
+	private static final int COURT_HEIGHT = 600;
+
+	// The longest rally (in paddle hits) given its own row in the report. Longer rallies are
+	// counted in the last row
+	private static final int MAX_RALLY_LENGTH = 20;
+
+	// The number of sections each paddle is split into when recording where the ball hit it
+	private static final int HIT_SECTIONS = 8;
+
+	// The number of matches below which a task plays its matches rather than splitting them
+	private static final int MATCHES_PER_TASK = 16;
+
+	// The settings for every match
+	private int matches = 10000;
+	private int pointsToWin = 5;
+	private int maxTicks = 60 * 60 * 5;
+	private int ballSpeed = Ball.DEFAULT_MOVE_SPEED;
+	private int paddleSpeed = Paddle.MOVE_SPEED;
+	private PaddleAI.Difficulty difficultyOne = PaddleAI.Difficulty.EASY;
+	private PaddleAI.Difficulty difficultyTwo = PaddleAI.Difficulty.NORMAL;
+	private long seed = 0;
+
+	/**
+	 * Runs the simulator from the command line.
+	 * @param args The settings to use, in the form --name=value
+	 */
+	public static void main(String[] args){
+		MatchSimulator simulator = new MatchSimulator();
+		for(String arg : args){
+			if(!simulator.applyArgument(arg)){
+				Utils.log("Invalid argument: " + arg);
+				return;
+			}
+		}
+
+		long startTime = System.nanoTime();
+		Results results = simulator.run();
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+
+		Utils.log(results.getReport());
+		Utils.log(String.format("Played %d matches in %.2fs (%.0f matches/s, %.0f ticks/s)", results.matches, seconds,
+				results.matches / seconds, results.ticks / seconds));
+	}
+
+	/**
+	 * Applies a single command line argument.
+	 * @param arg The argument, in the form --name=value
+	 * @return Returns true if the argument was valid
+	 */
+	private boolean applyArgument(String arg){
+		int equalsIndex = arg.indexOf('=');
+		if(!arg.startsWith("--") || equalsIndex < 0) return false;
+
+		String name = arg.substring(2, equalsIndex);
+		String value = arg.substring(equalsIndex + 1);
+		try{
+			switch(name){
+			case "matches": matches = Integer.parseInt(value); break;
+			case "points": pointsToWin = Integer.parseInt(value); break;
+			case "max-ticks": maxTicks = Integer.parseInt(value); break;
+			case "ball-speed": ballSpeed = Integer.parseInt(value); break;
+			case "paddle-speed": paddleSpeed = Integer.parseInt(value); break;
+			case "difficulty-one": difficultyOne = PaddleAI.Difficulty.valueOf(value.toUpperCase()); break;
+			case "difficulty-two": difficultyTwo = PaddleAI.Difficulty.valueOf(value.toUpperCase()); break;
+			case "seed": seed = Long.parseLong(value); break;
+			default: return false;
+			}
+		} catch(IllegalArgumentException iae){
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Plays every match, spread across the common fork-join pool.
+	 * @return The combined results of every match
+	 */
+	public Results run(){
+		return ForkJoinPool.commonPool().invoke(new MatchTask(0, matches));
+	}
+
+	/**
+	 * Plays a range of matches, splitting it up between threads if it's large.
+	 */
+	private class MatchTask extends RecursiveTask<Results>{
+		private static final long serialVersionUID = 6024816722401846437L;
+
+		// The range of matches this task covers
+		private final int from, to;
+
+		/**
+		 * Creates a task for the given range of matches.
+		 */
+		MatchTask(int from, int to){
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Results compute(){
+			if(to - from <= MATCHES_PER_TASK){
+				Results results = new Results();
+				for(int match = from; match < to; match++) playMatch(match, results);
+				return results;
+			}
+
+			int middle = (from + to) >>> 1;
+			MatchTask second = new MatchTask(middle, to);
+			second.fork();
+			Results results = new MatchTask(from, middle).compute();
+			results.add(second.join());
+			return results;
+		}
+	}
+
+	/**
+	 * Used to get the seed for a match, which is mixed from the simulator's seed and the match
+	 * number so neighbouring matches don't play out alike.
+	 * @param match The match number
+	 * @return The match's seed
+	 */
+	public long getMatchSeed(int match){
+		long mixed = (seed + match) * 0x9E3779B97F4A7C15L;
+		mixed ^= mixed >>> 31;
+		return mixed;
+	}
+
+	/**
+	 * Plays a single match.
+	 * @param match The match number
+	 * @param results The results to add the match's results to
+	 */
+	private void playMatch(int match, Results results){
+		long matchSeed = getMatchSeed(match);
+		Court court = new Court(COURT_WIDTH, COURT_HEIGHT, matchSeed);
+
+		// Serve the ball in a random direction at the chosen speed
+		Random random = new Random(~matchSeed);
+		court.ball.setMoveSpeed(random.nextBoolean() ? ballSpeed : -ballSpeed, random.nextBoolean() ? ballSpeed : -ballSpeed);
+		court.paddleOne.setMoveSpeed(paddleSpeed);
+		court.paddleTwo.setMoveSpeed(paddleSpeed);
+
+		// Both paddles are controlled by AI
+		PaddleAI paddleOneAI = new PaddleAI(court.paddleOne, court, random);
+		paddleOneAI.setDifficulty(difficultyOne);
+		court.paddleTwoAI.setDifficulty(difficultyTwo);
+
+		// Record each rally as it ends
+		MatchRecorder recorder = new MatchRecorder(results);
+		court.setListener(recorder);
+
+		int tick = 0;
+		while(court.getScore(Court.PLAYER_ONE) < pointsToWin && court.getScore(Court.PLAYER_TWO) < pointsToWin
+				&& tick < maxTicks){
+			int speedBefore = court.ball.getMoveSpeedX();
+			recorder.pointScored = false;
+
+			paddleOneAI.update(court.ball);
+			court.paddleTwoAI.update(court.ball);
+			court.updateBall();
+			tick++;
+
+			// Only a paddle can send the ball back across the court, so if it's changed direction
+			// without a point being scored, then it's been hit
+			int speedAfter = court.ball.getMoveSpeedX();
+			if(!recorder.pointScored && (speedBefore ^ speedAfter) < 0){
+				recorder.recordHit(speedAfter > 0 ? court.paddleOne : court.paddleTwo, court.ball,
+						speedAfter > 0 ? Court.PLAYER_ONE : Court.PLAYER_TWO);
+			}
+		}
+
+		// Record the match's result
+		results.matches++;
+		results.ticks += tick;
+		if(court.getScore(Court.PLAYER_ONE) >= pointsToWin) results.wins[Court.PLAYER_ONE]++;
+		else if(court.getScore(Court.PLAYER_TWO) >= pointsToWin) results.wins[Court.PLAYER_TWO]++;
+		else results.timeouts++;
+	}
+
+	/**
+	 * Records the rallies of a single match.
+	 */
+	private static class MatchRecorder implements Court.CourtListener{
+		// The results to add the match's results to
+		private final Results results;
+
+		// The number of times the ball has been hit in the current rally
+		private int rallyLength = 0;
+
+		// Whether a point was scored during the current tick
+		boolean pointScored = false;
+
+		MatchRecorder(Results results){
+			this.results = results;
+		}
+
+		@Override
+		public void ballBounced(){}
+
+		@Override
+		public void pointScored(int player){
+			pointScored = true;
+			results.points++;
+			results.rallies[Math.min(rallyLength, MAX_RALLY_LENGTH)]++;
+			rallyLength = 0;
+		}
+
+		/**
+		 * Records the ball being hit by a paddle.
+		 * @param paddle The paddle that hit the ball
+		 * @param ball The ball
+		 * @param player The player the paddle belongs to
+		 */
+		void recordHit(Paddle paddle, Ball ball, int player){
+			rallyLength++;
+
+			// Work out which section of the paddle the ball hit
+			int offset = (ball.getY() + (ball.getHeight() / 2)) - paddle.getY();
+			int section = (offset * HIT_SECTIONS) / paddle.getHeight();
+			results.hits[player][Math.max(0, Math.min(HIT_SECTIONS - 1, section))]++;
+		}
+	}
+
+	/**
+	 * The combined results of a number of matches.
+	 */
+	public static class Results{
+		// The number of matches played, and the total number of ticks they took
+		public long matches, ticks;
+		// The number of matches each player won, and the number that hit the tick limit
+		public final long[] wins = new long[2];
+		public long timeouts;
+		// The number of points scored, and the number of rallies of each length
+		public long points;
+		public final long[] rallies = new long[MAX_RALLY_LENGTH + 1];
+		// The number of times each section of each paddle hit the ball, from the top down
+		public final long[][] hits = new long[2][HIT_SECTIONS];
+
+		/**
+		 * Adds another set of results to these ones.
+		 * @param other The results to add
+		 */
+		public void add(Results other){
+			matches += other.matches;
+			ticks += other.ticks;
+			timeouts += other.timeouts;
+			points += other.points;
+			for(int player = 0; player < 2; player++){
+				wins[player] += other.wins[player];
+				for(int section = 0; section < HIT_SECTIONS; section++) hits[player][section] += other.hits[player][section];
+			}
+			for(int length = 0; length <= MAX_RALLY_LENGTH; length++) rallies[length] += other.rallies[length];
+		}
+
+		/**
+		 * Creates a readable summary of the results.
+		 * @return The summary
+		 */
+		public String getReport(){
+			StringBuilder report = new StringBuilder();
+			report.append(String.format("Matches: %d (%d timed out)%n", matches, timeouts));
+			
+			// Win rates mostly made up of timeouts don't say anything, so warn about them instead
+			if(timeouts * 2 > matches){
+				report.append("Warning: most matches hit the tick limit, so there are no win rates. Try mismatched "
+						+ "difficulties, a faster --ball-speed or a higher --max-ticks\n");
+			}
+			else{
+				for(int player = 0; player < 2; player++){
+					report.append(String.format("Player %d win rate: %.1f%%%n", player + 1, percent(wins[player], matches)));
+				}
+			}
+			report.append(String.format("Average match length: %.0f ticks%n", matches == 0 ? 0 : (double)ticks / matches));
+
+			// Rally lengths
+			long totalHits = 0;
+			for(long[] playerHits : hits) for(long sectionHits : playerHits) totalHits += sectionHits;
+			report.append(String.format("Average rally length: %.2f hits%n", points == 0 ? 0 : (double)totalHits / points));
+			report.append("Rally lengths:\n");
+			for(int length = 0; length <= MAX_RALLY_LENGTH; length++){
+				if(rallies[length] == 0) continue;
+				report.append(String.format("  %s%d: %.1f%%%n", length == MAX_RALLY_LENGTH ? ">=" : "", length,
+						percent(rallies[length], points)));
+			}
+
+			// Hit distribution
+			for(int player = 0; player < 2; player++){
+				long playerHits = 0;
+				for(long sectionHits : hits[player]) playerHits += sectionHits;
+				report.append(String.format("Player %d hits (top to bottom):", player + 1));
+				for(long sectionHits : hits[player]) report.append(String.format(" %.1f%%", percent(sectionHits, playerHits)));
+				report.append('\n');
+			}
+			return report.toString();
+		}
+
+		/**
+		 * Works out what percentage one number is of another.
+		 */
+		private static double percent(long part, long whole){
+			return whole == 0 ? 0 : (part * 100.0) / whole;
+		}
+	}
+
+}
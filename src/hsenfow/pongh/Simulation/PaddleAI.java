@@ -0,0 +1,166 @@
+package hsenfow.pongh.Simulation;
+
+import java.util.Random;
+
+import hsenfow.pongh.Entities.Ball;
+import hsenfow.pongh.Entities.Paddle;
+import hsenfow.pongh.Entities.Paddle.Direction;
+
+/**
+ * Controls a paddle automatically. Rather than chasing the ball, it works out where the ball will
+ * cross the paddle (including any bounces off the top and bottom of the court) and moves there.
+ * That's only worked out again when the ball's path changes, so each tick is usually just a move
+ * towards the remembered target.
+ */
+public class PaddleAI {
+
+	/**
+	 * How well the AI plays.
+	 */
+	public enum Difficulty{
+		EASY(20, 40, 0.6),
+		NORMAL(10, 18, 0.85),
+		HARD(4, 6, 1);
+
+		// The number of ticks the AI takes to react to the ball's path changing
+		public final int reactionTicks;
+		// The typical distance (standard deviation) between the AI's target and the real intercept
+		public final int error;
+		// The fraction of the paddle's move speed the AI can move it by each tick
+		public final double speedFraction;
+
+		Difficulty(int reactionTicks, int error, double speedFraction){
+			this.reactionTicks = reactionTicks;
+			this.error = error;
+			this.speedFraction = speedFraction;
+		}
+
+		/**
+		 * Used to get the furthest the AI can move a paddle each tick.
+		 * @param paddle The paddle
+		 * @return The AI's max speed for the paddle, which is at least 1
+		 */
+		public int getMaxSpeed(Paddle paddle){
+			return Math.max(1, (int)Math.round(paddle.getMoveSpeed() * speedFraction));
+		}
+	};
+
+	// The paddle being controlled and the court it's on
+	private final Paddle paddle;
+	private final Court court;
+
+	// The random number generator used for the AI's mistakes. This comes from the court, so a
+	// court created with the same seed always plays out the same way
+	private final Random random;
+
+	// How well the AI plays
+	private Difficulty difficulty = Difficulty.NORMAL;
+
+	// The ball's speed when the target was last worked out. The sign of the speed on the Y axis is
+	// kept, as bouncing off the top or bottom face of a paddle only flips it. Bouncing off a wall
+	// flips it too, so the AI reacts again, but the target already allows for the walls
+	private int cachedSpeedX = 0, cachedSpeedY = Integer.MIN_VALUE;
+
+	// The number of ticks left before the AI reacts to the ball's new path
+	private int reactionTicksLeft = 0;
+
+	// Whether the target needs working out once the AI has reacted
+	private boolean targetNeeded = true;
+
+	// The Y coordinate the AI wants the centre of the paddle to be at
+	private int targetY;
+
+	/**
+	 * Creates an AI to control the given paddle.
+	 * @param paddle The paddle to control
+	 * @param court The court the paddle is on
+	 * @param random The random number generator to use for the AI's mistakes
+	 */
+	public PaddleAI(Paddle paddle, Court court, Random random){
+		this.paddle = paddle;
+		this.court = court;
+		this.random = random;
+		targetY = court.getHeight() / 2;
+	}
+
+	/**
+	 * Sets how well the AI plays.
+	 * @param difficulty The AI's new difficulty
+	 */
+	public void setDifficulty(Difficulty difficulty){
+		this.difficulty = difficulty;
+	}
+
+	/**
+	 * Used to get how well the AI plays.
+	 * @return The AI's difficulty
+	 */
+	public Difficulty getDifficulty(){
+		return difficulty;
+	}
+
+	/**
+	 * Moves the paddle towards where the ball is going to be.
+	 * @param ball The ball
+	 */
+	public void update(Ball ball){
+		// If the ball's path has changed, then wait a moment before reacting to it
+		int speedX = ball.getMoveSpeedX(), speedY = ball.getMoveSpeedY();
+		if(speedX != cachedSpeedX || speedY != cachedSpeedY){
+			cachedSpeedX = speedX;
+			cachedSpeedY = speedY;
+			reactionTicksLeft = difficulty.reactionTicks;
+			targetNeeded = true;
+		}
+
+		// Once we've reacted, work out the new target
+		if(reactionTicksLeft > 0) reactionTicksLeft--;
+		else if(targetNeeded){
+			targetY = findTarget(ball);
+			targetNeeded = false;
+		}
+
+		// Move towards the target
+		paddle.currentDirection = Direction.NONE;
+		int difference = targetY - (paddle.getY() + (paddle.getHeight() / 2));
+		int distance = Math.min(difficulty.getMaxSpeed(paddle), Math.abs(difference));
+		if(distance > 0) paddle.move(difference > 0 ? Direction.DOWN : Direction.UP, distance);
+	}
+
+	/**
+	 * Works out where the paddle should go for the ball's current path.
+	 * @param ball The ball
+	 * @return The Y coordinate the centre of the paddle should be at
+	 */
+	private int findTarget(Ball ball){
+		double radius = ball.getWidth() / 2.0;
+		double centreX = ball.getX() + radius, centreY = ball.getY() + radius;
+		int speedX = ball.getMoveSpeedX();
+
+		// If the ball is moving away from the paddle, then wait in the middle of the court
+		boolean paddleOnRight = paddle.getX() > centreX;
+		if(speedX == 0 || (speedX > 0) != paddleOnRight) return court.getHeight() / 2;
+
+		// Work out how long it'll take the ball to reach the paddle's face
+		double faceX = paddleOnRight ? paddle.getX() - radius : paddle.getX() + paddle.getWidth() + radius;
+		double ticks = (faceX - centreX) / speedX;
+		if(ticks < 0) return (int)centreY;
+
+		// Work out where the ball would be if there were no walls, then fold that back onto the
+		// court. Each bounce off a wall mirrors the path, so the ball's position repeats every two
+		// court heights (minus the ball's size)
+		double span = court.getHeight() - (radius * 2);
+		double interceptY = centreY;
+		if(span > 0){
+			double offset = (centreY - radius) + (ball.getMoveSpeedY() * ticks);
+			offset %= span * 2;
+			if(offset < 0) offset += span * 2;
+			if(offset > span) offset = (span * 2) - offset;
+			interceptY = radius + offset;
+		}
+
+		// Make a mistake, the size of which depends on the difficulty
+		return (int)Math.round(interceptY + (random.nextGaussian() * difficulty.error));
+	}
+
+}
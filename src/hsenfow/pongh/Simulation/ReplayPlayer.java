@@ -0,0 +1,137 @@
+package hsenfow.pongh.Simulation;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import hsenfow.pongh.Utils;
+import hsenfow.pongh.Entities.Paddle.Direction;
+
+/**
+ * Plays back a replay recorded by ReplayRecorder without a window, as fast as possible, and
+ * checks that it plays out exactly as it did when it was recorded.
+ *
+ * Usage: ReplayPlayer <replay file>...
+ */
+public class ReplayPlayer {
+
+	// The court the replay is played on
+	private Court court = null;
+
+	// The number of ticks played
+	private int ticks = 0;
+
+	// The first tick whose checksum didn't match the recording, or -1 if they all have
+	private int firstMismatch = -1;
+
+	/**
+	 * Plays back each of the given replays.
+	 * @param args The replay files
+	 */
+	public static void main(String[] args){
+		for(String file : args){
+			ReplayPlayer player = new ReplayPlayer();
+			long startTime = System.nanoTime();
+			try{
+				player.play(file);
+			} catch(IOException ioe){
+				Utils.log("Error playing replay: " + file + " - " + ioe.getMessage());
+				continue;
+			}
+			double seconds = (System.nanoTime() - startTime) / 1e9;
+
+			Court court = player.getCourt();
+			Utils.log(String.format("%s: %d ticks in %.3fs (%.0fx real time), score %d-%d, %s", file, player.getTicks(),
+					seconds, (player.getTicks() / 60.0) / seconds, court.getScore(Court.PLAYER_ONE),
+					court.getScore(Court.PLAYER_TWO), player.matches() ? "matches"
+							: "stopped matching at tick " + player.getFirstMismatch()));
+		}
+	}
+
+	/**
+	 * Plays back the given replay.
+	 * @param file The replay file
+	 * @throws IOException If the file couldn't be read or isn't a valid replay
+	 */
+	public void play(String file) throws IOException{
+		try(
+				// Open the replay
+				DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+				){
+			// Create the same court the replay was recorded on
+			if(input.readLong() != ReplayRecorder.MAGIC) throw new IOException("Not a replay");
+			int version = input.readInt();
+			if(version != ReplayRecorder.VERSION) throw new IOException("Unsupported replay version: " + version);
+
+			long seed = input.readLong();
+			int width = input.readInt(), height = input.readInt();
+			court = new Court(width, height, seed);
+			court.paddleTwoAI.setDifficulty(PaddleAI.Difficulty.values()[input.readUnsignedByte()]);
+			int swarmCount = input.readInt();
+			if(swarmCount > 0) court.addSwarm(swarmCount, seed);
+
+			// Play each tick
+			Direction[] directions = Direction.values();
+			int tick;
+			while((tick = input.readUnsignedByte()) != ReplayRecorder.END){
+				if((tick & ReplayRecorder.FLAG_CHAT) != 0) court.paddleOne.setLatestMessage(input.readUTF());
+
+				court.tick(directions[tick & ReplayRecorder.DIRECTION_MASK]);
+				ticks++;
+
+				if((tick & ReplayRecorder.FLAG_CHECKSUM) != 0) checkChecksum(input.readLong());
+			}
+
+			// Check the final state
+			if(input.readInt() != ticks) throw new IOException("Replay has the wrong number of ticks");
+			checkChecksum(input.readLong());
+		} catch(EOFException eofe){
+			throw new IOException("Replay ended early", eofe);
+		} catch(ArrayIndexOutOfBoundsException aioobe){
+			throw new IOException("Invalid replay", aioobe);
+		}
+	}
+
+	/**
+	 * Checks the court against a checksum from the recording.
+	 * @param checksum The recorded checksum
+	 */
+	private void checkChecksum(long checksum){
+		if(firstMismatch < 0 && checksum != court.getChecksum()) firstMismatch = ticks;
+	}
+
+	/**
+	 * Used to get the court the replay was played on.
+	 * @return The court, as it was at the end of the replay
+	 */
+	public Court getCourt(){
+		return court;
+	}
+
+	/**
+	 * Used to get the number of ticks played.
+	 * @return The number of ticks
+	 */
+	public int getTicks(){
+		return ticks;
+	}
+
+	/**
+	 * Used to check whether the replay played out exactly as it was recorded.
+	 * @return Returns true if every checksum matched
+	 */
+	public boolean matches(){
+		return firstMismatch < 0;
+	}
+
+	/**
+	 * Used to get the first tick that didn't match the recording.
+	 * @return The tick, or -1 if the replay matched
+	 */
+	public int getFirstMismatch(){
+		return firstMismatch;
+	}
+
+}
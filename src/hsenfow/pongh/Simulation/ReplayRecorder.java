@@ -0,0 +1,145 @@
+package hsenfow.pongh.Simulation;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import hsenfow.pongh.Utils;
+import hsenfow.pongh.Entities.Paddle.Direction;
+
+/**
+ * Records a single player match to a file, so it can be played back exactly by ReplayPlayer.
+ * The court is deterministic for a given seed, so only the player's input needs recording.
+ *
+ * The file starts with a header (the court's seed, size, AI difficulty and number of extra
+ * balls), followed by one byte per tick holding the player's direction and flags for anything
+ * following it (a chat message, or a checksum of the court after the tick). It ends with an end
+ * marker, the number of ticks and a final checksum.
+ */
+public class ReplayRecorder {
+
+	// Identifies replay files ("PONGHRP1") and the version of the format
+	static final long MAGIC = 0x504F4E4748525031L;
+	static final int VERSION = 1;
+
+	// The parts of each tick's byte
+	static final int DIRECTION_MASK = 0x03;
+	static final int FLAG_CHAT = 0x04;
+	static final int FLAG_CHECKSUM = 0x08;
+	// Marks the end of the ticks
+	static final int END = 0xFF;
+
+	// The number of ticks between each checksum, used to find where a replay stops matching
+	static final int CHECKSUM_INTERVAL = 600;
+
+	// The folder replays are saved in
+	public static final String REPLAYS_FOLDER = "replays";
+
+	// The file being written to
+	private final DataOutputStream output;
+	private final String file;
+
+	// The court being recorded
+	private final Court court;
+
+	// Chat messages waiting to be written with the next tick. These come from the event dispatch
+	// thread, whereas ticks are recorded by the game loop
+	private final ConcurrentLinkedQueue<String> pendingChat = new ConcurrentLinkedQueue<>();
+
+	// The number of ticks recorded
+	private int ticks = 0;
+
+	// Whether writing has failed, in which case nothing more is recorded
+	private boolean failed = false;
+
+	/**
+	 * Starts recording the given court into a new file in the replays folder.
+	 * @param court The court to record. This must not have been ticked yet
+	 * @return The recorder, or null if the file couldn't be created
+	 */
+	public static ReplayRecorder start(Court court){
+		String file = REPLAYS_FOLDER + "/" + System.currentTimeMillis() + ".replay";
+		try{
+			Path folder = Paths.get(REPLAYS_FOLDER);
+			Files.createDirectories(folder);
+			return new ReplayRecorder(court, file);
+		} catch(IOException | SecurityException e){
+			Utils.log("Unable to record replay: " + file + " - " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Starts recording the given court into the given file.
+	 * @param court The court to record. This must not have been ticked yet
+	 * @param file The file to record to
+	 * @throws IOException If the file couldn't be created
+	 */
+	public ReplayRecorder(Court court, String file) throws IOException{
+		this.court = court;
+		this.file = file;
+		output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+
+		// Write everything needed to create the same court again
+		BallSwarm swarm = court.getSwarm();
+		output.writeLong(MAGIC);
+		output.writeInt(VERSION);
+		output.writeLong(court.getSeed());
+		output.writeInt(court.getWidth());
+		output.writeInt(court.getHeight());
+		output.writeByte(court.paddleTwoAI.getDifficulty().ordinal());
+		output.writeInt(swarm != null ? swarm.getCount() : 0);
+	}
+
+	/**
+	 * Records a chat message sent by the player. This can be called from any thread, and the
+	 * message is written with the next tick.
+	 * @param message The message
+	 */
+	public void recordChat(String message){
+		pendingChat.add(message);
+	}
+
+	/**
+	 * Records a tick. This should be called by the game loop straight after the court is ticked.
+	 * @param direction The direction paddle one was given for the tick
+	 */
+	public void recordTick(Direction direction){
+		if(failed) return;
+
+		ticks++;
+		String chat = pendingChat.poll();
+		boolean writeChecksum = ticks % CHECKSUM_INTERVAL == 0;
+
+		try{
+			output.writeByte(direction.ordinal() | (chat != null ? FLAG_CHAT : 0) | (writeChecksum ? FLAG_CHECKSUM : 0));
+			if(chat != null) output.writeUTF(chat);
+			if(writeChecksum) output.writeLong(court.getChecksum());
+		} catch(IOException ioe){
+			Utils.log("Error recording replay: " + file + " - " + ioe.getMessage());
+			failed = true;
+		}
+	}
+
+	/**
+	 * Finishes the replay and closes the file.
+	 */
+	public void close(){
+		try{
+			if(!failed){
+				output.writeByte(END);
+				output.writeInt(ticks);
+				output.writeLong(court.getChecksum());
+			}
+			output.close();
+		} catch(IOException ioe){
+			Utils.log("Error closing replay: " + file + " - " + ioe.getMessage());
+		}
+	}
+
+}
@@ -10,9 +10,6 @@ import java.nio.file.Paths;
 import java.util.List;
 import java.util.Stack;
 
-import javax.sound.sampled.AudioInputStream;
-import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.Clip;
 import javax.swing.UIManager;
 import javax.swing.UIManager.LookAndFeelInfo;
 
@@ -33,7 +30,7 @@ public final class Utils {
 	public static Player player;
 	
 	// Whether the game is paused
-	public static boolean gamePaused = false;
+	public static volatile boolean gamePaused = false;
 	
 	/**
 	 * Logs the given message.
@@ -176,26 +173,6 @@ public final class Utils {
 		return false;
 	}
 	
-	/**
-	 * Plays some audio.
-	 * @param filePath The file path of the audio to play
-	 */
-	public static void playAudio(String filePath){
-		try{
-			// Open an input stream for the audio file
-			AudioInputStream inputStream = AudioSystem.getAudioInputStream(Utils.class.getResourceAsStream(filePath));
-			
-			// Get a clip
-			Clip clip = AudioSystem.getClip();
-			
-			// Open the audio and play it
-			clip.open(inputStream);
-			clip.start();
-		} catch(Exception e){
-			Utils.log("Error playing audio: " + filePath + " - " + e.toString());
-		}
-	}
-	
 	/**
 	 * Converts the given string into its matching colour. E.g, 'Yellow' -> Color.YELLOW
 	 * @param colourString A string version of a colour